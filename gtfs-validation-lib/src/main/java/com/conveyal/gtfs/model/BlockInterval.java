@@ -1,14 +1,17 @@
 package com.conveyal.gtfs.model;
 
-import org.onebusaway.gtfs.model.StopTime;
+import java.io.Serializable;
+
 import org.onebusaway.gtfs.model.Trip;
 
 
-public class BlockInterval implements Comparable<BlockInterval> {
+public class BlockInterval implements Comparable<BlockInterval>, Serializable {
+	private static final long serialVersionUID = 1L;
+
 	Trip trip;
 	Integer startTime;
-	StopTime firstStop;
-	StopTime lastStop;
+	int firstArrivalTime;
+	int lastDepartureTime;
 
 	public Trip getTrip() {
 		return trip;
@@ -26,27 +29,27 @@ public class BlockInterval implements Comparable<BlockInterval> {
 		this.startTime = startTime;
 	}
 
-	public StopTime getFirstStop() {
-		return firstStop;
+	/** @return the arrival time at the first stop of the trip */
+	public int getFirstArrivalTime() {
+		return firstArrivalTime;
 	}
 
-	public void setFirstStop(StopTime firstStop) {
-		this.firstStop = firstStop;
+	public void setFirstArrivalTime(int firstArrivalTime) {
+		this.firstArrivalTime = firstArrivalTime;
 	}
 
-	public StopTime getLastStop() {
-		return lastStop;
+	/** @return the departure time from the last stop of the trip */
+	public int getLastDepartureTime() {
+		return lastDepartureTime;
 	}
 
-	public void setLastStop(StopTime lastStop) {
-		this.lastStop = lastStop;
+	public void setLastDepartureTime(int lastDepartureTime) {
+		this.lastDepartureTime = lastDepartureTime;
 	}
 
 	public int compareTo(BlockInterval o) {
-		return new Integer(this.firstStop.getArrivalTime())
-				.compareTo(new Integer(o.firstStop.getArrivalTime()));
+		return Integer.compare(this.firstArrivalTime, o.firstArrivalTime);
 	}
 	
 
 }
-
@@ -0,0 +1,140 @@
+package com.conveyal.gtfs.model;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The statistics of a whole feed, and of each agency in it, computed at one time.
+ *
+ * A snapshot does not change once it has been built, and so can be shared. Each call to getStatistic returns
+ * a new Statistic, which the caller may change. Dates are null where the feed has no calendar, or no calendar
+ * dates, and the bounds are null where it has no stops.
+ */
+public class FeedStatistics {
+	private int agencyCount;
+	private int routeCount;
+	private int tripCount;
+	private int stopCount;
+	private int stopTimeCount;
+	private Date calendarServiceStart;
+	private Date calendarServiceEnd;
+	private Date calendarStartDate;
+	private Date calendarEndDate;
+	private Rectangle2D bounds;
+	private Map<String, Statistic> agencies;
+
+	/**
+	 * @param feed the totals for the whole feed; its agency ID is ignored
+	 * @param agencyCount the number of agencies in agency.txt
+	 * @param agencies the totals for each agency, by agency ID
+	 */
+	public FeedStatistics(Statistic feed, int agencyCount, Map<String, Statistic> agencies) {
+		this.agencyCount = agencyCount;
+		this.routeCount = feed.getRouteCount();
+		this.tripCount = feed.getTripCount();
+		this.stopCount = feed.getStopCount();
+		this.stopTimeCount = feed.getStopTimeCount();
+		this.calendarServiceStart = feed.getCalendarServiceStart();
+		this.calendarServiceEnd = feed.getCalendarServiceEnd();
+		this.calendarStartDate = feed.getCalendarStartDate();
+		this.calendarEndDate = feed.getCalendarEndDate();
+		this.bounds = feed.getBounds();
+
+		this.agencies = new TreeMap<String, Statistic>();
+		for (Map.Entry<String, Statistic> agency : agencies.entrySet()) {
+			this.agencies.put(agency.getKey(), copy(agency.getValue(), agency.getKey()));
+		}
+	}
+
+	public int getAgencyCount() {
+		return agencyCount;
+	}
+
+	public int getRouteCount() {
+		return routeCount;
+	}
+
+	public int getTripCount() {
+		return tripCount;
+	}
+
+	public int getStopCount() {
+		return stopCount;
+	}
+
+	public int getStopTimeCount() {
+		return stopTimeCount;
+	}
+
+	/** @return the earliest start date in calendar.txt */
+	public Date getCalendarServiceStart() {
+		return copy(calendarServiceStart);
+	}
+
+	/** @return the latest end date in calendar.txt */
+	public Date getCalendarServiceEnd() {
+		return copy(calendarServiceEnd);
+	}
+
+	/** @return the earliest date in calendar_dates.txt */
+	public Date getCalendarStartDate() {
+		return copy(calendarStartDate);
+	}
+
+	/** @return the latest date in calendar_dates.txt */
+	public Date getCalendarEndDate() {
+		return copy(calendarEndDate);
+	}
+
+	/** @return the bounding box of the stops, with x being longitude and y latitude */
+	public Rectangle2D getBounds() {
+		return bounds == null ? null : (Rectangle2D) bounds.clone();
+	}
+
+	/** @return the IDs of the agencies in agency.txt, and of any others that entities refer to */
+	public Set<String> getAgencyIds() {
+		return Collections.unmodifiableSet(agencies.keySet());
+	}
+
+	/**
+	 * @return the statistics of one agency; an agency that is not in the feed has counts of zero and no dates.
+	 * The bounds are those of the whole feed, since stops do not have agencies in GTFS.
+	 */
+	public Statistic getStatistic(String agencyId) {
+		Statistic agency = agencies.get(agencyId);
+
+		if (agency == null) {
+			agency = new Statistic();
+			agency.setRouteCount(0);
+			agency.setTripCount(0);
+			agency.setStopCount(0);
+			agency.setStopTimeCount(0);
+		}
+
+		Statistic ret = copy(agency, agencyId);
+		ret.setBounds(getBounds());
+		return ret;
+	}
+
+	private static Statistic copy(Statistic s, String agencyId) {
+		Statistic ret = new Statistic();
+		ret.setAgencyId(agencyId);
+		ret.setRouteCount(s.getRouteCount());
+		ret.setTripCount(s.getTripCount());
+		ret.setStopCount(s.getStopCount());
+		ret.setStopTimeCount(s.getStopTimeCount());
+		ret.setCalendarServiceStart(copy(s.getCalendarServiceStart()));
+		ret.setCalendarServiceEnd(copy(s.getCalendarServiceEnd()));
+		ret.setCalendarStartDate(copy(s.getCalendarStartDate()));
+		ret.setCalendarEndDate(copy(s.getCalendarEndDate()));
+		return ret;
+	}
+
+	private static Date copy(Date date) {
+		return date == null ? null : new Date(date.getTime());
+	}
+}
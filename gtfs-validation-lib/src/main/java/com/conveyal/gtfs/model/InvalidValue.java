@@ -1,10 +1,11 @@
 package com.conveyal.gtfs.model;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 import org.onebusaway.gtfs.model.Route;
 
-public class InvalidValue implements Serializable, Comparable {
+public class InvalidValue implements Serializable, Comparable<InvalidValue> {
 
 	/**
 	 * 
@@ -54,9 +55,60 @@ public class InvalidValue implements Serializable, Comparable {
 		
 	}
 
+	/**
+	 * Invalid values are equal if they describe the same problem with the same entity. The problem data is not
+	 * compared, as it is derived from the rest.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+
+		if (!(o instanceof InvalidValue))
+			return false;
+
+		InvalidValue other = (InvalidValue) o;
+		return Objects.equals(problemType, other.problemType)
+				&& Objects.equals(affectedEntityId, other.affectedEntityId)
+				&& Objects.equals(problemDescription, other.problemDescription)
+				&& Objects.equals(affectedEntity, other.affectedEntity)
+				&& Objects.equals(affectedField, other.affectedField)
+				&& priority == other.priority
+				&& Objects.equals(route, other.route);
+	}
+
 	@Override
-	public int compareTo(Object o) {
-		return this.toString().compareTo(o.toString());
+	public int hashCode() {
+		return Objects.hash(problemType, affectedEntityId, problemDescription, affectedEntity, affectedField, priority, route);
+	}
+
+	/**
+	 * Sort by problem type, then affected entity ID, then description, which is the order of the fields in toString().
+	 */
+	@Override
+	public int compareTo(InvalidValue o) {
+		int ret = compare(problemType, o.problemType);
+		if (ret == 0)
+			ret = compare(affectedEntityId, o.affectedEntityId);
+		if (ret == 0)
+			ret = compare(problemDescription, o.problemDescription);
+		if (ret == 0)
+			ret = compare(affectedEntity, o.affectedEntity);
+		if (ret == 0)
+			ret = compare(affectedField, o.affectedField);
+		if (ret == 0)
+			ret = compare(priority, o.priority);
+		return ret;
+	}
+
+	private static <T extends Comparable<T>> int compare(T a, T b) {
+		if (a == b)
+			return 0;
+		if (a == null)
+			return -1;
+		if (b == null)
+			return 1;
+		return a.compareTo(b);
 	}
 	
 }
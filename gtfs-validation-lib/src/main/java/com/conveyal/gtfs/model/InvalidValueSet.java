@@ -0,0 +1,217 @@
+package com.conveyal.gtfs.model;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.Route;
+
+/**
+ * The invalid values found by a check, in the order they were found.
+ *
+ * Adding and removing are constant time. Values that are equal (see {@link InvalidValue#equals}) are only
+ * kept once. Values can be looked up by problem type, affected entity, affected entity ID, route and priority;
+ * the indexes are built the first time one of them is used, and kept up to date from then on, so a result
+ * that is never queried pays nothing for them.
+ *
+ * An invalid value must not be modified once it has been added. Like the rest of a ValidationResult, the set is
+ * not safe to use from several threads at once.
+ */
+public class InvalidValueSet extends AbstractSet<InvalidValue> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private LinkedHashSet<InvalidValue> values = new LinkedHashSet<InvalidValue>();
+
+	private transient HashMap<String, LinkedHashSet<InvalidValue>> byProblemType;
+	private transient HashMap<String, LinkedHashSet<InvalidValue>> byAffectedEntity;
+	private transient HashMap<String, LinkedHashSet<InvalidValue>> byAffectedEntityId;
+	private transient HashMap<Route, LinkedHashSet<InvalidValue>> byRoute;
+	private transient EnumMap<Priority, LinkedHashSet<InvalidValue>> byPriority;
+
+	@Override
+	public boolean add(InvalidValue iv) {
+		if (!values.add(iv))
+			return false;
+
+		if (byProblemType != null)
+			index(iv);
+
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!values.remove(o))
+			return false;
+
+		if (byProblemType != null)
+			unindex((InvalidValue) o);
+
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return values.contains(o);
+	}
+
+	@Override
+	public int size() {
+		return values.size();
+	}
+
+	@Override
+	public void clear() {
+		values.clear();
+		byProblemType = null;
+	}
+
+	@Override
+	public Iterator<InvalidValue> iterator() {
+		final Iterator<InvalidValue> it = values.iterator();
+
+		return new Iterator<InvalidValue>() {
+			private InvalidValue current;
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public InvalidValue next() {
+				return current = it.next();
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+				if (byProblemType != null)
+					unindex(current);
+			}
+		};
+	}
+
+	/** @return the values with this problem type, e.g. UnusedStop */
+	public Set<InvalidValue> getByProblemType(String problemType) {
+		ensureIndexed();
+		return view(byProblemType.get(problemType));
+	}
+
+	/** @return the values affecting this kind of entity, e.g. trip */
+	public Set<InvalidValue> getByAffectedEntity(String affectedEntity) {
+		ensureIndexed();
+		return view(byAffectedEntity.get(affectedEntity));
+	}
+
+	/** @return the values affecting the entity with this ID */
+	public Set<InvalidValue> getByAffectedEntityId(String affectedEntityId) {
+		ensureIndexed();
+		return view(byAffectedEntityId.get(affectedEntityId));
+	}
+
+	/** @return the values affecting this route */
+	public Set<InvalidValue> getByRoute(Route route) {
+		ensureIndexed();
+		return view(byRoute.get(route));
+	}
+
+	/** @return the values with this priority */
+	public Set<InvalidValue> getByPriority(Priority priority) {
+		ensureIndexed();
+		return view(byPriority.get(priority));
+	}
+
+	/**
+	 * Remove all of the values with a problem type.
+	 * @return the values removed, in the order they were added
+	 */
+	public List<InvalidValue> removeByProblemType(String problemType) {
+		List<InvalidValue> removed = new ArrayList<InvalidValue>(getByProblemType(problemType));
+
+		for (InvalidValue iv : removed) {
+			remove(iv);
+		}
+
+		return removed;
+	}
+
+	/**
+	 * @return a copy of the values, sorted by problem type, affected entity ID and description
+	 */
+	public List<InvalidValue> sorted() {
+		List<InvalidValue> ret = new ArrayList<InvalidValue>(values);
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private void ensureIndexed() {
+		if (byProblemType != null)
+			return;
+
+		byProblemType = new HashMap<String, LinkedHashSet<InvalidValue>>();
+		byAffectedEntity = new HashMap<String, LinkedHashSet<InvalidValue>>();
+		byAffectedEntityId = new HashMap<String, LinkedHashSet<InvalidValue>>();
+		byRoute = new HashMap<Route, LinkedHashSet<InvalidValue>>();
+		byPriority = new EnumMap<Priority, LinkedHashSet<InvalidValue>>(Priority.class);
+
+		for (InvalidValue iv : values) {
+			index(iv);
+		}
+	}
+
+	private void index(InvalidValue iv) {
+		put(byProblemType, iv.problemType, iv);
+		put(byAffectedEntity, iv.affectedEntity, iv);
+		put(byAffectedEntityId, iv.affectedEntityId, iv);
+		put(byRoute, iv.route, iv);
+		put(byPriority, iv.priority, iv);
+	}
+
+	private void unindex(InvalidValue iv) {
+		take(byProblemType, iv.problemType, iv);
+		take(byAffectedEntity, iv.affectedEntity, iv);
+		take(byAffectedEntityId, iv.affectedEntityId, iv);
+		take(byRoute, iv.route, iv);
+		take(byPriority, iv.priority, iv);
+	}
+
+	private static <K> void put(Map<K, LinkedHashSet<InvalidValue>> index, K key, InvalidValue iv) {
+		if (key == null)
+			return;
+
+		LinkedHashSet<InvalidValue> set = index.get(key);
+		if (set == null) {
+			set = new LinkedHashSet<InvalidValue>();
+			index.put(key, set);
+		}
+		set.add(iv);
+	}
+
+	private static <K> void take(Map<K, LinkedHashSet<InvalidValue>> index, K key, InvalidValue iv) {
+		if (key == null)
+			return;
+
+		LinkedHashSet<InvalidValue> set = index.get(key);
+		if (set != null) {
+			set.remove(iv);
+			if (set.isEmpty())
+				index.remove(key);
+		}
+	}
+
+	private static Set<InvalidValue> view(Set<InvalidValue> set) {
+		if (set == null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(set);
+	}
+}
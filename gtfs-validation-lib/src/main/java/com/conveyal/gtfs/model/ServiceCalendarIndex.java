@@ -0,0 +1,218 @@
+package com.conveyal.gtfs.model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+/**
+ * The dates on which each service in a feed runs, from calendar.txt with the additions and removals in
+ * calendar_dates.txt applied.
+ *
+ * Each service's dates are held as a bitset of days, with bit i set if the service runs on the day i days after
+ * the earliest date in the feed. A year of service takes six longs, and whether two services have a date in
+ * common is found by ANDing their words, rather than by expanding each into a set of dates.
+ * Services that appear only in calendar_dates.txt are included; a service whose only exceptions remove
+ * dates is not.
+ *
+ * A ServiceCalendarIndex is immutable once built, and so can be shared between checks running concurrently.
+ */
+public class ServiceCalendarIndex {
+	private HashMap<AgencyAndId, BitSet> activeDays;
+
+	/** the epoch day of bit 0 */
+	private long firstDay;
+
+	/** one past the last bit that is set in any service */
+	private int dayCount;
+
+	public ServiceCalendarIndex(Collection<ServiceCalendar> allCalendars, Collection<ServiceCalendarDate> allCalendarDates) {
+		activeDays = new HashMap<AgencyAndId, BitSet>(allCalendars.size() * 2);
+
+		firstDay = Long.MAX_VALUE;
+		for (ServiceCalendar calendar : allCalendars) {
+			firstDay = Math.min(firstDay, toEpochDay(calendar.getStartDate()));
+		}
+		for (ServiceCalendarDate calendarDate : allCalendarDates) {
+			firstDay = Math.min(firstDay, toEpochDay(calendarDate.getDate()));
+		}
+		if (firstDay == Long.MAX_VALUE)
+			firstDay = 0;
+
+		for (ServiceCalendar calendar : allCalendars) {
+			boolean[] weekdays = new boolean[8];
+			weekdays[DayOfWeek.MONDAY.getValue()] = calendar.getMonday() == 1;
+			weekdays[DayOfWeek.TUESDAY.getValue()] = calendar.getTuesday() == 1;
+			weekdays[DayOfWeek.WEDNESDAY.getValue()] = calendar.getWednesday() == 1;
+			weekdays[DayOfWeek.THURSDAY.getValue()] = calendar.getThursday() == 1;
+			weekdays[DayOfWeek.FRIDAY.getValue()] = calendar.getFriday() == 1;
+			weekdays[DayOfWeek.SATURDAY.getValue()] = calendar.getSaturday() == 1;
+			weekdays[DayOfWeek.SUNDAY.getValue()] = calendar.getSunday() == 1;
+
+			long start = toEpochDay(calendar.getStartDate());
+			long end = toEpochDay(calendar.getEndDate());
+
+			BitSet days = getOrCreate(calendar.getServiceId());
+
+			for (long day = start; day <= end; day++) {
+				if (weekdays[LocalDate.ofEpochDay(day).getDayOfWeek().getValue()])
+					days.set((int) (day - firstDay));
+			}
+		}
+
+		for (ServiceCalendarDate calendarDate : allCalendarDates) {
+			int day = (int) (toEpochDay(calendarDate.getDate()) - firstDay);
+
+			if (calendarDate.getExceptionType() == ServiceCalendarDate.EXCEPTION_TYPE_ADD) {
+				getOrCreate(calendarDate.getServiceId()).set(day);
+			}
+			else if (calendarDate.getExceptionType() == ServiceCalendarDate.EXCEPTION_TYPE_REMOVE) {
+				BitSet days = activeDays.get(calendarDate.getServiceId());
+				if (days != null)
+					days.clear(day);
+			}
+		}
+
+		dayCount = 0;
+		for (BitSet days : activeDays.values()) {
+			dayCount = Math.max(dayCount, days.length());
+		}
+	}
+
+	private BitSet getOrCreate(AgencyAndId serviceId) {
+		BitSet days = activeDays.get(serviceId);
+		if (days == null) {
+			days = new BitSet();
+			activeDays.put(serviceId, days);
+		}
+		return days;
+	}
+
+	/** @return the IDs of all of the services in calendar.txt, and those added in calendar_dates.txt */
+	public Set<AgencyAndId> getServiceIds() {
+		return Collections.unmodifiableSet(activeDays.keySet());
+	}
+
+	/** @return true if the service runs on this date */
+	public boolean isActive(AgencyAndId serviceId, ServiceDate date) {
+		BitSet days = activeDays.get(serviceId);
+		if (days == null)
+			return false;
+
+		long day = toEpochDay(date) - firstDay;
+		return day >= 0 && day < dayCount && days.get((int) day);
+	}
+
+	/** @return the number of dates on which the service runs */
+	public int getActiveDayCount(AgencyAndId serviceId) {
+		BitSet days = activeDays.get(serviceId);
+		return days == null ? 0 : days.cardinality();
+	}
+
+	/** @return the IDs of the services that run on this date */
+	public List<AgencyAndId> getServiceIdsOnDate(ServiceDate date) {
+		List<AgencyAndId> ret = new ArrayList<AgencyAndId>();
+
+		long day = toEpochDay(date) - firstDay;
+		if (day < 0 || day >= dayCount)
+			return ret;
+
+		for (Map.Entry<AgencyAndId, BitSet> service : activeDays.entrySet()) {
+			if (service.getValue().get((int) day))
+				ret.add(service.getKey());
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Find the services that run on each day of a range, all at once. This visits each service's active days in
+	 * the range once, rather than every service on every day.
+	 * @return for each day from first to last inclusive, the IDs of the services that run on it, in the same
+	 * order as getServiceIdsOnDate
+	 */
+	public List<List<AgencyAndId>> getServiceIdsByDay(ServiceDate first, ServiceDate last) {
+		long from = toEpochDay(first);
+		int days = (int) Math.max(0, toEpochDay(last) - from + 1);
+
+		List<List<AgencyAndId>> ret = new ArrayList<List<AgencyAndId>>(days);
+		for (int i = 0; i < days; i++) {
+			ret.add(new ArrayList<AgencyAndId>());
+		}
+
+		// the range in bits, clipped to the bits that can be set
+		int fromBit = (int) Math.max(0, Math.min(dayCount, from - firstDay));
+		int toBit = (int) Math.max(0, Math.min(dayCount, from + days - firstDay));
+
+		for (Map.Entry<AgencyAndId, BitSet> service : activeDays.entrySet()) {
+			BitSet serviceDays = service.getValue();
+			for (int bit = serviceDays.nextSetBit(fromBit); bit >= 0 && bit < toBit; bit = serviceDays.nextSetBit(bit + 1)) {
+				ret.get((int) (bit + firstDay - from)).add(service.getKey());
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * @return true if the two services run on a date in common; a service that is not in the feed shares no dates
+	 */
+	public boolean shareDate(AgencyAndId serviceId1, AgencyAndId serviceId2) {
+		BitSet days1 = activeDays.get(serviceId1);
+		BitSet days2 = activeDays.get(serviceId2);
+
+		if (days1 == null || days2 == null)
+			return false;
+
+		return days1.intersects(days2);
+	}
+
+	/** @return the number of dates on which both services run */
+	public int getSharedDayCount(AgencyAndId serviceId1, AgencyAndId serviceId2) {
+		BitSet days1 = activeDays.get(serviceId1);
+		BitSet days2 = activeDays.get(serviceId2);
+
+		if (days1 == null || days2 == null)
+			return 0;
+
+		BitSet shared = (BitSet) days1.clone();
+		shared.and(days2);
+		return shared.cardinality();
+	}
+
+	/** @return the earliest date on which any service runs, or null if none do */
+	public ServiceDate getFirstDate() {
+		int first = -1;
+		for (BitSet days : activeDays.values()) {
+			int day = days.nextSetBit(0);
+			if (day >= 0 && (first < 0 || day < first))
+				first = day;
+		}
+		return first < 0 ? null : fromEpochDay(firstDay + first);
+	}
+
+	/** @return the latest date on which any service runs, or null if none do */
+	public ServiceDate getLastDate() {
+		return dayCount == 0 ? null : fromEpochDay(firstDay + dayCount - 1);
+	}
+
+	public static long toEpochDay(ServiceDate date) {
+		return LocalDate.of(date.getYear(), date.getMonth(), date.getDay()).toEpochDay();
+	}
+
+	public static ServiceDate fromEpochDay(long epochDay) {
+		LocalDate date = LocalDate.ofEpochDay(epochDay);
+		return new ServiceDate(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+	}
+}
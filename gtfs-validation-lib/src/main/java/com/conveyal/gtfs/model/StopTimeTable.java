@@ -0,0 +1,180 @@
+package com.conveyal.gtfs.model;
+
+import java.util.Arrays;
+
+/**
+ * A columnar store of the fields of stop_times.txt that validation reads.
+ *
+ * Each row is held as five ints: the trip and stop it refers to, interned to dense ordinals by
+ * whoever fills the table, and the stop_sequence, arrival time and departure time, in seconds
+ * after midnight. That is 20 bytes a row, compared to several hundred for a StopTime and the
+ * strings and boxed values hanging off it.
+ *
+ * Times that are not set (e.g. at non-timepoints) should be stored as {@link #MISSING_VALUE},
+ * which is the value OneBusAway uses.
+ */
+public class StopTimeTable {
+	/** the value of a time that is not set, the same as StopTime.MISSING_VALUE */
+	public static final int MISSING_VALUE = -999;
+
+	/** the value of a stop ordinal when the stop could not be resolved */
+	public static final int NO_STOP = -1;
+
+	private int size = 0;
+	private int[] trip;
+	private int[] stop;
+	private int[] sequence;
+	private int[] arrival;
+	private int[] departure;
+
+	public StopTimeTable(int initialCapacity) {
+		initialCapacity = Math.max(initialCapacity, 16);
+		trip = new int[initialCapacity];
+		stop = new int[initialCapacity];
+		sequence = new int[initialCapacity];
+		arrival = new int[initialCapacity];
+		departure = new int[initialCapacity];
+	}
+
+	public StopTimeTable() {
+		this(1024);
+	}
+
+	/**
+	 * Append a row to the table.
+	 * @return the row number
+	 */
+	public int add(int tripOrdinal, int stopOrdinal, int stopSequence, int arrivalTime, int departureTime) {
+		if (size == trip.length)
+			grow(size + (size >> 1) + 1);
+
+		trip[size] = tripOrdinal;
+		stop[size] = stopOrdinal;
+		sequence[size] = stopSequence;
+		arrival[size] = arrivalTime;
+		departure[size] = departureTime;
+		return size++;
+	}
+
+	/**
+	 * Append all of the rows of another table, in order, adding an offset to each trip and stop ordinal.
+	 * A negative stop ordinal is copied unchanged.
+	 */
+	public void addAll(StopTimeTable other, int tripOffset, int stopOffset) {
+		if (size + other.size > trip.length)
+			grow(size + other.size);
+
+		for (int i = 0; i < other.size; i++) {
+			trip[size + i] = other.trip[i] + tripOffset;
+			stop[size + i] = other.stop[i] < 0 ? other.stop[i] : other.stop[i] + stopOffset;
+		}
+		System.arraycopy(other.sequence, 0, sequence, size, other.size);
+		System.arraycopy(other.arrival, 0, arrival, size, other.size);
+		System.arraycopy(other.departure, 0, departure, size, other.size);
+		size += other.size;
+	}
+
+	/** @return the number of rows in the table */
+	public int size() {
+		return size;
+	}
+
+	public int getTrip(int row) {
+		return trip[row];
+	}
+
+	public int getStop(int row) {
+		return stop[row];
+	}
+
+	public int getStopSequence(int row) {
+		return sequence[row];
+	}
+
+	public int getArrivalTime(int row) {
+		return arrival[row];
+	}
+
+	public int getDepartureTime(int row) {
+		return departure[row];
+	}
+
+	/** Set the stop ordinal of a row, e.g. once stop IDs have been resolved against stops.txt */
+	public void setStop(int row, int stopOrdinal) {
+		stop[row] = stopOrdinal;
+	}
+
+	/** Set the trip ordinal of a row */
+	public void setTrip(int row, int tripOrdinal) {
+		trip[row] = tripOrdinal;
+	}
+
+	/**
+	 * Reorder the rows so that the rows of each trip are contiguous, with trips in ordinal order,
+	 * and sorted by stop_sequence within each trip. Rows with equal stop_sequence stay in their original order.
+	 *
+	 * @param tripCount one more than the largest trip ordinal in the table
+	 * @return the offset of the first row of each trip; element tripCount is the size of the table,
+	 *   so the rows of trip t are [offsets[t], offsets[t + 1]).
+	 */
+	public int[] groupByTrip(int tripCount) {
+		int[] offsets = new int[tripCount + 1];
+
+		// counting sort by trip
+		for (int i = 0; i < size; i++) {
+			offsets[trip[i] + 1]++;
+		}
+		for (int t = 0; t < tripCount; t++) {
+			offsets[t + 1] += offsets[t];
+		}
+
+		// the stop sequence goes in the high bits and the original row in the low bits, so sorting
+		// the keys of a trip sorts its rows by sequence, stably
+		long[] keys = new long[size];
+		int[] next = Arrays.copyOf(offsets, tripCount);
+		for (int i = 0; i < size; i++) {
+			keys[next[trip[i]]++] = ((long) sequence[i] << 32) | i;
+		}
+
+		for (int t = 0; t < tripCount; t++) {
+			if (offsets[t + 1] - offsets[t] > 1)
+				Arrays.sort(keys, offsets[t], offsets[t + 1]);
+		}
+
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = (int) keys[i];
+		}
+		keys = null;
+
+		trip = permute(trip, order);
+		stop = permute(stop, order);
+		sequence = permute(sequence, order);
+		arrival = permute(arrival, order);
+		departure = permute(departure, order);
+
+		return offsets;
+	}
+
+	/** Release any spare capacity once the table has been filled */
+	public void trimToSize() {
+		if (size < trip.length)
+			grow(size);
+	}
+
+	private int[] permute(int[] column, int[] order) {
+		int[] ret = new int[column.length];
+		for (int i = 0; i < size; i++) {
+			ret[i] = column[order[i]];
+		}
+		return ret;
+	}
+
+	private void grow(int capacity) {
+		trip = Arrays.copyOf(trip, capacity);
+		stop = Arrays.copyOf(stop, capacity);
+		sequence = Arrays.copyOf(sequence, capacity);
+		arrival = Arrays.copyOf(arrival, capacity);
+		departure = Arrays.copyOf(departure, capacity);
+	}
+}
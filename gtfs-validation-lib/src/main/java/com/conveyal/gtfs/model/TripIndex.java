@@ -0,0 +1,194 @@
+package com.conveyal.gtfs.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * All of the stop times in a feed, grouped by trip and sorted by stop_sequence.
+ *
+ * Stop times make up the vast majority of most feeds, so rather than have every check walk them and
+ * build its own map from trip ID to stop times, this is built once per feed and shared.
+ * The stop times themselves are held in a {@link StopTimeTable}, with trips and stops interned to
+ * dense ordinals. The rows of each trip occupy a contiguous slice [getStart(trip), getEnd(trip)).
+ *
+ * A TripIndex is immutable once built, and so can be shared between checks running concurrently.
+ */
+public class TripIndex {
+	private Trip[] trips;
+	private HashMap<AgencyAndId, Integer> tripOrdinals;
+
+	private Stop[] stops;
+
+	/** tripStart[t] is the first row of trip t; tripStart[trips.length] is the number of rows */
+	private int[] tripStart;
+
+	private StopTimeTable stopTimes;
+
+	/**
+	 * Build an index from the stop times of a feed that has been loaded into memory.
+	 * Every trip in allTrips gets an ordinal, even if it has no stop times; trips referenced only by
+	 * stop times are added after them.
+	 */
+	public TripIndex(Collection<Trip> allTrips, Collection<Stop> allStops, Collection<StopTime> allStopTimes) {
+		HashMap<AgencyAndId, Integer> tripOrdinals = new HashMap<AgencyAndId, Integer>(allTrips.size() * 2);
+		Trip[] trips = new Trip[allTrips.size()];
+		int tripCount = 0;
+
+		for (Trip trip : allTrips) {
+			if (!tripOrdinals.containsKey(trip.getId())) {
+				tripOrdinals.put(trip.getId(), tripCount);
+				trips[tripCount++] = trip;
+			}
+		}
+
+		HashMap<AgencyAndId, Integer> stopOrdinals = new HashMap<AgencyAndId, Integer>(allStops.size() * 2);
+		Stop[] stops = allStops.toArray(new Stop[allStops.size()]);
+		int stopCount = stops.length;
+		for (int i = 0; i < stopCount; i++) {
+			stopOrdinals.put(stops[i].getId(), i);
+		}
+
+		StopTimeTable table = new StopTimeTable(allStopTimes.size());
+
+		for (StopTime stopTime : allStopTimes) {
+			Trip trip = stopTime.getTrip();
+			Integer tripOrdinal = tripOrdinals.get(trip.getId());
+
+			if (tripOrdinal == null) {
+				tripOrdinal = tripCount;
+				tripOrdinals.put(trip.getId(), tripOrdinal);
+				if (tripCount == trips.length)
+					trips = Arrays.copyOf(trips, tripCount * 2 + 1);
+				trips[tripCount++] = trip;
+			}
+
+			int stopOrdinal = StopTimeTable.NO_STOP;
+			Stop stop = stopTime.getStop();
+			if (stop != null) {
+				Integer ordinal = stopOrdinals.get(stop.getId());
+				if (ordinal == null) {
+					// a stop that isn't in stops.txt; keep it so that it can still be reported
+					ordinal = stopCount;
+					if (stopCount == stops.length)
+						stops = Arrays.copyOf(stops, stopCount * 2 + 1);
+					stops[stopCount++] = stop;
+					stopOrdinals.put(stop.getId(), ordinal);
+				}
+				stopOrdinal = ordinal;
+			}
+
+			table.add(tripOrdinal, stopOrdinal, stopTime.getStopSequence(), stopTime.getArrivalTime(), stopTime.getDepartureTime());
+		}
+
+		init(Arrays.copyOf(trips, tripCount), tripOrdinals, Arrays.copyOf(stops, stopCount), table);
+	}
+
+	/**
+	 * Build an index over an existing table of stop times, whose trip and stop ordinals are indices
+	 * into trips and stops. The table is reordered in place.
+	 */
+	public TripIndex(Trip[] trips, Stop[] stops, StopTimeTable stopTimes) {
+		HashMap<AgencyAndId, Integer> tripOrdinals = new HashMap<AgencyAndId, Integer>(trips.length * 2);
+		for (int i = 0; i < trips.length; i++) {
+			if (trips[i] != null)
+				tripOrdinals.put(trips[i].getId(), i);
+		}
+
+		init(trips, tripOrdinals, stops, stopTimes);
+	}
+
+	private void init(Trip[] trips, HashMap<AgencyAndId, Integer> tripOrdinals, Stop[] stops, StopTimeTable stopTimes) {
+		this.trips = trips;
+		this.tripOrdinals = tripOrdinals;
+		this.stops = stops;
+		this.stopTimes = stopTimes;
+		this.tripStart = stopTimes.groupByTrip(trips.length);
+		stopTimes.trimToSize();
+	}
+
+	/** @return the number of trips in this index */
+	public int getTripCount() {
+		return trips.length;
+	}
+
+	/** @return the number of stop times in this index */
+	public int getStopTimeCount() {
+		return stopTimes.size();
+	}
+
+	/** @return the trip with the given ordinal */
+	public Trip getTrip(int trip) {
+		return trips[trip];
+	}
+
+	/** @return the ordinal of the trip with this ID, or -1 if it is not in the index */
+	public int getTripOrdinal(AgencyAndId tripId) {
+		Integer ordinal = tripOrdinals.get(tripId);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/** @return the first row of the trip */
+	public int getStart(int trip) {
+		return tripStart[trip];
+	}
+
+	/** @return one past the last row of the trip */
+	public int getEnd(int trip) {
+		return tripStart[trip + 1];
+	}
+
+	/** @return the number of stop times in the trip */
+	public int getStopTimeCount(int trip) {
+		return tripStart[trip + 1] - tripStart[trip];
+	}
+
+	/** @return the number of stop times in the trip, or 0 if it is not in the index */
+	public int getStopTimeCount(Trip trip) {
+		int ordinal = getTripOrdinal(trip.getId());
+		return ordinal < 0 ? 0 : getStopTimeCount(ordinal);
+	}
+
+	/** @return the underlying table, sorted by trip and stop_sequence */
+	public StopTimeTable getStopTimes() {
+		return stopTimes;
+	}
+
+	/** @return the number of distinct stops referred to by the index */
+	public int getStopCount() {
+		return stops.length;
+	}
+
+	/** @return the stop with the given ordinal */
+	public Stop getStopForOrdinal(int stop) {
+		return stops[stop];
+	}
+
+	/** @return the stop visited by a row, or null if the stop time does not refer to one */
+	public Stop getStop(int row) {
+		int stop = stopTimes.getStop(row);
+		return stop < 0 ? null : stops[stop];
+	}
+
+	/** @return the stop ordinal of a row, or {@link StopTimeTable#NO_STOP} */
+	public int getStopOrdinal(int row) {
+		return stopTimes.getStop(row);
+	}
+
+	public int getStopSequence(int row) {
+		return stopTimes.getStopSequence(row);
+	}
+
+	public int getArrivalTime(int row) {
+		return stopTimes.getArrivalTime(row);
+	}
+
+	public int getDepartureTime(int row) {
+		return stopTimes.getDepartureTime(row);
+	}
+}
@@ -38,7 +38,11 @@ public class TripPatternCollection {
 	}
 	
 	public Boolean addIfNotPresent(Route routeId, AgencyAndId shapeId, List<StopTime> stops){
-		TripPattern tp = new TripPattern(routeId, shapeId, stops.size());
+		return addIfNotPresent(routeId, shapeId, stops.size());
+	}
+	
+	public Boolean addIfNotPresent(Route routeId, AgencyAndId shapeId, int stopCount){
+		TripPattern tp = new TripPattern(routeId, shapeId, stopCount);
 		Boolean present = patterns.contains(tp);
 		if (!present) {
 			patterns.add(tp);
@@ -1,8 +1,7 @@
 package com.conveyal.gtfs.model;
 
 import java.io.Serializable;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.List;
 import java.util.logging.Logger;
 
 
@@ -15,7 +14,8 @@ public class ValidationResult implements Serializable {
 
 	private static Logger _log = Logger.getLogger(ValidationResult.class.getName());
 			
-	public Set<InvalidValue> invalidValues = new TreeSet<InvalidValue>();
+	/** the invalid values, in the order they were found; use sorted() for a stable order */
+	public final InvalidValueSet invalidValues = new InvalidValueSet();
 	
 	public void add(InvalidValue iv) {
 //		_log.info(iv.toString());
@@ -26,20 +26,29 @@ public class ValidationResult implements Serializable {
 		invalidValues.addAll(vr.invalidValues);
 	}
 	
+	/**
+	 * @return the invalid values sorted by problem type, affected entity ID and description
+	 */
+	public List<InvalidValue> sorted() {
+		return invalidValues.sorted();
+	}
+
 	public String toString(){
 		StringBuilder sb = new StringBuilder();
-		for (InvalidValue iv: invalidValues){
+		for (InvalidValue iv: sorted()){
 			sb.append(iv);
 		}
 		return sb.toString();
 	}
 	
 		
+	/**
+	 * @return true if there is an invalid value affecting an entity of this type whose description mentions both one and two
+	 */
 	public boolean containsBoth(String one, String two, String type){
-		for (InvalidValue iv: invalidValues){
+		for (InvalidValue iv: invalidValues.getByAffectedEntity(type)){
 			if (iv.problemDescription.contains(one) 
-					&& iv.problemDescription.contains(two)
-					&& iv.affectedEntity == type)	{
+					&& iv.problemDescription.contains(two))	{
 				return true;
 			}
 		}
@@ -0,0 +1,60 @@
+package com.conveyal.gtfs.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.conveyal.gtfs.model.BlockInterval;
+
+/**
+ * Finds the pairs of trips in a block whose times overlap, with a sweep line.
+ *
+ * The intervals are sorted by the arrival time at their first stop, then swept in that order, keeping the
+ * intervals that are still running. Each interval is compared only with those, so the work is proportional to
+ * the number of intervals plus the number of overlaps, rather than to the square of the number of intervals.
+ * Two trips overlap if each one departs its last stop after the other arrives at its first; trips that
+ * merely touch, with one arriving at its first stop when the other leaves its last, do not.
+ */
+public class BlockOverlapSweep {
+
+	/** Receives the overlapping pairs */
+	public interface OverlapVisitor {
+		/**
+		 * Called once for each pair of overlapping intervals. The first interval arrives at its first stop no later than the second.
+		 */
+		public void visit(BlockInterval earlier, BlockInterval later);
+	}
+
+	private BlockOverlapSweep() {
+	}
+
+	/**
+	 * Report every overlapping pair of intervals exactly once. The list is sorted in place.
+	 */
+	public static void findOverlaps(List<BlockInterval> intervals, OverlapVisitor visitor) {
+		Collections.sort(intervals);
+
+		List<BlockInterval> running = new ArrayList<BlockInterval>();
+
+		for (BlockInterval interval : intervals) {
+			int firstArrival = interval.getFirstArrivalTime();
+
+			// drop the intervals that finished before this one started, and compare with the rest
+			int kept = 0;
+			for (int i = 0; i < running.size(); i++) {
+				BlockInterval other = running.get(i);
+
+				if (other.getLastDepartureTime() <= firstArrival)
+					continue;
+
+				running.set(kept++, other);
+
+				if (interval.getLastDepartureTime() > other.getFirstArrivalTime())
+					visitor.visit(other, interval);
+			}
+
+			running.subList(kept, running.size()).clear();
+			running.add(interval);
+		}
+	}
+}
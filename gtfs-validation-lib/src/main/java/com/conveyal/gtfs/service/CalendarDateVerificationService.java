@@ -4,8 +4,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
@@ -13,76 +15,81 @@ import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
-import org.onebusaway.gtfs.impl.calendar.CalendarServiceDataFactoryImpl;
-import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
-import org.onebusaway.gtfs.services.calendar.CalendarService;
 
 import com.conveyal.gtfs.model.InvalidValue;
 import com.conveyal.gtfs.model.Priority;
+import com.conveyal.gtfs.model.ServiceCalendarIndex;
 import com.conveyal.gtfs.model.ValidationResult;
 import com.conveyal.gtfs.service.impl.GtfsStatisticsService;
 
 
+/**
+ * Checks the dates on which a feed runs service.
+ *
+ * Each instance holds the state of its own feed: the trip counts by service, the services that run on each day of
+ * the feed and the number of trips on each day, which are computed once, when the instance is created, in time
+ * proportional to the number of days each service runs. The reports by date are all produced from them, and they
+ * are not changed afterwards, so instances for different feeds can be used at the same time, and one instance can
+ * be used from several threads at once.
+ */
 public class CalendarDateVerificationService {
 
-	private static GtfsRelationalDaoImpl gtfsMDao = null;
-	private static GtfsStatisticsService stats = null;
-	private static CalendarService calendarService = null;
-	private static Calendar start = null;
-	private static Calendar end = null;
-	private static TimeZone tz = null;
-	private static ServiceDate from;
-	private static ServiceDate to;
-	private static String aid = null;
+	private final ServiceCalendarIndex calendarIndex;
+	private final Map<AgencyAndId, Integer> tripsPerService;
+	private final ServiceDate from;
+	private final ServiceDate to;
+	private volatile TimeZone tz;
+
+	/** the epoch day of from */
+	private final long firstDay;
+	/** the services that run on each day from from to to */
+	private final List<List<AgencyAndId>> servicesByDay;
+	/** the number of trips on each day from from to to */
+	private final int[] tripsByDay;
 
 	public CalendarDateVerificationService(GtfsRelationalDaoImpl gmd){
-		gtfsMDao = gmd;
-		stats = new GtfsStatisticsService(gmd);
-		calendarService = CalendarServiceDataFactoryImpl.createService(gmd);
+		this(new FeedContext(gmd));
+	}
+
+	/**
+	 * Check a feed, using the calendars already derived from it by other services given the same context.
+	 */
+	public CalendarDateVerificationService(FeedContext context){
+		GtfsRelationalDaoImpl gmd = context.getDao();
+		GtfsStatisticsService stats = new GtfsStatisticsService(context);
+		calendarIndex = context.getServiceCalendarIndex();
+
+		HashMap<AgencyAndId, Integer> tripCounts = new HashMap<AgencyAndId, Integer>();
+		for (Trip t : gmd.getAllTrips()) {
+			tripCounts.merge(t.getServiceId(), 1, Integer::sum);
+		}
+		tripsPerService = Collections.unmodifiableMap(tripCounts);
 
-		start = Calendar.getInstance();
-		end = Calendar.getInstance();
-		
 		from = new ServiceDate(stats.getCalendarServiceRangeStart());
 		to = new ServiceDate(stats.getCalendarServiceRangeEnd());
 
-		Collection<Agency> agencies = stats.getAllAgencies();
+		firstDay = ServiceCalendarIndex.toEpochDay(from);
+		// calendar_dates additions and removals are already applied by the index
+		servicesByDay = calendarIndex.getServiceIdsByDay(from, to);
+		tripsByDay = new int[servicesByDay.size()];
+		for (int day = 0; day < tripsByDay.length; day++) {
+			for (AgencyAndId sid : servicesByDay.get(day)){
+				tripsByDay[day] += tripsPerService.getOrDefault(sid, 0);
+			}
+		}
 
-		Agency a = agencies.iterator().next();
-		
 		//Do you know how many time zones there are in the Soviet Union?
-//		if (agencies.size() == 1){
-			aid = a.getId();
-//		}
-//		else { 
-//			for (Agency b: agencies){
-//				if (firstTz != b.getTimezone()){
-//					System.out.println(firstTz + b.getTimezone());
-//					System.err.println("Warning: This file may have two time zones");
-//				}
-//			}
-//		}
-
-		tz = calendarService.getTimeZoneForAgencyId(aid);
-		start.setTimeZone(tz);
-		end.setTimeZone(tz);
+		// the first agency's time zone is used for the whole feed
+		tz = context.getTimeZone();
 
 	}
 	public ConcurrentHashMap<AgencyAndId, AtomicInteger> getTripCountsForAllServiceIDs() {
-		// better way than this loop
-		// for each route
-		// geTripsPerRoute, then increment their calendarID counts.
-		
+		// a copy, since callers may change it
 		ConcurrentHashMap<AgencyAndId, AtomicInteger> tripsPerCalHash = new ConcurrentHashMap<AgencyAndId, AtomicInteger>();
-		gtfsMDao.getAllRoutes()
-			.forEach(r -> gtfsMDao.getTripsForRoute(r)
-					.forEach(t -> {
-						tripsPerCalHash.putIfAbsent(t.getServiceId(), new AtomicInteger(0));
-						tripsPerCalHash.get(t.getServiceId()).incrementAndGet();
-					}));
+		tripsPerService.forEach((sid, count) -> tripsPerCalHash.put(sid, new AtomicInteger(count)));
 		
 		return tripsPerCalHash;
 	}
@@ -91,36 +98,11 @@ public class CalendarDateVerificationService {
  */
 	public TreeMap<Calendar, Integer> getTripCountForDates() {
 
-		ConcurrentHashMap<AgencyAndId, AtomicInteger> tripsPerServHash = getTripCountsForAllServiceIDs();
 		TreeMap<Calendar, Integer> tripsPerDateHash = new TreeMap<Calendar, Integer>();
 
-		start.setTime(from.getAsDate(tz));
-		
-		end.setTime(to.getAsDate(tz));
-		
-		if (start == null){
-			throw new IllegalArgumentException("Calendar Date Range Improperly Set");
-		}
-
-		while(!start.after(end)){
-			Integer tripCount =0;
-			ServiceDate targetDay = new ServiceDate(start);
-			Calendar targetDayAsCal = targetDay.getAsCalendar(tz);
-			
-			for (AgencyAndId sid : calendarService.getServiceIdsOnDate(targetDay)){
-				//System.out.println(targetDay.getAsCalendar(tz).getTime().toString() + " " +sid.toString());
-				if (tripsPerDateHash.containsKey(targetDayAsCal)){
-					tripCount = tripsPerDateHash.get(targetDayAsCal);
-				}
-				if (tripsPerServHash.containsKey(sid)){
-					tripCount = tripCount + tripsPerServHash.get(sid).get();
-				}
-			}
-			
-//			System.out.println(targetDay.getAsCalendar(tz).getTime().toString() + " " +  tripCount);
-			
-			tripsPerDateHash.put(targetDay.getAsCalendar(tz), tripCount);
-			start.add(Calendar.DATE, 1);
+		TimeZone tz = this.tz;
+		for (int day = 0; day < tripsByDay.length; day++) {
+			tripsPerDateHash.put(getDay(day, tz), tripsByDay[day]);
 		}
 
 		return tripsPerDateHash;
@@ -129,28 +111,9 @@ public class CalendarDateVerificationService {
 	public TreeMap<Calendar, ArrayList<AgencyAndId>> getServiceIdsForDates(){
 		TreeMap<Calendar, ArrayList<AgencyAndId>> serviceIdsForDates = new TreeMap<Calendar, ArrayList<AgencyAndId>>();
 
-		start.setTime(from.getAsDate(tz));
-		end.setTime(to.getAsDate(tz));
-		
-		Collection<ServiceCalendarDate> allCalendarDates = gtfsMDao.getAllCalendarDates();
-		ConcurrentHashMap<ServiceDate, ArrayList<AgencyAndId>> dateAdditions = getCalendarDateAdditions(allCalendarDates);
-		ConcurrentHashMap<ServiceDate, ArrayList<AgencyAndId>> dateRemovals = getCalendarDateRemovals(allCalendarDates);
-		
-		while(!start.after(end)){
-
-			ArrayList<AgencyAndId> serviceIdsForTargetDay = new ArrayList<AgencyAndId>();
-
-			ServiceDate targetDay = new ServiceDate(start);
-
-			calendarService.getServiceIdsOnDate(targetDay).forEach(sid -> serviceIdsForTargetDay.add(sid));
-			
-			dateAdditions.getOrDefault(targetDay, new ArrayList<AgencyAndId>()).forEach(sid -> serviceIdsForTargetDay.add(sid));
-			
-			dateRemovals.getOrDefault(targetDay, new ArrayList<AgencyAndId>()).forEach(sid -> serviceIdsForTargetDay.remove(sid));
-		
-
-			serviceIdsForDates.put(targetDay.getAsCalendar(tz), serviceIdsForTargetDay);
-			start.add(Calendar.DATE, 1);
+		TimeZone tz = this.tz;
+		for (int day = 0; day < servicesByDay.size(); day++) {
+			serviceIdsForDates.put(getDay(day, tz), new ArrayList<AgencyAndId>(servicesByDay.get(day)));
 		}
 		return serviceIdsForDates;
 
@@ -158,10 +121,10 @@ public class CalendarDateVerificationService {
 
 	public ArrayList<Calendar> getDatesWithNoTrips(){
 		ArrayList<Calendar> datesWithNoTrips = new ArrayList<Calendar>();
-		TreeMap<Calendar, Integer> tc = getTripCountForDates();
-		for(Map.Entry<Calendar, Integer> d: tc.entrySet()){
-			if (d.getValue()==0){
-				datesWithNoTrips.add(d.getKey());
+		TimeZone tz = this.tz;
+		for (int day = 0; day < tripsByDay.length; day++) {
+			if (tripsByDay[day]==0){
+				datesWithNoTrips.add(getDay(day, tz));
 			}
 		}
 		return datesWithNoTrips;
@@ -185,8 +148,15 @@ public class CalendarDateVerificationService {
 		return vr;
 	}
 
-	public static Set<AgencyAndId> getCalendarsForDate(ServiceDate date) {
-		return calendarService.getServiceIdsOnDate(date);
+	public Set<AgencyAndId> getCalendarsForDate(ServiceDate date) {
+		return new HashSet<AgencyAndId>(calendarIndex.getServiceIdsOnDate(date));
+	}
+
+	/**
+	 * @return the dates on which each service runs
+	 */
+	public ServiceCalendarIndex getServiceCalendarIndex() {
+		return calendarIndex;
 	}
 
 	public static String formatTripCountForServiceIDs(CalendarDateVerificationService t){
@@ -200,15 +170,16 @@ public class CalendarDateVerificationService {
 		Calendar yesterday = Calendar.getInstance();
 				yesterday.add(Calendar.DAY_OF_MONTH, -1);;
 				
-		TreeMap<Calendar, Integer> tc = getTripCountForDates();
-		for(Calendar d: tc.keySet()){
+		TimeZone tz = this.tz;
+		for (int day = 0; day < tripsByDay.length; day++) {
+			Calendar d = getDay(day, tz);
 			if (d.before(yesterday)){
 				continue;
 			}
 			s.append("\n#### " + df.format(d.getTime()));
-			s.append("\n number of trips on this day: " + tc.get(d));
+			s.append("\n number of trips on this day: " + tripsByDay[day]);
 
-			ArrayList<AgencyAndId> aid = getServiceIdsForDates().get(d);
+			ArrayList<AgencyAndId> aid = new ArrayList<AgencyAndId>(servicesByDay.get(day));
 			Collections.sort(aid);
 			for (AgencyAndId sid : aid){
 				s.append("\n" + helper.getHumanReadableCalendarFromServiceId(sid.toString()));
@@ -221,29 +192,12 @@ public class CalendarDateVerificationService {
 		return tz;
 	}
 	public void setTz(TimeZone tz) {
-		CalendarDateVerificationService.tz = tz;
+		this.tz = tz;
 	}
-	
-	private ConcurrentHashMap<ServiceDate, ArrayList<AgencyAndId>> getCalendarDateAdditions(Collection<ServiceCalendarDate> allCalendarDates){
-		ConcurrentHashMap<ServiceDate, ArrayList<AgencyAndId>> calDateMap = new ConcurrentHashMap<>();
-		allCalendarDates.stream().filter(d -> d.getExceptionType() ==1)
-				.forEach(d -> {
-					calDateMap.computeIfAbsent(d.getDate(), k-> new ArrayList<AgencyAndId>()).add(d.getServiceId());
-				});;	
-		
-		return calDateMap;
-	}
-	
-	private ConcurrentHashMap<ServiceDate, ArrayList<AgencyAndId>> getCalendarDateRemovals(Collection<ServiceCalendarDate> allCalendarDates){
-		ConcurrentHashMap<ServiceDate, ArrayList<AgencyAndId>> calDateMap = new ConcurrentHashMap<>();
-		allCalendarDates.stream().filter(d -> d.getExceptionType() ==2)
-				.forEach(d -> {
-					calDateMap.computeIfAbsent(d.getDate(), k-> new ArrayList<AgencyAndId>()).add(d.getServiceId());
-				});;	
-		
-		return calDateMap;
-	}
-	
 
+	/** @return a new calendar, at the start of a day counted from the first day of service */
+	private Calendar getDay(int day, TimeZone tz) {
+		return ServiceCalendarIndex.fromEpochDay(firstDay + day).getAsCalendar(tz);
+	}
 
 }
@@ -0,0 +1,385 @@
+package com.conveyal.gtfs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a CSV file a record at a time, as bytes, so that fields can be parsed where they lie in the buffer rather
+ * than each being made into a String first.
+ *
+ * Quoted fields, with doubled quotes inside them, LF or CRLF line ends, a UTF-8 byte order mark and blank lines are
+ * all handled. The parse methods accept the same text as the OneBusAway field mappings do, or fail: anything
+ * unusual goes through the same parsing as a String, and anything invalid throws, so that the caller can fall back
+ * to OneBusAway and report the problem the way it always has.
+ */
+public class CsvByteReader {
+
+	/** the value of a time field that is empty, the same as StopTime.MISSING_VALUE */
+	public static final int MISSING_VALUE = -999;
+
+	/** exactly representable powers of ten, for parsing doubles */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private InputStream in;
+	private byte[] buf;
+	/** the unread bytes are [pos, limit) */
+	private int pos = 0;
+	private int limit = 0;
+	private boolean eof = false;
+	private boolean checkByteOrderMark = true;
+
+	private int fieldCount = 0;
+	private int[] starts = new int[32];
+	private int[] ends = new int[32];
+
+	private long lineNumber = 0;
+
+	public CsvByteReader(InputStream in) {
+		this.in = in;
+		this.buf = new byte[1 << 16];
+	}
+
+	/**
+	 * Read the records in buf[start, end), which must begin at the start of a record. The array is not copied, and
+	 * quoted fields are unquoted in place, so it must not be shared.
+	 */
+	public CsvByteReader(byte[] buf, int start, int end) {
+		this.buf = buf;
+		this.pos = start;
+		this.limit = end;
+		this.eof = true;
+		this.checkByteOrderMark = false;
+	}
+
+	/**
+	 * Find the end of a record in buf[start, end), which must begin at the start of a record, honoring quotes.
+	 * @param last find the end of the last whole record, rather than of the first
+	 * @return the index after the newline that ends the record, or -1 if no record ends before end
+	 */
+	public static int findRecordEnd(byte[] buf, int start, int end, boolean last) {
+		boolean quoted = false;
+		int recordEnd = -1;
+
+		for (int i = start; i < end; i++) {
+			byte b = buf[i];
+			if (b == '"') {
+				quoted = !quoted;
+			}
+			else if (b == '\n' && !quoted) {
+				recordEnd = i + 1;
+				if (!last)
+					break;
+			}
+		}
+
+		return recordEnd;
+	}
+
+	/**
+	 * Read the next record that is not blank.
+	 * @return false at the end of the file
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			if (lineNumber == 0 && checkByteOrderMark)
+				skipByteOrderMark();
+
+			int end = findRecordEnd();
+			if (end < 0)
+				return false;
+
+			lineNumber++;
+			int recordStart = pos;
+			pos = end < limit ? end + 1 : end;
+
+			int recordEnd = end;
+			if (recordEnd > recordStart && buf[recordEnd - 1] == '\r')
+				recordEnd--;
+
+			if (recordEnd == recordStart)
+				continue;
+
+			splitFields(recordStart, recordEnd);
+			return true;
+		}
+	}
+
+	/** @return the number of fields in the current record */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/** @return the line number of the current record, counting the header as line 1, and a record with line breaks in quotes as one line */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/** @return true if the field is empty or past the end of the record */
+	public boolean isEmpty(int field) {
+		return field < 0 || field >= fieldCount || starts[field] == ends[field];
+	}
+
+	/** @return the field as a String, or the empty string if it is past the end of the record */
+	public String getString(int field) {
+		if (field < 0 || field >= fieldCount)
+			return "";
+		return new String(buf, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+	}
+
+	/** @return the buffer that holds the fields of the current record; it changes with each record */
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	public int getStart(int field) {
+		return field < fieldCount ? starts[field] : 0;
+	}
+
+	public int getEnd(int field) {
+		return field < fieldCount ? ends[field] : 0;
+	}
+
+	/**
+	 * Parse an integer field, as Integer.parseInt would.
+	 * @throws NumberFormatException if the field is not an integer
+	 */
+	public int getInt(int field) {
+		int start = getStart(field), end = getEnd(field);
+		int i = start;
+		boolean negative = false;
+
+		if (i < end && buf[i] == '-') {
+			negative = true;
+			i++;
+		}
+
+		// nine digits cannot overflow
+		if (i == end || end - i > 9)
+			return Integer.parseInt(getString(field));
+
+		int value = 0;
+		for (; i < end; i++) {
+			int digit = buf[i] - '0';
+			// e.g. a plus sign, which Integer.parseInt also accepts
+			if (digit < 0 || digit > 9)
+				return Integer.parseInt(getString(field));
+			value = value * 10 + digit;
+		}
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse a time field of the form H:MM:SS, where the hours may be more than 24 and may be negative, as
+	 * OneBusAway does.
+	 * @return the time in seconds after midnight, or {@link #MISSING_VALUE} if the field is empty
+	 * @throws NumberFormatException if the field is not a time
+	 */
+	public int getTime(int field) {
+		if (isEmpty(field))
+			return MISSING_VALUE;
+
+		int start = starts[field], end = ends[field];
+		int i = start;
+		boolean negative = false;
+
+		if (buf[i] == '-') {
+			negative = true;
+			i++;
+		}
+
+		int hours = 0;
+		int hourDigits = 0;
+		for (; i < end && buf[i] != ':'; i++) {
+			int digit = buf[i] - '0';
+			if (digit < 0 || digit > 9 || ++hourDigits > 9)
+				throw new NumberFormatException("Not a time: " + getString(field));
+			hours = hours * 10 + digit;
+		}
+
+		// :MM:SS
+		if (hourDigits == 0 || end - i != 6 || buf[i] != ':' || buf[i + 3] != ':')
+			throw new NumberFormatException("Not a time: " + getString(field));
+
+		int minutes = twoDigits(field, i + 1);
+		int seconds = twoDigits(field, i + 4);
+
+		if (negative)
+			hours = -hours;
+
+		return seconds + 60 * (minutes + 60 * hours);
+	}
+
+	/**
+	 * Parse a decimal field, with the same result as Double.parseDouble. Numbers of up to 15 significant digits
+	 * with no exponent are parsed in place; anything else is parsed as a String.
+	 * @throws NumberFormatException if the field is not a number
+	 */
+	public double getDouble(int field) {
+		int start = getStart(field), end = getEnd(field);
+		int i = start;
+		boolean negative = false;
+
+		if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+			negative = buf[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		boolean anyDigits = false;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+
+		for (; i < end; i++) {
+			byte b = buf[i];
+			if (b == '.' && !point) {
+				point = true;
+			}
+			else if (b >= '0' && b <= '9') {
+				// leading zeros are not significant
+				if (mantissa != 0 || b != '0')
+					digits++;
+				mantissa = mantissa * 10 + (b - '0');
+				anyDigits = true;
+				if (point)
+					fractionDigits++;
+				if (digits > 15)
+					return Double.parseDouble(getString(field));
+			}
+			else {
+				// an exponent, white space or something that is not a number
+				return Double.parseDouble(getString(field));
+			}
+		}
+
+		if (!anyDigits || fractionDigits >= POWERS_OF_TEN.length)
+			return Double.parseDouble(getString(field));
+
+		// the mantissa and the power of ten are both exact, so one division is correctly rounded
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	private int twoDigits(int field, int i) {
+		int tens = buf[i] - '0', ones = buf[i + 1] - '0';
+		if (tens < 0 || tens > 9 || ones < 0 || ones > 9)
+			throw new NumberFormatException("Not a time: " + getString(field));
+		return tens * 10 + ones;
+	}
+
+	private void skipByteOrderMark() throws IOException {
+		while (limit - pos < 3 && fill())
+			;
+		if (limit - pos >= 3 && buf[pos] == (byte) 0xEF && buf[pos + 1] == (byte) 0xBB && buf[pos + 2] == (byte) 0xBF)
+			pos += 3;
+	}
+
+	/**
+	 * Find the end of the record starting at pos, reading more of the file as needed.
+	 * @return the index of the newline that ends the record, or limit if the file ends first, or -1 if there are no
+	 * more records
+	 */
+	private int findRecordEnd() throws IOException {
+		int i = pos;
+		boolean quoted = false;
+
+		while (true) {
+			for (; i < limit; i++) {
+				byte b = buf[i];
+				if (b == '"')
+					quoted = !quoted;
+				else if (b == '\n' && !quoted)
+					return i;
+			}
+
+			int offset = i - pos;
+			if (!fill())
+				return pos == limit ? -1 : limit;
+			i = pos + offset;
+		}
+	}
+
+	/**
+	 * Read more of the file into the buffer, moving the unread bytes to the start of it and growing it if it is full.
+	 * @return false if there is no more to read
+	 */
+	private boolean fill() throws IOException {
+		if (eof)
+			return false;
+
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+
+		if (limit == buf.length)
+			buf = Arrays.copyOf(buf, buf.length * 2);
+
+		int read = in.read(buf, limit, buf.length - limit);
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * Find the fields of the record in [start, end). Quoted fields are unquoted in place, which only ever makes
+	 * them shorter.
+	 */
+	private void splitFields(int start, int end) {
+		fieldCount = 0;
+		int i = start;
+
+		while (true) {
+			if (fieldCount == starts.length) {
+				starts = Arrays.copyOf(starts, fieldCount * 2);
+				ends = Arrays.copyOf(ends, fieldCount * 2);
+			}
+
+			if (i < end && buf[i] == '"') {
+				// copy the field over itself, without the quotes
+				int out = ++i;
+				starts[fieldCount] = out;
+				while (i < end) {
+					if (buf[i] == '"') {
+						if (i + 1 < end && buf[i + 1] == '"') {
+							buf[out++] = '"';
+							i += 2;
+							continue;
+						}
+						i++;
+						break;
+					}
+					buf[out++] = buf[i++];
+				}
+				ends[fieldCount++] = out;
+
+				// anything between the closing quote and the comma is ignored
+				while (i < end && buf[i] != ',')
+					i++;
+			}
+			else {
+				starts[fieldCount] = i;
+				while (i < end && buf[i] != ',')
+					i++;
+				ends[fieldCount++] = i;
+			}
+
+			if (i >= end)
+				return;
+
+			// skip the comma
+			i++;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.conveyal.gtfs.service;
+
+import java.awt.geom.Rectangle2D;
+import java.util.TimeZone;
+
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.impl.calendar.CalendarServiceDataFactoryImpl;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+
+import com.conveyal.gtfs.model.FeedStatistics;
+import com.conveyal.gtfs.model.ServiceCalendarIndex;
+import com.conveyal.gtfs.model.TripIndex;
+
+/**
+ * A loaded feed, and everything derived from it that more than one service needs.
+ *
+ * Each derived artifact is computed the first time it is asked for, and then kept, so a feed's trip index,
+ * calendars, statistics and projected geometries are built once however many services and checks use them.
+ * Services that are given the same context share them. The feed must be fully loaded before anything is asked
+ * of the context, and must not be changed afterwards.
+ *
+ * A context may be used from several threads at once. Each artifact has its own lock, so building one does not
+ * hold up a check that is waiting for another.
+ */
+public class FeedContext {
+
+	private final GtfsRelationalDaoImpl dao;
+	/** true if the stop times are only in the trip index, and not in the DAO */
+	private final boolean stopTimesIndexed;
+
+	private final Object tripIndexLock = new Object();
+	private final Object serviceCalendarIndexLock = new Object();
+	private final Object calendarServiceLock = new Object();
+	private final Object statisticsLock = new Object();
+	private final Object boundsLock = new Object();
+	private final Object geometryCacheLock = new Object();
+
+	private TripIndex tripIndex;
+	private ServiceCalendarIndex serviceCalendarIndex;
+	private CalendarService calendarService;
+	private volatile FeedStatistics statistics;
+	private Rectangle2D bounds;
+	private boolean boundsComputed;
+	private ProjectedGeometryCache geometryCache;
+	private volatile TimeZone timeZone;
+
+	public FeedContext(GtfsRelationalDaoImpl dao) {
+		this(dao, null);
+	}
+
+	/**
+	 * Create the context of a feed whose stop times were read straight into a trip index, and are not in the DAO.
+	 * @param tripIndex the stop times, or null to build the index from the DAO when it is first needed
+	 */
+	public FeedContext(GtfsRelationalDaoImpl dao, TripIndex tripIndex) {
+		this.dao = dao;
+		this.tripIndex = tripIndex;
+		this.stopTimesIndexed = tripIndex != null;
+	}
+
+	/** @return the feed */
+	public GtfsRelationalDaoImpl getDao() {
+		return dao;
+	}
+
+	/**
+	 * @return the stop times of the feed grouped by trip
+	 */
+	public TripIndex getTripIndex() {
+		synchronized (tripIndexLock) {
+			if (tripIndex == null)
+				tripIndex = new TripIndex(dao.getAllTrips(), dao.getAllStops(), dao.getAllStopTimes());
+			return tripIndex;
+		}
+	}
+
+	/**
+	 * @return the number of stop times in the feed
+	 */
+	public int getStopTimeCount() {
+		return stopTimesIndexed ? getTripIndex().getStopTimeCount() : dao.getAllStopTimes().size();
+	}
+
+	/**
+	 * @return the dates on which each service runs
+	 */
+	public ServiceCalendarIndex getServiceCalendarIndex() {
+		synchronized (serviceCalendarIndexLock) {
+			if (serviceCalendarIndex == null)
+				serviceCalendarIndex = new ServiceCalendarIndex(dao.getAllCalendars(), dao.getAllCalendarDates());
+			return serviceCalendarIndex;
+		}
+	}
+
+	/**
+	 * @return the OneBusAway calendar service of the feed, which is expensive to build
+	 */
+	public CalendarService getCalendarService() {
+		synchronized (calendarServiceLock) {
+			if (calendarService == null)
+				calendarService = CalendarServiceDataFactoryImpl.createService(dao);
+			return calendarService;
+		}
+	}
+
+	/**
+	 * @return the time zone of the first agency, which is used for the whole feed
+	 */
+	public TimeZone getTimeZone() {
+		if (timeZone == null)
+			timeZone = TimeZone.getTimeZone(dao.getAllAgencies().iterator().next().getTimezone());
+		return timeZone;
+	}
+
+	/**
+	 * @return the statistics of the feed and of each agency in it
+	 */
+	public FeedStatistics getStatistics() {
+		synchronized (statisticsLock) {
+			if (statistics == null)
+				statistics = stopTimesIndexed ? StatisticsCollector.collect(dao, getTripIndex()) : StatisticsCollector.collect(dao);
+			return statistics;
+		}
+	}
+
+	/**
+	 * Get the bounding box of the stops, with x being longitude and y latitude. This only reads the stops, unless
+	 * the statistics have already been computed.
+	 * @return a copy of the bounds, or null if the feed has no stops
+	 */
+	public Rectangle2D getBounds() {
+		FeedStatistics statistics = this.statistics;
+		if (statistics != null)
+			return statistics.getBounds();
+
+		synchronized (boundsLock) {
+			if (!boundsComputed) {
+				// track the extremes, rather than growing a rectangle one new point at a time
+				double minLon = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+				double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+
+				for (Stop stop : dao.getAllStops()) {
+					minLon = Math.min(minLon, stop.getLon());
+					minLat = Math.min(minLat, stop.getLat());
+					maxLon = Math.max(maxLon, stop.getLon());
+					maxLat = Math.max(maxLat, stop.getLat());
+				}
+
+				if (minLon <= maxLon)
+					bounds = new Rectangle2D.Double(minLon, minLat, maxLon - minLon, maxLat - minLat);
+
+				boundsComputed = true;
+			}
+
+			return bounds == null ? null : (Rectangle2D) bounds.clone();
+		}
+	}
+
+	/**
+	 * Get the projected geometries of the stops and shapes of the feed.
+	 * Call preload() on the cache to project them all up front, in parallel.
+	 */
+	public ProjectedGeometryCache getGeometryCache() {
+		synchronized (geometryCacheLock) {
+			if (geometryCache == null)
+				geometryCache = new ProjectedGeometryCache(dao);
+			return geometryCache;
+		}
+	}
+}
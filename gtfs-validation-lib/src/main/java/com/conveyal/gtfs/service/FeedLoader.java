@@ -0,0 +1,775 @@
+package com.conveyal.gtfs.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.StopTimeTable;
+import com.conveyal.gtfs.model.TripIndex;
+
+/**
+ * Reads a feed into memory.
+ *
+ * OneBusAway makes a String of every field and a StopTime or ShapePoint of every row, which for a large feed takes
+ * longer than validating it. So OneBusAway reads every table but stop_times.txt and shapes.txt, and those two are
+ * parsed here from bytes: stop times straight into the {@link TripIndex} that validation uses, without a StopTime
+ * for each, and shape points into the DAO, with their coordinates parsed in place.
+ *
+ * The two files are parsed on the common fork-join pool at the same time as OneBusAway reads the other tables, and
+ * each other, so loading takes about as long as the largest of them. The other tables refer to one another, so
+ * OneBusAway reads them together, but nothing refers to stop times or shape points. Those are parsed with the IDs
+ * they refer to as they are written, and the IDs are resolved once OneBusAway has read the trips and stops.
+ *
+ * A stop_times.txt of tens of millions of rows can also be parsed on several threads at once, with
+ * {@link #setParseThreads}. It is still decompressed by one thread, which cuts it into chunks of whole records for
+ * the others to parse, each with its own table and IDs. The chunks are resolved in order, so the result is the same.
+ *
+ * Only some of the tables can be read, with {@link #setTables}, for a caller that only needs those.
+ *
+ * If either file has anything in it that cannot be parsed here exactly as OneBusAway would parse it, such as a
+ * malformed time or a reference to a trip that does not exist, or if OneBusAway fails on another table, the whole
+ * feed is read again by OneBusAway alone. So a feed with problems fails to load in exactly the way it always has.
+ */
+public class FeedLoader {
+
+	/** The system property used to turn off the fast parsing of stop times and shapes, e.g. -Dgtfs.validator.fastCsv=false */
+	public static final String FAST_CSV_PROPERTY = "gtfs.validator.fastCsv";
+
+	/** The system property used to set the number of threads that parse stop_times.txt, e.g. -Dgtfs.validator.parseThreads=8 */
+	public static final String PARSE_THREADS_PROPERTY = "gtfs.validator.parseThreads";
+
+	/** the default size of the chunks of stop_times.txt parsed by each thread, in bytes */
+	public static final int CHUNK_SIZE = 1 << 22;
+
+	private static Logger _log = Logger.getLogger(FeedLoader.class.getName());
+
+	private File gtfs;
+	private boolean fastCsv = isFastCsvDefault();
+	private int parseThreads = getDefaultParseThreads();
+	private int chunkSize = CHUNK_SIZE;
+	/** the tables to read, or null for all of them */
+	private Set<String> tables;
+
+	private GtfsRelationalDaoImpl dao;
+	private FeedContext context;
+	private boolean fallback;
+
+	/** set when loading has failed, so that the parsers still running can give up */
+	private volatile boolean abandoned;
+
+	public FeedLoader(File gtfs) {
+		this.gtfs = gtfs;
+	}
+
+	/**
+	 * @return false if the {@value #FAST_CSV_PROPERTY} system property is false, otherwise true
+	 */
+	public static boolean isFastCsvDefault() {
+		String fastCsv = System.getProperty(FAST_CSV_PROPERTY);
+
+		if (fastCsv == null || "true".equalsIgnoreCase(fastCsv.trim()))
+			return true;
+
+		if ("false".equalsIgnoreCase(fastCsv.trim()))
+			return false;
+
+		_log.warning("Unknown value " + fastCsv + " for " + FAST_CSV_PROPERTY + ", using true");
+		return true;
+	}
+
+	/**
+	 * @return the number of threads named by the {@value #PARSE_THREADS_PROPERTY} system property, or 1 if it is not set
+	 */
+	public static int getDefaultParseThreads() {
+		String threads = System.getProperty(PARSE_THREADS_PROPERTY);
+
+		if (threads == null)
+			return 1;
+
+		try {
+			return Math.max(Integer.parseInt(threads.trim()), 1);
+		} catch (NumberFormatException e) {
+			_log.warning("Unknown number of threads " + threads + ", using 1");
+			return 1;
+		}
+	}
+
+	/** Parse stop times and shapes here, rather than with OneBusAway. Defaults to {@link #isFastCsvDefault()}. */
+	public void setFastCsv(boolean fastCsv) {
+		this.fastCsv = fastCsv;
+	}
+
+	/**
+	 * Parse stop_times.txt in chunks, on this many threads, if it is parsed here. Defaults to
+	 * {@link #getDefaultParseThreads()}; with 1, it is parsed as it is read, by a single thread.
+	 */
+	public void setParseThreads(int parseThreads) {
+		this.parseThreads = Math.max(parseThreads, 1);
+	}
+
+	/** Set the size of the chunks of stop_times.txt parsed by each thread, in bytes; the default is {@link #CHUNK_SIZE} */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(chunkSize, 1);
+	}
+
+	/**
+	 * Read only the given tables, by file name, along with agency.txt and the tables they refer to; see
+	 * {@link GtfsTables#withReferences}. Tables that are not read are not checked for problems either, and tables
+	 * unknown to GtfsTables are never read. By default, the whole feed is read.
+	 */
+	public void setTables(Collection<String> tables) {
+		this.tables = tables == null ? null : GtfsTables.withReferences(tables);
+	}
+
+	/**
+	 * Read the feed.
+	 * @throws IOException or any exception thrown by GtfsReader, as OneBusAway would throw when reading the feed
+	 */
+	public void load() throws IOException {
+		if (fastCsv) {
+			try {
+				loadFast();
+				return;
+			} catch (FallbackException | NumberFormatException e) {
+				_log.warning(e.getMessage() + "; reading " + gtfs.getName() + " with OneBusAway instead");
+			} catch (IOException | RuntimeException e) {
+				// this may be a problem with the feed, or a bug in the fast path, which would otherwise look like a slow feed;
+				// read it again below, to fail as OneBusAway does when reading everything
+				_log.log(Level.WARNING, "Unable to read " + gtfs.getName() + " without OneBusAway; reading it with OneBusAway instead", e);
+			}
+		}
+
+		dao = new GtfsRelationalDaoImpl();
+		context = new FeedContext(dao);
+		fallback = true;
+
+		GtfsReader reader = new GtfsReader();
+		reader.setInputLocation(gtfs);
+		reader.setEntityStore(dao);
+		if (tables != null)
+			reader.setEntityClasses(getEntityClasses(reader));
+		reader.run();
+	}
+
+	/** @return the feed; when its stop times were parsed here, it has none, and they are in the trip index */
+	public GtfsRelationalDaoImpl getDao() {
+		return dao;
+	}
+
+	/** @return the context of the feed, which holds its trip index */
+	public FeedContext getContext() {
+		return context;
+	}
+
+	/** @return true if OneBusAway read the whole feed, because fast parsing was off or the feed could not be parsed */
+	public boolean isFallback() {
+		return fallback;
+	}
+
+	private void loadFast() throws IOException {
+		dao = new GtfsRelationalDaoImpl();
+		fallback = false;
+		abandoned = false;
+
+		ForkJoinTask<List<StopTimeChunk>> stopTimes = reads(GtfsTables.STOP_TIMES) ? ForkJoinPool.commonPool().submit(this::readStopTimes) : null;
+		ForkJoinTask<ParsedShapes> shapes = reads(GtfsTables.SHAPES) ? ForkJoinPool.commonPool().submit(this::parseShapes) : null;
+		boolean loaded = false;
+
+		try {
+			GtfsReader reader = new GtfsReader();
+			reader.setInputLocation(gtfs);
+			reader.setEntityStore(dao);
+
+			List<Class<?>> entityClasses = getEntityClasses(reader);
+			entityClasses.remove(StopTime.class);
+			entityClasses.remove(ShapePoint.class);
+			reader.setEntityClasses(entityClasses);
+			reader.run();
+
+			TripIndex tripIndex = stopTimes != null ? resolveStopTimes(await(stopTimes)) : null;
+
+			ParsedShapes parsedShapes = shapes != null ? await(shapes) : null;
+			if (parsedShapes != null) {
+				if (dao.getAllAgencies().isEmpty())
+					throw new FallbackException("No agency for shapes.txt");
+				saveShapes(parsedShapes, reader.getDefaultAgencyId());
+			}
+
+			context = tripIndex != null ? new FeedContext(dao, tripIndex) : new FeedContext(dao);
+			loaded = true;
+		} finally {
+			// don't read the feed again while it is still being parsed
+			if (!loaded) {
+				abandoned = true;
+				if (stopTimes != null)
+					stopTimes.quietlyJoin();
+				if (shapes != null)
+					shapes.quietlyJoin();
+			}
+		}
+	}
+
+	private boolean reads(String table) {
+		return tables == null || tables.contains(table);
+	}
+
+	/** @return the entity classes of the tables to read */
+	private List<Class<?>> getEntityClasses(GtfsReader reader) {
+		List<Class<?>> entityClasses = new ArrayList<Class<?>>(reader.getEntityClasses());
+		if (tables != null)
+			entityClasses.removeIf(entityClass -> !tables.contains(GtfsTables.getTable(entityClass)));
+		return entityClasses;
+	}
+
+	/**
+	 * Read stop_times.txt into tables whose trip and stop ordinals are those of the IDs in the order they are first
+	 * read in each, to be resolved later.
+	 * @return the chunks of the file, in order
+	 */
+	private List<StopTimeChunk> readStopTimes() throws IOException {
+		try (Source source = new Source(gtfs)) {
+			InputStream in = source.open("stop_times.txt");
+			if (in == null)
+				throw new FallbackException("No stop_times.txt");
+
+			if (parseThreads > 1)
+				return parseStopTimesInChunks(in);
+
+			CsvByteReader csv = new CsvByteReader(in);
+			if (!csv.next())
+				throw new FallbackException("No header in stop_times.txt");
+
+			return Collections.singletonList(parseStopTimes(csv, new StopTimeColumns(readHeader(csv))));
+		}
+	}
+
+	/**
+	 * Cut stop_times.txt into chunks of whole records as it is decompressed, and parse them on parseThreads threads.
+	 * A few chunks are read ahead of the parsers, and no more, so that the whole file is never in memory at once.
+	 */
+	private List<StopTimeChunk> parseStopTimesInChunks(InputStream in) throws IOException {
+		byte[] block = new byte[chunkSize];
+		int length = fill(in, block, 0);
+
+		// the header, which may be longer than a chunk
+		int start = length >= 3 && block[0] == (byte) 0xEF && block[1] == (byte) 0xBB && block[2] == (byte) 0xBF ? 3 : 0;
+		int headerEnd;
+		while ((headerEnd = CsvByteReader.findRecordEnd(block, start, length, false)) < 0 && length == block.length) {
+			block = Arrays.copyOf(block, block.length * 2);
+			length = fill(in, block, length);
+		}
+
+		CsvByteReader header = new CsvByteReader(block, start, headerEnd < 0 ? length : headerEnd);
+		if (!header.next())
+			throw new FallbackException("No header in stop_times.txt");
+		StopTimeColumns columns = new StopTimeColumns(readHeader(header));
+		start = headerEnd < 0 ? length : headerEnd;
+
+		ForkJoinPool pool = new ForkJoinPool(parseThreads);
+		List<ForkJoinTask<StopTimeChunk>> chunks = new ArrayList<ForkJoinTask<StopTimeChunk>>();
+		int parsed = 0;
+
+		try {
+			while (true) {
+				boolean eof = length < block.length;
+				int end = eof ? length : CsvByteReader.findRecordEnd(block, start, length, true);
+
+				if (end < 0) {
+					// a record longer than a chunk
+					block = Arrays.copyOf(block, block.length * 2);
+					length = fill(in, block, length);
+					continue;
+				}
+
+				if (end > start)
+					chunks.add(pool.submit(new ChunkParser(block, start, end, columns)));
+
+				if (eof)
+					break;
+
+				// the rest of the block starts the next chunk
+				byte[] next = new byte[Math.max(chunkSize, (length - end) * 2)];
+				System.arraycopy(block, end, next, 0, length - end);
+				length = fill(in, next, length - end);
+				block = next;
+				start = 0;
+
+				while (chunks.size() - parsed > parseThreads * 2) {
+					chunks.get(parsed++).quietlyJoin();
+				}
+
+				if (abandoned || (parsed > 0 && chunks.get(parsed - 1).isCompletedAbnormally()))
+					break;
+			}
+
+			List<StopTimeChunk> ret = new ArrayList<StopTimeChunk>();
+			for (ForkJoinTask<StopTimeChunk> chunk : chunks) {
+				ret.add(await(chunk));
+			}
+			checkAbandoned();
+			return ret;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Read the stop times of a CsvByteReader whose header has already been read.
+	 */
+	private StopTimeChunk parseStopTimes(CsvByteReader csv, StopTimeColumns columns) throws IOException {
+		StopTimeChunk chunk = new StopTimeChunk();
+
+		while (csv.next()) {
+			checkAbandoned(csv);
+			byte[] buf = csv.getBuffer();
+			int trip = chunk.tripIds.intern(buf, csv.getStart(columns.trip), csv.getEnd(columns.trip));
+			int stop = chunk.stopIds.intern(buf, csv.getStart(columns.stop), csv.getEnd(columns.stop));
+			chunk.table.add(trip, stop, csv.getInt(columns.sequence), csv.getTime(columns.arrival), csv.getTime(columns.departure));
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * Read shapes.txt into shape points, each shape with one ID, whose agency is set once it is known.
+	 * @return null if the feed has no shapes.txt
+	 */
+	private ParsedShapes parseShapes() throws IOException {
+		try (Source source = new Source(gtfs)) {
+			InputStream in = source.open("shapes.txt");
+			if (in == null)
+				return null;
+
+			ParsedShapes parsed = new ParsedShapes();
+			CsvByteReader csv = new CsvByteReader(in);
+			if (!csv.next())
+				return parsed;
+
+			String[] header = readHeader(csv);
+			int shapeColumn = getColumn(header, "shape_id", "shapes.txt");
+			int latColumn = getColumn(header, "shape_pt_lat", "shapes.txt");
+			int lonColumn = getColumn(header, "shape_pt_lon", "shapes.txt");
+			int sequenceColumn = getColumn(header, "shape_pt_sequence", "shapes.txt");
+			int distanceColumn = Arrays.asList(header).indexOf("shape_dist_traveled");
+
+			while (csv.next()) {
+				checkAbandoned(csv);
+				if (csv.isEmpty(shapeColumn))
+					throw new FallbackException("No shape_id on line " + csv.getLineNumber() + " of shapes.txt");
+
+				int shape = parsed.shapeIds.intern(csv.getBuffer(), csv.getStart(shapeColumn), csv.getEnd(shapeColumn));
+				if (shape == parsed.shapes.size())
+					parsed.shapes.add(new AgencyAndId(null, csv.getString(shapeColumn)));
+
+				ShapePoint point = new ShapePoint();
+				point.setShapeId(parsed.shapes.get(shape));
+				point.setSequence(csv.getInt(sequenceColumn));
+				point.setLat(csv.getDouble(latColumn));
+				point.setLon(csv.getDouble(lonColumn));
+				if (!csv.isEmpty(distanceColumn))
+					point.setDistTraveled(csv.getDouble(distanceColumn));
+				parsed.points.add(point);
+			}
+
+			return parsed;
+		}
+	}
+
+	/**
+	 * Resolve the trip and stop IDs of the stop times to the trips and stops of the DAO, in the same order as the
+	 * index that a FeedContext would build from StopTimes.
+	 */
+	private TripIndex resolveStopTimes(List<StopTimeChunk> chunks) {
+		Trip[] trips = dao.getAllTrips().toArray(new Trip[0]);
+		AgencyAndId[] tripIds = new AgencyAndId[trips.length];
+		for (int i = 0; i < trips.length; i++) {
+			tripIds[i] = trips[i].getId();
+		}
+
+		Stop[] stops = dao.getAllStops().toArray(new Stop[0]);
+		AgencyAndId[] stopIds = new AgencyAndId[stops.length];
+		for (int i = 0; i < stops.length; i++) {
+			stopIds[i] = stops[i].getId();
+		}
+
+		EntityIds tripOrdinals = new EntityIds(tripIds);
+		EntityIds stopOrdinals = new EntityIds(stopIds);
+
+		int size = 0;
+		for (StopTimeChunk chunk : chunks) {
+			size += chunk.table.size();
+		}
+
+		StopTimeTable table = chunks.size() == 1 ? chunks.get(0).table : new StopTimeTable(size);
+
+		for (StopTimeChunk chunk : chunks) {
+			int[] chunkTrips = tripOrdinals.resolve(chunk.tripIds, "trip");
+			int[] chunkStops = stopOrdinals.resolve(chunk.stopIds, "stop");
+
+			for (int row = 0; row < chunk.table.size(); row++) {
+				chunk.table.setTrip(row, chunkTrips[chunk.table.getTrip(row)]);
+				chunk.table.setStop(row, chunkStops[chunk.table.getStop(row)]);
+			}
+
+			if (chunk.table != table)
+				table.addAll(chunk.table, 0, 0);
+		}
+
+		return new TripIndex(trips, stops, table);
+	}
+
+	/**
+	 * Save the shape points to the DAO. OneBusAway gives every shape ID the default agency, as it does the shape IDs
+	 * of trips, so that they match.
+	 */
+	private void saveShapes(ParsedShapes parsed, String agencyId) {
+		for (AgencyAndId shapeId : parsed.shapes) {
+			shapeId.setAgencyId(agencyId);
+		}
+
+		for (ShapePoint point : parsed.points) {
+			dao.saveEntity(point);
+		}
+	}
+
+	private void checkAbandoned(CsvByteReader csv) {
+		// a volatile read is cheap, but not free
+		if ((csv.getLineNumber() & 0xFFFF) == 0)
+			checkAbandoned();
+	}
+
+	private void checkAbandoned() {
+		if (abandoned)
+			throw new FallbackException("Loading abandoned");
+	}
+
+	/**
+	 * Read from in into buf, starting at length, until buf is full or the file ends.
+	 * @return the number of bytes in buf, which is less than its length only at the end of the file
+	 */
+	private static int fill(InputStream in, byte[] buf, int length) throws IOException {
+		while (length < buf.length) {
+			int read = in.read(buf, length, buf.length - length);
+			if (read < 0)
+				break;
+			length += read;
+		}
+		return length;
+	}
+
+	/**
+	 * Wait for a parser to finish.
+	 * @throws IOException or RuntimeException, whichever the parser threw
+	 */
+	private static <T> T await(ForkJoinTask<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			// the pool throws a copy of an exception from another thread, which may have lost its message
+			if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass())
+				cause = cause.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private static String[] readHeader(CsvByteReader csv) {
+		String[] header = new String[csv.getFieldCount()];
+		for (int i = 0; i < header.length; i++) {
+			header[i] = csv.getString(i);
+		}
+		return header;
+	}
+
+	private static int getColumn(String[] header, String name, String file) {
+		int column = Arrays.asList(header).indexOf(name);
+		if (column < 0)
+			throw new FallbackException("No " + name + " column in " + file);
+		return column;
+	}
+
+	/** A feed that cannot be parsed here, and should be read by OneBusAway instead */
+	private static class FallbackException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public FallbackException(String message) {
+			super(message);
+		}
+	}
+
+	/** The columns of stop_times.txt that are read */
+	private static class StopTimeColumns {
+		int trip;
+		int stop;
+		int sequence;
+		int arrival;
+		int departure;
+
+		public StopTimeColumns(String[] header) {
+			trip = getColumn(header, "trip_id", "stop_times.txt");
+			stop = getColumn(header, "stop_id", "stop_times.txt");
+			sequence = getColumn(header, "stop_sequence", "stop_times.txt");
+			arrival = Arrays.asList(header).indexOf("arrival_time");
+			departure = Arrays.asList(header).indexOf("departure_time");
+		}
+	}
+
+	/** Parses a chunk of stop_times.txt, and lets go of it once it has, as the task is kept until all are resolved */
+	private class ChunkParser extends RecursiveTask<StopTimeChunk> {
+		private static final long serialVersionUID = 1L;
+
+		private byte[] buf;
+		private int start;
+		private int end;
+		private StopTimeColumns columns;
+
+		public ChunkParser(byte[] buf, int start, int end, StopTimeColumns columns) {
+			this.buf = buf;
+			this.start = start;
+			this.end = end;
+			this.columns = columns;
+		}
+
+		@Override
+		protected StopTimeChunk compute() {
+			CsvByteReader csv = new CsvByteReader(buf, start, end);
+			buf = null;
+			try {
+				return parseStopTimes(csv, columns);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/** Some or all of the stop times of a feed, with the IDs they refer to as they were read */
+	private static class StopTimeChunk {
+		StopTimeTable table = new StopTimeTable();
+		IdIndex tripIds = new IdIndex(1024);
+		IdIndex stopIds = new IdIndex(1024);
+	}
+
+	/** The trips or stops of the DAO, by their IDs alone, which is how OneBusAway looks up references to them */
+	private static class EntityIds {
+		private IdIndex ids;
+		/** the ordinal of the entity with each ID, or -1 if more than one entity has it */
+		private int[] ordinals;
+
+		public EntityIds(AgencyAndId[] entities) {
+			ids = new IdIndex(entities.length);
+			ordinals = new int[entities.length];
+
+			for (int i = 0; i < entities.length; i++) {
+				byte[] id = entities[i].getId().getBytes(StandardCharsets.UTF_8);
+				int size = ids.size();
+				int ordinal = ids.intern(id, 0, id.length);
+				ordinals[ordinal] = ordinal == size ? i : -1;
+			}
+		}
+
+		/**
+		 * Find the entity with each ID that was read. An ID that two agencies both use cannot be resolved here.
+		 * @return the ordinals of the entities, by the order in which the IDs were first read
+		 */
+		public int[] resolve(IdIndex read, String type) {
+			int[] resolved = new int[read.size()];
+
+			for (int id = 0; id < resolved.length; id++) {
+				byte[] bytes = read.getBytes(id);
+				int entity = ids.get(bytes, 0, bytes.length);
+				if (entity < 0)
+					throw new FallbackException("Unknown " + type + " " + read.getId(id) + " in stop_times.txt");
+				if (ordinals[entity] < 0)
+					throw new FallbackException("Two " + type + "s with ID " + read.getId(id));
+				resolved[id] = ordinals[entity];
+			}
+
+			return resolved;
+		}
+	}
+
+	/** The shape points of a feed, and the ID of each shape, which have no agency yet */
+	private static class ParsedShapes {
+		IdIndex shapeIds = new IdIndex(1024);
+		List<AgencyAndId> shapes = new ArrayList<AgencyAndId>();
+		List<ShapePoint> points = new ArrayList<ShapePoint>();
+	}
+
+	/** The files of a feed, in a zip file or a directory, as OneBusAway finds them */
+	private static class Source implements AutoCloseable {
+		private File gtfs;
+		private ZipFile zip;
+		private List<InputStream> opened = new ArrayList<InputStream>();
+
+		public Source(File gtfs) throws IOException {
+			this.gtfs = gtfs;
+			if (!gtfs.isDirectory())
+				zip = new ZipFile(gtfs);
+		}
+
+		/** @return the file, or null if it is not in the feed */
+		public InputStream open(String name) throws IOException {
+			InputStream in = null;
+
+			if (zip != null) {
+				ZipEntry entry = zip.getEntry(name);
+				if (entry != null)
+					in = zip.getInputStream(entry);
+			}
+			else {
+				File file = new File(gtfs, name);
+				if (file.exists())
+					in = new FileInputStream(file);
+			}
+
+			if (in != null)
+				opened.add(in);
+			return in;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (InputStream in : opened) {
+				in.close();
+			}
+			if (zip != null)
+				zip.close();
+		}
+	}
+
+	/**
+	 * A hash table from IDs, as UTF-8 bytes, to ordinals in the order they were added, so that the ID of each row can
+	 * be looked up where it lies in the buffer, without making a String of it. Open addressing, with linear probing.
+	 */
+	private static class IdIndex {
+		/** the ordinal of the ID in each slot, or -1 if the slot is empty */
+		private int[] slots;
+		/** the IDs, by ordinal */
+		private byte[][] ids;
+		private int size;
+
+		public IdIndex(int expectedSize) {
+			int capacity = 16;
+			while (capacity < expectedSize * 2)
+				capacity <<= 1;
+			slots = new int[capacity];
+			Arrays.fill(slots, -1);
+			ids = new byte[capacity / 2][];
+		}
+
+		/** @return the number of IDs in the table */
+		public int size() {
+			return size;
+		}
+
+		/** @return the ID with the given ordinal */
+		public String getId(int ordinal) {
+			return new String(ids[ordinal], StandardCharsets.UTF_8);
+		}
+
+		/** @return the ID with the given ordinal, as UTF-8 */
+		public byte[] getBytes(int ordinal) {
+			return ids[ordinal];
+		}
+
+		/** @return the ordinal of the ID in buf[start, end), or -1 if it is not in the table */
+		public int get(byte[] buf, int start, int end) {
+			int mask = slots.length - 1;
+			for (int slot = hash(buf, start, end) & mask; slots[slot] >= 0; slot = (slot + 1) & mask) {
+				if (equals(ids[slots[slot]], buf, start, end))
+					return slots[slot];
+			}
+			return -1;
+		}
+
+		/**
+		 * Add the ID in buf[start, end), if it is not already in the table.
+		 * @return its ordinal, which is the previous size of the table if it was added
+		 */
+		public int intern(byte[] buf, int start, int end) {
+			int mask = slots.length - 1;
+			int slot = hash(buf, start, end) & mask;
+			for (; slots[slot] >= 0; slot = (slot + 1) & mask) {
+				if (equals(ids[slots[slot]], buf, start, end))
+					return slots[slot];
+			}
+
+			if (size == ids.length)
+				ids = Arrays.copyOf(ids, size * 2);
+			ids[size] = Arrays.copyOfRange(buf, start, end);
+			slots[slot] = size;
+
+			if (++size * 2 > slots.length)
+				resize();
+
+			return size - 1;
+		}
+
+		private void resize() {
+			slots = new int[slots.length * 2];
+			Arrays.fill(slots, -1);
+
+			int mask = slots.length - 1;
+			for (int ordinal = 0; ordinal < size; ordinal++) {
+				int slot = hash(ids[ordinal], 0, ids[ordinal].length) & mask;
+				while (slots[slot] >= 0)
+					slot = (slot + 1) & mask;
+				slots[slot] = ordinal;
+			}
+		}
+
+		private static int hash(byte[] buf, int start, int end) {
+			int hash = 1;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + buf[i];
+			}
+			// spread the high bits into the low ones, which pick the slot
+			return hash ^ (hash >>> 16);
+		}
+
+		private static boolean equals(byte[] key, byte[] buf, int start, int end) {
+			if (key.length != end - start)
+				return false;
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] != buf[start + i])
+					return false;
+			}
+			return true;
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package com.conveyal.gtfs.service;
 
-import java.util.ArrayList;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
 
 import org.geotools.geometry.GeometryBuilder;
 import org.geotools.geometry.jts.JTS;
@@ -22,11 +24,36 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
 
  public class GeoUtils {
 	public static double RADIANS = 2 * Math.PI;
 
-	public static MathTransform recentMathTransform = null;
+	/** There are 60 UTM zones in each hemisphere, so this is enough to hold every transform we create */
+	public static final int MAX_CACHED_TRANSFORMS = 120;
+
+	/**
+	 * Transforms from WGS 84 to UTM, keyed by EPSG code. Looking up the CRSs and finding the transform
+	 * is far more expensive than using it, and the transforms are immutable, so they are shared by all threads.
+	 */
+	private static final ConcurrentHashMap<Integer, MathTransform> transforms =
+			new ConcurrentHashMap<Integer, MathTransform>(MAX_CACHED_TRANSFORMS * 2);
+
+	private static volatile GeographicCRS wgs84 = null;
+
+	/** The system property used to choose the projection engine, e.g. -Dgtfs.validator.projection=fast */
+	public static final String PROJECTION_PROPERTY = "gtfs.validator.projection";
+
+	/**
+	 * How coordinates are projected into UTM. GEOTOOLS uses the full GeoTools transform for the zone;
+	 * FAST uses {@link FastUtmProjection}, which gives the same coordinates to well under a centimeter.
+	 */
+	public enum ProjectionEngine {
+		GEOTOOLS, FAST
+	}
+
+	private static volatile ProjectionEngine projectionEngine = readProjectionEngine();
+
 	public static GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(),4326);
 	public static GeometryFactory projectedGeometryFactory = new GeometryFactory(new PrecisionModel());
 	public static GeometryBuilder builder = new GeometryBuilder(DefaultGeographicCRS.WGS84);
@@ -49,6 +76,13 @@ import com.vividsolutions.jts.geom.PrecisionModel;
 			Coordinate lonlat) {
 
 		final MathTransform transform = getTransform(lonlat);
+
+		if (projectionEngine == ProjectionEngine.FAST) {
+			double[] xy = new double[2];
+			project(lonlat.y, lonlat.x, xy);
+			return new ProjectedCoordinate(transform, new Coordinate(xy[0], xy[1]), lonlat);
+		}
+
 		final Coordinate to = new Coordinate();
 
 		// the transform seems to swap the lat lon pairs
@@ -64,6 +98,116 @@ import com.vividsolutions.jts.geom.PrecisionModel;
 	}
 
 
+	/**
+	 * Project a point into the UTM zone that contains it, without creating any objects.
+	 * As with {@link #convertLatLonToEuclidean}, the coordinates are swapped: out[0] receives
+	 * the northing and out[1] the easting. If the point cannot be projected both are NaN.
+	 */
+	public static void project(double lat, double lon, double[] out) {
+		int zone = getUTMZoneForLongitude(lon);
+
+		if (projectionEngine == ProjectionEngine.FAST) {
+			FastUtmProjection.project(lat, lon, zone, lat < 0, out);
+		}
+		else {
+			// EPSG:4326 is lat, lon, and the transform is happy to work in place
+			out[0] = lat;
+			out[1] = lon;
+			try {
+				getTransform((lat < 0 ? 32700 : 32600) + zone).transform(out, 0, out, 0, 1);
+			} catch (final TransformException e) {
+				e.printStackTrace();
+				out[0] = out[1] = Double.NaN;
+				return;
+			}
+		}
+
+		double easting = out[0];
+		out[0] = out[1];
+		out[1] = easting;
+	}
+
+	/**
+	 * Project a whole shape or table of points into UTM at once. Runs of points in the same zone are passed to
+	 * the transform together, and nothing is created per point.
+	 * @param latLons lat, lon pairs, packed one after another
+	 * @return the projected points, with coordinates swapped as with {@link #convertLatLonToEuclidean};
+	 * points that could not be projected are NaN
+	 */
+	public static PackedCoordinateSequence.Double project(double[] latLons) {
+		return project(latLons, latLons.length / 2);
+	}
+
+	/**
+	 * Project the first count points of latLons.
+	 * @see #project(double[])
+	 */
+	public static PackedCoordinateSequence.Double project(double[] latLons, int count) {
+		double[] xy = new double[count * 2];
+		boolean fast = projectionEngine == ProjectionEngine.FAST;
+
+		int start = 0;
+		while (start < count) {
+			int zone = getUTMZoneForLongitude(latLons[start * 2 + 1]);
+			boolean south = latLons[start * 2] < 0;
+
+			int end = start + 1;
+			while (end < count && (latLons[end * 2] < 0) == south && getUTMZoneForLongitude(latLons[end * 2 + 1]) == zone)
+				end++;
+
+			if (fast) {
+				for (int i = start; i < end; i++) {
+					FastUtmProjection.project(latLons[i * 2], latLons[i * 2 + 1], zone, south, xy, i * 2);
+				}
+			}
+			else {
+				try {
+					getTransform((south ? 32700 : 32600) + zone).transform(latLons, start * 2, xy, start * 2, end - start);
+				} catch (final TransformException e) {
+					e.printStackTrace();
+					Arrays.fill(xy, start * 2, end * 2, Double.NaN);
+				}
+			}
+
+			start = end;
+		}
+
+		// easting, northing to northing, easting
+		for (int i = 0; i < xy.length; i += 2) {
+			double easting = xy[i];
+			xy[i] = xy[i + 1];
+			xy[i + 1] = easting;
+		}
+
+		return new PackedCoordinateSequence.Double(xy, 2);
+	}
+
+	public static ProjectionEngine getProjectionEngine() {
+		return projectionEngine;
+	}
+
+	/**
+	 * Choose how coordinates are projected. This applies to every feed being validated, so should be set before
+	 * validation starts; the default is taken from the {@value #PROJECTION_PROPERTY} system property, or GEOTOOLS.
+	 */
+	public static void setProjectionEngine(ProjectionEngine engine) {
+		projectionEngine = engine;
+	}
+
+	private static ProjectionEngine readProjectionEngine() {
+		String engine = System.getProperty(PROJECTION_PROPERTY);
+
+		if (engine == null)
+			return ProjectionEngine.GEOTOOLS;
+
+		try {
+			return ProjectionEngine.valueOf(engine.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			Logger.getLogger(GeoUtils.class.getName()).warning("Unknown projection engine " + engine + ", using geotools");
+			return ProjectionEngine.GEOTOOLS;
+		}
+	}
+
 	public static Coordinate convertToLatLon(
 			MathTransform transform, Coordinate xy) {
 
@@ -105,31 +249,33 @@ import com.vividsolutions.jts.geom.PrecisionModel;
 	}
 
 	public static Geometry getGeomFromShapePoints(List<ShapePoint> shapePoints) throws IllegalArgumentException{
-		ArrayList<Coordinate> shapeCoords = new ArrayList<Coordinate>();
-		// needs to be mutable to sort. TreeSet impl is less verbose than initializing another List. 
-		TreeSet<ShapePoint> linkedShapePoints = new TreeSet<ShapePoint>();	
-		try {
-			linkedShapePoints.addAll(shapePoints);
-		} catch (Exception e) {
-			e.printStackTrace();
+		// sort a copy by sequence. The sort is stable, so when points share a sequence the first is kept and the rest dropped.
+		ShapePoint[] sortedShapePoints = shapePoints.toArray(new ShapePoint[shapePoints.size()]);
+		Arrays.sort(sortedShapePoints);
+
+		double[] latLons = new double[sortedShapePoints.length * 2];
+		int count = 0;
+
+		for (ShapePoint shapePoint : sortedShapePoints) {
+			if (count > 0 && sortedShapePoints[count - 1].getSequence() == shapePoint.getSequence())
+				continue;
+
+			sortedShapePoints[count] = shapePoint;
+			latLons[count * 2] = shapePoint.getLat();
+			latLons[count * 2 + 1] = shapePoint.getLon();
+			count++;
 		}
 
-		for(ShapePoint shapePoint : linkedShapePoints) {
-			Coordinate coord = new Coordinate(shapePoint.getLat(), shapePoint.getLon());
+		PackedCoordinateSequence.Double shapeCoords = project(latLons, count);
 
-			ProjectedCoordinate projectedCoord = GeoUtils.convertLatLonToEuclidean(coord);
-			if ( projectedCoord.getX() == Coordinate.NULL_ORDINATE || 
-					projectedCoord.getY() == Coordinate.NULL_ORDINATE){
-				throw new IllegalArgumentException("Something is wrong with " + shapePoint.getId() + 
-						" on shape " + shapePoint.getShapeId());
+		for (int i = 0; i < count; i++) {
+			if (Double.isNaN(shapeCoords.getX(i)) || Double.isNaN(shapeCoords.getY(i))) {
+				throw new IllegalArgumentException("Something is wrong with " + sortedShapePoints[i].getId() + 
+						" on shape " + sortedShapePoints[i].getShapeId());
 			}
-			shapeCoords.add(projectedCoord);
 		}
 
-		Geometry geom = geometryFactory.createLineString(
-				shapeCoords.toArray(new Coordinate[shapePoints.size()]));
-
-		return geom;
+		return geometryFactory.createLineString(shapeCoords);
 	}
 
 	/**
@@ -156,27 +302,80 @@ import com.vividsolutions.jts.geom.PrecisionModel;
 		return distance / (Math.PI / 180d) / 6378137d;
 	}
 
+	/**
+	 * Get the transform from WGS 84 to the UTM zone containing a coordinate.
+	 * @param refLonLat THE ORDER OF THE COORDINATE MUST BE LON, LAT
+	 * @return the transform, or null if it could not be created
+	 */
 	public static MathTransform getTransform(
-			Coordinate refLatLon) {
+			Coordinate refLonLat) {
+		return getTransform(getEPSGCodefromUTS(refLonLat));
+	}
+
+	/**
+	 * Get the transform from WGS 84 to a projected coordinate system, creating it the first time it is used.
+	 * @return the transform, or null if it could not be created
+	 */
+	public static MathTransform getTransform(int epsgCode) {
+		MathTransform transform = transforms.get(epsgCode);
+
+		if (transform != null)
+			return transform;
+
+		transform = createTransform(epsgCode);
+
+		// there are only 120 UTM zones, but keep the cache bounded in case callers ask for other systems
+		if (transform != null && transforms.size() < MAX_CACHED_TRANSFORMS) {
+			MathTransform existing = transforms.putIfAbsent(epsgCode, transform);
+			if (existing != null)
+				transform = existing;
+		}
+
+		return transform;
+	}
+
+	/**
+	 * Create the transforms for all of the UTM zones overlapped by a bounding box, so that the first checks
+	 * to run (possibly many at once) do not all have to create them.
+	 * @param lonLatBounds the bounding box, with x being longitude and y latitude, as returned by StatisticsService.getBounds()
+	 */
+	public static void warmUp(Rectangle2D lonLatBounds) {
+		if (lonLatBounds == null)
+			return;
+
+		double minLon = Math.max(lonLatBounds.getMinX(), -180);
+		double maxLon = Math.min(lonLatBounds.getMaxX(), 180);
+
+		if (minLon > maxLon)
+			return;
+
+		int firstZone = getUTMZoneForLongitude(minLon);
+		int lastZone = getUTMZoneForLongitude(maxLon);
+
+		for (int zone = firstZone; zone <= lastZone; zone++) {
+			if (lonLatBounds.getMaxY() >= 0)
+				getTransform(32600 + zone);
+			if (lonLatBounds.getMinY() < 0)
+				getTransform(32700 + zone);
+		}
+	}
+
+	private static MathTransform createTransform(int epsgCode) {
 		try {
 			final CRSAuthorityFactory crsAuthorityFactory =
 					CRS.getAuthorityFactory(false);
 
-
-			final GeographicCRS geoCRS =
-					crsAuthorityFactory.createGeographicCRS("EPSG:4326");
+			GeographicCRS geoCRS = wgs84;
+			if (geoCRS == null) {
+				geoCRS = crsAuthorityFactory.createGeographicCRS("EPSG:4326");
+				wgs84 = geoCRS;
+			}
 
 			final CoordinateReferenceSystem dataCRS = 
 					crsAuthorityFactory
-					.createCoordinateReferenceSystem("EPSG:" 
-							+ getEPSGCodefromUTS(refLatLon)); //EPSG:32618
-
-			final MathTransform transform =
-					CRS.findMathTransform(geoCRS, dataCRS);
+					.createCoordinateReferenceSystem("EPSG:" + epsgCode); //EPSG:32618
 
-			GeoUtils.recentMathTransform = transform;
-
-			return transform;
+			return CRS.findMathTransform(geoCRS, dataCRS);
 		} catch (final NoSuchIdentifierException e) {
 			e.printStackTrace();
 		} catch (final FactoryException e) {
@@ -0,0 +1,129 @@
+package com.conveyal.gtfs.service;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A PointIndex that buckets points into a uniform grid of square cells.
+ *
+ * Only occupied cells are stored, in an open-addressed hash table from cell key to cell, so the grid can cover
+ * a whole country at a cell size of a few meters. The points of each cell are stored contiguously in one int
+ * array. With cells the size of the query radius, a query looks at no more than nine cells.
+ */
+public class GridPointIndex implements PointIndex {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private double[] x;
+	private double[] y;
+
+	private double cellSize;
+
+	/** open-addressed hash table from cell key to cell number; the capacity is a power of two */
+	private long[] tableKeys;
+	private int[] tableCells;
+	private int mask;
+
+	/** the points of cell c are points[cellStart[c]] to points[cellStart[c + 1] - 1] */
+	private int[] cellStart;
+	private int[] points;
+
+	public GridPointIndex(double[] x, double[] y, double cellSize) {
+		if (x.length != y.length)
+			throw new IllegalArgumentException("Coordinate arrays are different lengths");
+
+		if (!(cellSize > 0))
+			throw new IllegalArgumentException("Cell size must be positive");
+
+		this.x = x;
+		this.y = y;
+		this.cellSize = cellSize;
+
+		int capacity = Integer.highestOneBit(Math.max(x.length, 8) * 2 - 1) << 1;
+		tableKeys = new long[capacity];
+		Arrays.fill(tableKeys, EMPTY);
+		tableCells = new int[capacity];
+		mask = capacity - 1;
+
+		// first pass: find the cell of each point, numbering cells as they are first seen, and count their points
+		int[] cellOfPoint = new int[x.length];
+		int[] counts = new int[x.length + 1];
+		int cellCount = 0;
+
+		for (int i = 0; i < x.length; i++) {
+			if (Double.isNaN(x[i]) || Double.isNaN(y[i])) {
+				cellOfPoint[i] = -1;
+				continue;
+			}
+
+			long key = key(cell(x[i]), cell(y[i]));
+			int slot = slot(key);
+
+			if (tableKeys[slot] == EMPTY) {
+				tableKeys[slot] = key;
+				tableCells[slot] = cellCount++;
+			}
+
+			cellOfPoint[i] = tableCells[slot];
+			counts[cellOfPoint[i] + 1]++;
+		}
+
+		// second pass: lay the points of each cell out contiguously
+		cellStart = Arrays.copyOf(counts, cellCount + 1);
+		for (int c = 0; c < cellCount; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+
+		points = new int[cellStart[cellCount]];
+		int[] next = Arrays.copyOf(cellStart, cellCount);
+		for (int i = 0; i < x.length; i++) {
+			if (cellOfPoint[i] >= 0)
+				points[next[cellOfPoint[i]]++] = i;
+		}
+	}
+
+	@Override
+	public void query(double qx, double qy, double radius, IntConsumer visitor) {
+		int minCellX = cell(qx - radius);
+		int maxCellX = cell(qx + radius);
+		int minCellY = cell(qy - radius);
+		int maxCellY = cell(qy + radius);
+
+		for (int cx = minCellX; cx <= maxCellX; cx++) {
+			for (int cy = minCellY; cy <= maxCellY; cy++) {
+				int slot = slot(key(cx, cy));
+
+				if (tableKeys[slot] == EMPTY)
+					continue;
+
+				int c = tableCells[slot];
+				for (int p = cellStart[c]; p < cellStart[c + 1]; p++) {
+					int point = points[p];
+					// points in neighboring cells may be outside the square
+					if (Math.abs(x[point] - qx) <= radius && Math.abs(y[point] - qy) <= radius)
+						visitor.accept(point);
+				}
+			}
+		}
+	}
+
+	private int cell(double ordinate) {
+		return (int) Math.floor(ordinate / cellSize);
+	}
+
+	private static long key(int cellX, int cellY) {
+		return ((long) cellX << 32) | (cellY & 0xffffffffL);
+	}
+
+	/** @return the slot holding key, or the empty slot where it would go */
+	private int slot(long key) {
+		// mix the bits so that neighboring cells don't land in neighboring slots
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+
+		while (tableKeys[slot] != EMPTY && tableKeys[slot] != key)
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+}
@@ -0,0 +1,112 @@
+package com.conveyal.gtfs.service;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.FareRule;
+import org.onebusaway.gtfs.model.FeedInfo;
+import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.Pathway;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Transfer;
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * The tables of a feed that OneBusAway reads, by file name, and which of them refer to which others.
+ *
+ * A table can only be read along with the tables it refers to, since OneBusAway looks up the entities that each row
+ * refers to as it reads it. Every table refers to agency.txt, which sets the agency of every ID.
+ */
+public class GtfsTables {
+
+	public static final String AGENCY = "agency.txt";
+	public static final String STOPS = "stops.txt";
+	public static final String ROUTES = "routes.txt";
+	public static final String TRIPS = "trips.txt";
+	public static final String STOP_TIMES = "stop_times.txt";
+	public static final String CALENDAR = "calendar.txt";
+	public static final String CALENDAR_DATES = "calendar_dates.txt";
+	public static final String SHAPES = "shapes.txt";
+	public static final String FREQUENCIES = "frequencies.txt";
+	public static final String TRANSFERS = "transfers.txt";
+	public static final String FARE_ATTRIBUTES = "fare_attributes.txt";
+	public static final String FARE_RULES = "fare_rules.txt";
+	public static final String FEED_INFO = "feed_info.txt";
+	public static final String PATHWAYS = "pathways.txt";
+
+	private static Map<Class<?>, String> tablesByClass = new HashMap<Class<?>, String>();
+
+	private static Map<String, List<String>> references = new HashMap<String, List<String>>();
+
+	static {
+		tablesByClass.put(Agency.class, AGENCY);
+		tablesByClass.put(Stop.class, STOPS);
+		tablesByClass.put(Route.class, ROUTES);
+		tablesByClass.put(Trip.class, TRIPS);
+		tablesByClass.put(StopTime.class, STOP_TIMES);
+		tablesByClass.put(ServiceCalendar.class, CALENDAR);
+		tablesByClass.put(ServiceCalendarDate.class, CALENDAR_DATES);
+		tablesByClass.put(ShapePoint.class, SHAPES);
+		tablesByClass.put(Frequency.class, FREQUENCIES);
+		tablesByClass.put(Transfer.class, TRANSFERS);
+		tablesByClass.put(FareAttribute.class, FARE_ATTRIBUTES);
+		tablesByClass.put(FareRule.class, FARE_RULES);
+		tablesByClass.put(FeedInfo.class, FEED_INFO);
+		tablesByClass.put(Pathway.class, PATHWAYS);
+
+		references.put(ROUTES, Arrays.asList(AGENCY));
+		references.put(TRIPS, Arrays.asList(ROUTES));
+		references.put(STOP_TIMES, Arrays.asList(TRIPS, STOPS));
+		references.put(FREQUENCIES, Arrays.asList(TRIPS));
+		references.put(TRANSFERS, Arrays.asList(STOPS, ROUTES, TRIPS));
+		references.put(FARE_RULES, Arrays.asList(FARE_ATTRIBUTES, ROUTES));
+		references.put(PATHWAYS, Arrays.asList(STOPS));
+	}
+
+	/**
+	 * @return the file name of the table of the given OneBusAway entity class, or null if it is not one of the
+	 * tables known here
+	 */
+	public static String getTable(Class<?> entityClass) {
+		return tablesByClass.get(entityClass);
+	}
+
+	/**
+	 * @return the file names of all of the tables known here
+	 */
+	public static Collection<String> getTables() {
+		return Collections.unmodifiableCollection(tablesByClass.values());
+	}
+
+	/**
+	 * @return the given tables, agency.txt, and every table they refer to, directly or not
+	 */
+	public static Set<String> withReferences(Collection<String> tables) {
+		Set<String> ret = new LinkedHashSet<String>();
+		ret.add(AGENCY);
+
+		Deque<String> toVisit = new ArrayDeque<String>(tables);
+		while (!toVisit.isEmpty()) {
+			String table = toVisit.pop();
+			if (ret.add(table))
+				toVisit.addAll(references.getOrDefault(table, Collections.<String>emptyList()));
+		}
+
+		return ret;
+	}
+}
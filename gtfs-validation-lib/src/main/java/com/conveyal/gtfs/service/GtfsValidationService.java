@@ -2,20 +2,18 @@
 package com.conveyal.gtfs.service;
 
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Route;
-import org.onebusaway.gtfs.model.ServiceCalendar;
-import org.onebusaway.gtfs.model.ServiceCalendarDate;
 import org.onebusaway.gtfs.model.ShapePoint;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.StopTime;
@@ -26,27 +24,91 @@ import com.conveyal.gtfs.model.DuplicateStops;
 import com.conveyal.gtfs.model.InputOutOfRange;
 import com.conveyal.gtfs.model.InvalidValue;
 import com.conveyal.gtfs.model.Priority;
+import com.conveyal.gtfs.model.ServiceCalendarIndex;
+import com.conveyal.gtfs.model.TripIndex;
 import com.conveyal.gtfs.model.TripPatternCollection;
 import com.conveyal.gtfs.model.ValidationResult;
-import com.conveyal.gtfs.model.comparators.BlockIntervalComparator;
-import com.conveyal.gtfs.model.comparators.StopTimeComparator;
 import com.conveyal.gtfs.service.impl.GtfsStatisticsService;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.index.strtree.STRtree;
 
 public class GtfsValidationService {
 
+	// the tables each check reads, so that a caller who knows which tables of a feed have changed since it was last
+	// validated need only run the checks that read them; every check also reads agency.txt, through the IDs
+
+	/** The tables read by {@link #validateRoutes()} */
+	public static final List<String> ROUTE_TABLES = Arrays.asList(GtfsTables.ROUTES);
+
+	/** The tables read by {@link #validateTrips(boolean, boolean)}, without the blocks; routes are read for the route of each problem */
+	public static final List<String> TRIP_TABLES = Arrays.asList(GtfsTables.ROUTES, GtfsTables.TRIPS, GtfsTables.STOPS, GtfsTables.STOP_TIMES);
+
+	/** The tables read by {@link #getBlockIntervals()} */
+	public static final List<String> BLOCK_INTERVAL_TABLES = Arrays.asList(GtfsTables.ROUTES, GtfsTables.TRIPS, GtfsTables.STOP_TIMES);
+
+	/** The tables read by {@link #validateBlocks(Map)}, besides those read to find the block intervals */
+	public static final List<String> BLOCK_TABLES = Arrays.asList(GtfsTables.CALENDAR, GtfsTables.CALENDAR_DATES);
+
+	/** The tables read by {@link #duplicateStops()} */
+	public static final List<String> STOP_TABLES = Arrays.asList(GtfsTables.STOPS);
+
+	/** The tables read by {@link #listReversedTripShapes()} */
+	public static final List<String> SHAPE_TABLES = Arrays.asList(GtfsTables.ROUTES, GtfsTables.TRIPS, GtfsTables.STOPS, GtfsTables.STOP_TIMES, GtfsTables.SHAPES);
+
 	static GeometryFactory geometryFactory = new GeometryFactory();
 
+	private FeedContext context = null;
 	private GtfsRelationalDaoImpl gtfsDao = null;
 	private GtfsStatisticsService statsService = null;
+	private PointIndex.Type pointIndexType = PointIndex.getDefaultType();
 
 	public GtfsValidationService(GtfsRelationalDaoImpl dao)  {
+		this(new FeedContext(dao));
+	}
+
+	/**
+	 * Validate a feed, sharing whatever has been derived from it with other services given the same context.
+	 */
+	public GtfsValidationService(FeedContext context)  {
+
+		this.context = context;
+		gtfsDao = context.getDao();
+		statsService = new GtfsStatisticsService(context);
+	}
+
+	public FeedContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Get the stop times of the feed grouped by trip, building the index the first time it is needed.
+	 * The index is shared by all of the checks, which may be running concurrently.
+	 */
+	public TripIndex getTripIndex() {
+		return context.getTripIndex();
+	}
+
+	/**
+	 * Get the dates on which each service runs, building the index the first time it is needed.
+	 */
+	public ServiceCalendarIndex getServiceCalendarIndex() {
+		return context.getServiceCalendarIndex();
+	}
+
+	/**
+	 * Choose the spatial index used by the stop proximity checks.
+	 */
+	public void setPointIndexType(PointIndex.Type pointIndexType) {
+		this.pointIndexType = pointIndexType;
+	}
 
-		gtfsDao = dao;		
-		statsService = new GtfsStatisticsService(dao);
+	/**
+	 * Get the projected geometries of the stops and shapes of the feed, which are shared by all of the checks.
+	 * Call preload() on the cache to project them all up front, in parallel.
+	 */
+	public ProjectedGeometryCache getGeometryCache() {
+		return context.getGeometryCache();
 	}
 
 	/**
@@ -102,110 +164,56 @@ public class GtfsValidationService {
 	}
 
 	/**
-	 * Checks for invalid trip values. Returns a ValidationResult object listing invalid/missing data.
+	 * Checks for invalid trip values, including reversed trip shapes. Returns a ValidationResult object listing invalid/missing data.
 	 * 
 	 */
 	public ValidationResult validateTrips() {
+		return validateTrips(true);
+	}
 
-		ValidationResult result = new ValidationResult();
-
-
-		// map stop time sequences to trip id
-
-		HashMap<String, ArrayList<StopTime>> tripStopTimes = new HashMap<String, ArrayList<StopTime>>(statsService.getStopTimesCount() *2);
-
-		HashSet<String> usedStopIds = new HashSet<String>(statsService.getStopCount() *2);
-
-		String tripId;
-
-		for(StopTime stopTime : gtfsDao.getAllStopTimes()) {
-
-			tripId = stopTime.getTrip().getId().toString();
-
-			if(!tripStopTimes.containsKey(tripId))
-				tripStopTimes.put(tripId, new ArrayList<StopTime>());
-
-			tripStopTimes.get(tripId).add(stopTime);
-
-			if (stopTime.getStop() != null && stopTime.getStop().getId() != null) {
-				usedStopIds.add(stopTime.getStop().getId().toString());
-			}
-
-		}
-
-		// create service calendar date map
+	/**
+	 * Checks for invalid trip values. Returns a ValidationResult object listing invalid/missing data.
+	 * 
+	 * @param includeReversedTripShapes whether to also run {@link #listReversedTripShapes()} and add its results;
+	 * callers that run that check separately should pass false so it is not run twice.
+	 */
+	public ValidationResult validateTrips(boolean includeReversedTripShapes) {
+		return validateTrips(includeReversedTripShapes, true);
+	}
 
-		
-		@SuppressWarnings("deprecation")
-		int reasonableNumberOfDates = statsService.getNumberOfDays() *2;
-		
-		HashMap<String, HashSet<Date>> serviceCalendarDates = new HashMap<String, HashSet<Date>>(reasonableNumberOfDates);
-		//TODO: factor out.
-		for(ServiceCalendar calendar : gtfsDao.getAllCalendars()) {
+	/**
+	 * Checks for invalid trip values. Returns a ValidationResult object listing invalid/missing data.
+	 * 
+	 * @param includeReversedTripShapes whether to also run {@link #listReversedTripShapes()} and add its results
+	 * @param includeBlocks whether to also check for overlapping trips in blocks, which is the only part of the check
+	 * that reads the calendars; callers that pass false can run {@link #validateBlocks()} separately
+	 */
+	public ValidationResult validateTrips(boolean includeReversedTripShapes, boolean includeBlocks) {
 
-			Date startDate = calendar.getStartDate().getAsDate();
-			Date endDate = calendar.getEndDate().getAsDate();
+		ValidationResult result = new ValidationResult();
 
-			HashSet<Date> datesActive = new HashSet<Date>(reasonableNumberOfDates);
 
-			Date currentDate = startDate;
+		// stop time sequences by trip
 
-			HashSet<Integer> daysActive = new HashSet<Integer>();
+		TripIndex tripIndex = getTripIndex();
 
-			if(calendar.getSunday() == 1)
-				daysActive.add(Calendar.SUNDAY);
-			else if(calendar.getMonday() == 1)
-				daysActive.add(Calendar.MONDAY);
-			else if(calendar.getTuesday() == 1)
-				daysActive.add(Calendar.TUESDAY);
-			else if(calendar.getWednesday() == 1)
-				daysActive.add(Calendar.WEDNESDAY);
-			else if(calendar.getThursday() == 1)
-				daysActive.add(Calendar.THURSDAY);
-			else if(calendar.getFriday() == 1)
-				daysActive.add(Calendar.FRIDAY);
-			else if(calendar.getSaturday() == 1)
-				daysActive.add(Calendar.SATURDAY);
+		HashSet<AgencyAndId> usedStopIds = new HashSet<AgencyAndId>(statsService.getStopCount() *2);
 
-			while(currentDate.before(endDate) || currentDate.equals(endDate)) {
+		String tripId;
 
-				Calendar cal = Calendar.getInstance();
-				cal.setTime(currentDate);
+		for(int i = 0; i < tripIndex.getStopTimeCount(); i++) {
 
-				if(daysActive.contains(cal.get(Calendar.DAY_OF_WEEK)))
-					datesActive.add(currentDate);
+			Stop stop = tripIndex.getStop(i);
 
-				cal.add(Calendar.DATE, 1); 
-				currentDate = cal.getTime();
+			if (stop != null && stop.getId() != null) {
+				usedStopIds.add(stop.getId());
 			}
 
-			serviceCalendarDates.put(calendar.getServiceId().getId(), datesActive);
-
 		}
 
-		// add/remove service exceptions
-		for(ServiceCalendarDate calendarDate : gtfsDao.getAllCalendarDates()) {
-
-			String serviceId = calendarDate.getServiceId().getId();
-			int exceptionType = calendarDate.getExceptionType();
-
-			if(serviceCalendarDates.containsKey(serviceId)) {
+		// dates on which each service runs
 
-				if(exceptionType == 1)
-					serviceCalendarDates.get(serviceId).add(calendarDate.getDate().getAsDate());
-				else if (exceptionType == 2 && serviceCalendarDates.get(serviceId).contains(calendarDate.getDate().getAsDate()))
-					serviceCalendarDates.get(serviceId).remove(calendarDate.getDate().getAsDate());
-			}
-			// handle service ids that don't appear in calendar.txt
-			// for instance, feeds that have no calendar.txt (e.g. TriMet, NJ Transit)
-			// and rely exclusively on calendar_dates.txt
-			else if (exceptionType == 1) {
-				HashSet<Date> calendarDates = new HashSet<Date>();
-				calendarDates.add(calendarDate.getDate().getAsDate());
-				serviceCalendarDates.put(serviceId, calendarDates);
-			}
-
-		}
+		ServiceCalendarIndex serviceCalendarIndex = includeBlocks ? getServiceCalendarIndex() : null;
 
 		// check for unused stops 
 
@@ -213,172 +221,200 @@ public class GtfsValidationService {
 
 			String stopId = stop.getId().toString();
 
-			if(!usedStopIds.contains(stopId)) {
+			if(!usedStopIds.contains(stop.getId())) {
 				result.add(new InvalidValue("stop", "stop_id", stopId, "UnusedStop", "Stop Id " + stopId + " is not used in any trips." , null, Priority.LOW));
 			}
 		}
 
 
-		HashMap<String, ArrayList<BlockInterval>> blockIntervals = new HashMap<String, ArrayList<BlockInterval>>();
+		HashMap<String, ArrayList<BlockInterval>> blockIntervals = new LinkedHashMap<String, ArrayList<BlockInterval>>();
 
-		HashMap<String, String> duplicateTripHash = new HashMap<String, String>();
+		TripFingerprint tripFingerprints = new TripFingerprint(tripIndex);
 
-		String tripKey, blockId;
 		for(Trip trip : gtfsDao.getAllTrips()) {
 
 			tripId = trip.getId().toString();
 
-			ArrayList<StopTime> stopTimes = tripStopTimes.get(tripId);
+			int tripOrdinal = tripIndex.getTripOrdinal(trip.getId());
 
-			if(stopTimes == null || stopTimes.isEmpty()) {
+			if(tripIndex.getStopTimeCount(tripOrdinal) == 0) {
 				InvalidValue iv = new InvalidValue("trip", "trip_id", tripId, "NoStopTimesForTrip", "Trip Id " + tripId + " has no stop times." , null, Priority.HIGH);
 				iv.route = trip.getRoute();
 				result.add(iv);
 				continue;
 			}
 
-			Collections.sort(stopTimes, new StopTimeComparator());
+			validateStopTimes(tripIndex, tripOrdinal, trip, result);
 
-			StopTime previousStopTime = null;
-			for(StopTime stopTime : stopTimes) {
+			int first = tripIndex.getStart(tripOrdinal);
+			int last = tripIndex.getEnd(tripOrdinal) - 1;
 
-				if(stopTime.getDepartureTime() < stopTime.getArrivalTime()) {
-					InvalidValue iv = 
-							new InvalidValue("stop_time", "trip_id", tripId, "StopTimeDepartureBeforeArrival", "Trip Id " + tripId + " stop sequence " + stopTime.getStopSequence() + " departs before arriving.", null, Priority.HIGH);
-					iv.route = trip.getRoute();
-					result.add(iv);
-				}
+			// store trip intervals by block id
 
-				// check for null previous stop time and negative arrival time (int value is -999 if arrival time is empty, e.g. non-timepoint)
-				if(previousStopTime != null && stopTime.getArrivalTime() > 0) {
+			if(includeBlocks)
+				addBlockInterval(blockIntervals, trip, tripIndex.getDepartureTime(first), tripIndex.getArrivalTime(first), tripIndex.getDepartureTime(last));
 
-					if(stopTime.getArrivalTime() < previousStopTime.getDepartureTime()) {
-						System.out.println(stopTime.getArrivalTime());
-						InvalidValue iv =
-								new InvalidValue("stop_time", "trip_id", tripId, "StopTimesOutOfSequence", "Trip Id " + tripId + " stop sequence " + stopTime.getStopSequence() + " arrives before departing " + previousStopTime.getStopSequence(), null, Priority.HIGH);
-						iv.route = trip.getRoute();
-						result.add(iv);
+			// check for duplicate trips starting at the same time with the same service id
 
-						// only capturing first out of sequence stop for now -- could consider collapsing duplicates based on tripId
-						break;					
-					}
+			int duplicateTrip = tripFingerprints.add(tripOrdinal);
 
-				}
+			if(duplicateTrip >= 0) {
+				String duplicateTripId = tripIndex.getTrip(duplicateTrip).getId().toString();
+				InvalidValue iv =
+						new InvalidValue("trip", "trip_id", tripId, "DuplicateTrip", "Trip Ids " + duplicateTripId + " & " + tripId + " are duplicates" , null, Priority.LOW);
+				iv.route = trip.getRoute();
+				result.add(iv);
 
-				previousStopTime = stopTime;
 			}
 
 
-			// store trip intervals by block id
+		}
 
-			blockId = "";
+		// check for overlapping trips within block
 
-			if(trip.getBlockId() != null)
-				blockId = trip.getBlockId();
+		if(includeBlocks)
+			validateBlocks(blockIntervals, serviceCalendarIndex, result);
 
-			if(!blockId.isEmpty()) {
+		// check for reversed trip shapes and add to result list 
+		if (includeReversedTripShapes)
+			result.append(this.listReversedTripShapes());
 
-				BlockInterval blockInterval = new BlockInterval();
-				blockInterval.setTrip(trip);
-				blockInterval.setStartTime( stopTimes.get(0).getDepartureTime());
-				blockInterval.setFirstStop(stopTimes.get(0));
-				blockInterval.setLastStop(stopTimes.get(stopTimes.size() -1));
+		return result;
 
-				if(!blockIntervals.containsKey(blockId))
-					blockIntervals.put(blockId, new ArrayList<BlockInterval>());
+	}
 
-				blockIntervals.get(blockId).add(blockInterval);
 
-			}
+	/**
+	 * Check for overlapping trips within blocks, as {@link #validateTrips(boolean, boolean)} does.
+	 */
+	public ValidationResult validateBlocks() {
+		return validateBlocks(getBlockIntervals());
+	}
 
-			// check for duplicate trips starting at the same time with the same service id
+	/**
+	 * Check for overlapping trips within blocks, given the block intervals of the feed, which may have been found
+	 * when it was last validated if its trips and stop times have not changed since.
+	 */
+	public ValidationResult validateBlocks(Map<String, ArrayList<BlockInterval>> blockIntervals) {
+		ValidationResult result = new ValidationResult();
+		validateBlocks(new LinkedHashMap<String, ArrayList<BlockInterval>>(blockIntervals), getServiceCalendarIndex(), result);
+		return result;
+	}
+
+	/**
+	 * Find the interval of each trip with stop times and a block ID, by block ID in the order the blocks are first
+	 * found among the trips, as {@link #validateTrips(boolean, boolean)} does.
+	 */
+	public LinkedHashMap<String, ArrayList<BlockInterval>> getBlockIntervals() {
+		LinkedHashMap<String, ArrayList<BlockInterval>> blockIntervals = new LinkedHashMap<String, ArrayList<BlockInterval>>();
+		TripIndex tripIndex = getTripIndex();
 
-			String stopIds = "";
+		for(Trip trip : gtfsDao.getAllTrips()) {
+			int tripOrdinal = tripIndex.getTripOrdinal(trip.getId());
+			if(tripOrdinal < 0 || tripIndex.getStopTimeCount(tripOrdinal) == 0)
+				continue;
 
-			for(StopTime stopTime : stopTimes) {
-				if (stopTime.getStop() != null && stopTime.getStop().getId() != null) {
-					stopIds += stopTime.getStop().getId().toString() + ",";
-				}
-			}
+			int first = tripIndex.getStart(tripOrdinal);
+			int last = tripIndex.getEnd(tripOrdinal) - 1;
+			addBlockInterval(blockIntervals, trip, tripIndex.getDepartureTime(first), tripIndex.getArrivalTime(first), tripIndex.getDepartureTime(last));
+		}
 
-			tripKey = trip.getServiceId().getId() + "_"+ blockId + "_" + stopTimes.get(0).getDepartureTime() +"_" + stopTimes.get(stopTimes.size() -1).getArrivalTime() + "_" + stopIds;
+		return blockIntervals;
+	}
 
-			if(duplicateTripHash.containsKey(tripKey)) {
-				String duplicateTripId = duplicateTripHash.get(tripKey);
-				InvalidValue iv =
-						new InvalidValue("trip", "trip_id", tripId, "DuplicateTrip", "Trip Ids " + duplicateTripId + " & " + tripId + " are duplicates" , null, Priority.LOW);
+	/**
+	 * Check the stop times of one trip for departures before arrivals, and for stops arrived at before the previous
+	 * stop is departed from. The trip must have stop times.
+	 */
+	static void validateStopTimes(TripIndex tripIndex, int tripOrdinal, Trip trip, ValidationResult result) {
+
+		String tripId = trip.getId().toString();
+
+		int first = tripIndex.getStart(tripOrdinal);
+		int last = tripIndex.getEnd(tripOrdinal) - 1;
+
+		for(int stopTime = first; stopTime <= last; stopTime++) {
+
+			if(tripIndex.getDepartureTime(stopTime) < tripIndex.getArrivalTime(stopTime)) {
+				InvalidValue iv = 
+						new InvalidValue("stop_time", "trip_id", tripId, "StopTimeDepartureBeforeArrival", "Trip Id " + tripId + " stop sequence " + tripIndex.getStopSequence(stopTime) + " departs before arriving.", null, Priority.HIGH);
 				iv.route = trip.getRoute();
 				result.add(iv);
-
 			}
-			else
-				duplicateTripHash.put(tripKey, tripId);
 
+			// check for null previous stop time and negative arrival time (int value is -999 if arrival time is empty, e.g. non-timepoint)
+			if(stopTime > first && tripIndex.getArrivalTime(stopTime) > 0) {
+
+				if(tripIndex.getArrivalTime(stopTime) < tripIndex.getDepartureTime(stopTime - 1)) {
+					InvalidValue iv =
+							new InvalidValue("stop_time", "trip_id", tripId, "StopTimesOutOfSequence", "Trip Id " + tripId + " stop sequence " + tripIndex.getStopSequence(stopTime) + " arrives before departing " + tripIndex.getStopSequence(stopTime - 1), null, Priority.HIGH);
+					iv.route = trip.getRoute();
+					result.add(iv);
+
+					// only capturing first out of sequence stop for now -- could consider collapsing duplicates based on tripId
+					break;					
+				}
 
+			}
 		}
+	}
 
-		// check for overlapping trips within block
+	/**
+	 * Store the interval of a trip under its block ID, if it has one.
+	 */
+	static void addBlockInterval(HashMap<String, ArrayList<BlockInterval>> blockIntervals, Trip trip, int startTime, int firstArrivalTime, int lastDepartureTime) {
 
-		for(Entry<String, ArrayList<BlockInterval>> blockIdset : blockIntervals.entrySet()) {
+		String blockId = "";
 
-			blockId = blockIdset.getKey();
-			ArrayList<BlockInterval> intervals = blockIntervals.get(blockId);
+		if(trip.getBlockId() != null)
+			blockId = trip.getBlockId();
 
-			Collections.sort(intervals, new BlockIntervalComparator());
+		if(!blockId.isEmpty()) {
 
-			int iOffset = 0;
-			for(BlockInterval i1 : intervals) { 
-				for(BlockInterval i2 : intervals.subList(iOffset, intervals.size() - 1)) {
+			BlockInterval blockInterval = new BlockInterval();
+			blockInterval.setTrip(trip);
+			blockInterval.setStartTime(startTime);
+			blockInterval.setFirstArrivalTime(firstArrivalTime);
+			blockInterval.setLastDepartureTime(lastDepartureTime);
 
+			if(!blockIntervals.containsKey(blockId))
+				blockIntervals.put(blockId, new ArrayList<BlockInterval>());
 
-					String tripId1 = i1.getTrip().getId().toString();
-					String tripId2 = i2.getTrip().getId().toString();
+			blockIntervals.get(blockId).add(blockInterval);
 
+		}
+	}
 
-					if(!tripId1.equals(tripId2)) {
-						// if trips don't overlap, skip 
-						if(i1.getLastStop().getDepartureTime() <= i2.getFirstStop().getArrivalTime() 
-								|| i2.getLastStop().getDepartureTime() <= i1.getFirstStop().getArrivalTime())
-							continue;
+	/**
+	 * Check for trips in the same block that overlap in time on a day when both of them run.
+	 */
+	static void validateBlocks(HashMap<String, ArrayList<BlockInterval>> blockIntervals, ServiceCalendarIndex serviceCalendarIndex, ValidationResult result) {
 
-						// if trips have same service id they overlap
-						if(i1.getTrip().getServiceId().getId().equals(i2.getTrip().getServiceId().getId())) {
-							// but if they are already in the result set, ignore
-							if (!result.containsBoth(tripId1, tripId2, "trip")){
-								InvalidValue iv =
-										new InvalidValue("trip", "block_id", blockId, "OverlappingTripsInBlock", "Trip Ids " + tripId1 + " & " + tripId2 + " overlap and share block Id " + blockId , null, Priority.HIGH);
-								// not strictly correct; they could be on different routes
-								iv.route = i1.getTrip().getRoute();
-								result.add(iv);
-							}
-						}
+		for(Entry<String, ArrayList<BlockInterval>> blockIdset : blockIntervals.entrySet()) {
 
-						else {
-							// if trips don't share service id check to see if service dates fall on the same days/day of week
+			final String overlapBlockId = blockIdset.getKey();
 
-							for(Date d1 : serviceCalendarDates.get(i1.getTrip().getServiceId().getId())) {
+			BlockOverlapSweep.findOverlaps(blockIdset.getValue(), (i1, i2) -> {
 
-								if(serviceCalendarDates.get(i2.getTrip().getServiceId().getId()).contains(d1)) {
-									InvalidValue iv = new InvalidValue("trip", "block_id", blockId, "OverlappingTripsInBlock", "Trip Ids " + tripId1 + " & " + tripId2 + " overlap and share block Id " + blockId , null, Priority.HIGH);
-									iv.route = i1.getTrip().getRoute();
-									result.add(iv);
-									break;
-								}
-							}
-						}
-					}
-				}
-			}
-		}
+				String tripId1 = i1.getTrip().getId().toString();
+				String tripId2 = i2.getTrip().getId().toString();
 
-		// check for reversed trip shapes and add to result list 
-		result.append(this.listReversedTripShapes());
+				AgencyAndId serviceId1 = i1.getTrip().getServiceId();
+				AgencyAndId serviceId2 = i2.getTrip().getServiceId();
 
-		return result;
+				// if trips have same service id they overlap, otherwise only if the services run on a common date
+				if(!serviceId1.equals(serviceId2) && !serviceCalendarIndex.shareDate(serviceId1, serviceId2))
+					return;
 
+				InvalidValue iv =
+						new InvalidValue("trip", "block_id", overlapBlockId, "OverlappingTripsInBlock", "Trip Ids " + tripId1 + " & " + tripId2 + " overlap and share block Id " + overlapBlockId , null, Priority.HIGH);
+				// not strictly correct; they could be on different routes
+				iv.route = i1.getTrip().getRoute();
+				result.add(iv);
+			});
+		}
 	}
 
-
 	/**
 	 * Returns a list of coincident DuplicateStops. 
 	 * @throws InputOutOfRange if lat/lon of stops can't be transformed to EPSG:4326
@@ -399,77 +435,38 @@ public class GtfsValidationService {
 
 		ValidationResult result = new ValidationResult();
 
-		Collection<Stop> stops = gtfsDao.getAllStops();
+		Collection<Stop> allStops = gtfsDao.getAllStops();
+		Stop[] stops = allStops.toArray(new Stop[allStops.size()]);
 
-		STRtree stopIndex = new STRtree();
+		ProjectedGeometryCache geometryCache = getGeometryCache();
 
-		HashMap<String, Geometry> stopProjectedGeomMap = new HashMap<String, Geometry>(statsService.getStopCount() * 2);
+		// stops that can't be projected are NaN, and are left out of the join
+		double[] x = new double[stops.length];
+		double[] y = new double[stops.length];
 
-		for(Stop stop : stops) {
+		for (int i = 0; i < stops.length; i++) {
 
 			try{
-				Geometry geom = GeoUtils.getGeometryFromCoordinate(stop.getLat(), stop.getLon());
-
-				stopIndex.insert(geom.getEnvelopeInternal(), stop);
-
-				stopProjectedGeomMap.put(stop.getId().toString(), geom);
+				Coordinate coord = geometryCache.getStopGeometry(stops[i]).getCoordinate();
+				x[i] = coord.x;
+				y[i] = coord.y;
 
 			} catch (IllegalArgumentException iae) {
-				result.add(new InvalidValue("stop", "duplicateStops", stop.toString(), "MissingCoordinates", "stop " + stop + " is missing coordinates", null, Priority.MEDIUM));
+				x[i] = y[i] = Double.NaN;
+				result.add(new InvalidValue("stop", "duplicateStops", stops[i].toString(), "MissingCoordinates", "stop " + stops[i] + " is missing coordinates", null, Priority.MEDIUM));
 			}
 
 		}
 
-		stopIndex.build();
-
-		List<DuplicateStops> duplicateStops = new ArrayList<DuplicateStops>();
-
-		for(Geometry stopGeom : stopProjectedGeomMap.values()) {
-
-			Geometry bufferedStopGeom = stopGeom.buffer(bufferDistance);
-
-			@SuppressWarnings("unchecked")
-			List<Stop> stopCandidates = (List<Stop>)stopIndex.query(bufferedStopGeom.getEnvelopeInternal());
+		PointIndex stopIndex = PointIndex.create(pointIndexType, x, y, bufferDistance);
 
-			if(stopCandidates.size() > 1) {
+		new ProximityJoin(x, y, stopIndex).findPairs(bufferDistance, (stop1, stop2, distance) -> {
 
-				for(Stop stop1 : stopCandidates) {
-					for(Stop stop2 : stopCandidates) {
-
-						if(stop1.getId() != stop2.getId()) {
-
-							Boolean stopPairAlreadyFound = false;
-							for(DuplicateStops duplicate : duplicateStops) {
-
-								if((duplicate.stop1.getId().getAgencyId().equals(stop1.getId().getAgencyId()) && duplicate.stop2.getId().getAgencyId().equals(stop2.getId().getAgencyId())) || 
-										(duplicate.stop2.getId().getAgencyId().equals(stop1.getId().getAgencyId()) && duplicate.stop1.getId().getAgencyId().equals(stop2.getId().getAgencyId())))
-									stopPairAlreadyFound = true;
-							}
-
-							if(stopPairAlreadyFound)
-								continue;
-
-							Geometry stop1Geom = stopProjectedGeomMap.get(stop1.getId().toString());
-							Geometry stop2Geom = stopProjectedGeomMap.get(stop2.getId().toString());
-
-							double distance = stop1Geom.distance(stop2Geom);
-
-							// if stopDistance is within bufferDistance consider duplicate
-							if(distance <= bufferDistance){
-
-								// TODO: a good place to check if stops are part of a station grouping
-
-								DuplicateStops duplicateStop = new DuplicateStops(stop1, stop2, distance);
-								duplicateStops.add(duplicateStop);
-								result.add(new InvalidValue("stop", "stop_lat,stop_lon", duplicateStop.getStopIds(), "DuplicateStops", duplicateStop.toString(), duplicateStop, Priority.LOW));
-
-							}
-						}
+			// TODO: a good place to check if stops are part of a station grouping
 
-					}
-				}
-			}
-		}
+			DuplicateStops duplicateStop = new DuplicateStops(stops[stop1], stops[stop2], distance);
+			result.add(new InvalidValue("stop", "stop_lat,stop_lon", duplicateStop.getStopIds(), "DuplicateStops", duplicateStop.toString(), duplicateStop, Priority.LOW));
+		});
 
 		return result;
 	}
@@ -484,7 +481,8 @@ public class GtfsValidationService {
 	 */
 	public ValidationResult listStopsAwayFromShape(Double minDistance){
 
-		List<AgencyAndId> shapeIds = gtfsDao.getAllShapeIds();
+		ProjectedGeometryCache geometryCache = getGeometryCache();
+		List<AgencyAndId> shapeIds = geometryCache.getShapeIds();
 		TripPatternCollection tripPatterns = new TripPatternCollection(shapeIds.size() *2);
 		String problemDescription = "Stop is more than " + minDistance + "m from shape";
 
@@ -493,30 +491,28 @@ public class GtfsValidationService {
 		Geometry shapeLine, stopGeom;
 		Stop stop;
 		Route routeId;
-		List<StopTime> stopTimes;
 		List<Trip> tripsForShape;
+		TripIndex tripIndex = getTripIndex();
 
 		for (AgencyAndId shapeId : shapeIds){
 
-			shapeLine = GeoUtils.getGeomFromShapePoints(
-					gtfsDao.getShapePointsForShapeId(shapeId));
+			shapeLine = geometryCache.getShapeGeometry(shapeId);
 			tripsForShape = gtfsDao.getTripsForShapeId(shapeId);
 
 			for (Trip trip: tripsForShape){
 				//filter that list by trip patterns, 
 				//where a pattern is a distinct combo of route, shape, and stopTimes
 				routeId = trip.getRoute();
-				stopTimes = gtfsDao.getStopTimesForTrip(trip);
+				int tripOrdinal = tripIndex.getTripOrdinal(trip.getId());
 
-				if (!tripPatterns.addIfNotPresent(routeId, shapeId, stopTimes)){
+				if (tripOrdinal >= 0 && !tripPatterns.addIfNotPresent(routeId, shapeId, tripIndex.getStopTimeCount(tripOrdinal))){
 
 					// if any stop is more than minDistance, add to ValidationResult 
-					for (StopTime stopTime : stopTimes){
-						stop = stopTime.getStop();
+					for (int stopTime = tripIndex.getStart(tripOrdinal); stopTime < tripIndex.getEnd(tripOrdinal); stopTime++){
+						stop = tripIndex.getStop(stopTime);
 
 						try{
-							stopGeom = GeoUtils.getGeometryFromCoordinate(
-									stop.getLat(), stop.getLon());
+							stopGeom = geometryCache.getStopGeometry(stop);
 							if (shapeLine.distance(stopGeom) > minDistance){
 								String problem = stop.getId().toString() + " on "+ shapeId.getId();
 								InvalidValue iv = new InvalidValue(
@@ -546,32 +542,12 @@ public class GtfsValidationService {
 
 		Collection<Trip> trips = gtfsDao.getAllTrips();
 
-		Collection<StopTime> stopTimes = gtfsDao.getAllStopTimes();
-
-		int numTrips = gtfsDao.getAllTrips().size();
-
-		HashMap<String, StopTime> firstStopMap = new HashMap<String, StopTime>(numTrips *2);
-		HashMap<String, StopTime> lastStopMap = new HashMap<String, StopTime>(numTrips *2);
-
-		// map first and last stops for each trip id
+		int numTrips = trips.size();
 
-		for(StopTime stopTime : stopTimes) {
-			String tripId = stopTime.getTrip().getId().toString();
+		// first and last stops for each trip come from the trip index
 
-			if(firstStopMap.containsKey(tripId)) {
-				if(firstStopMap.get(tripId).getStopSequence() > stopTime.getStopSequence())
-					firstStopMap.put(tripId, stopTime);
-			}
-			else 
-				firstStopMap.put(tripId, stopTime);
-
-			if(lastStopMap.containsKey(tripId)) {
-				if(lastStopMap.get(tripId).getStopSequence() < stopTime.getStopSequence())
-					lastStopMap.put(tripId, stopTime);
-			}
-			else 
-				lastStopMap.put(tripId, stopTime);
-		}
+		TripIndex tripIndex = getTripIndex();
+		ProjectedGeometryCache geometryCache = getGeometryCache();
 
 		Collection<ShapePoint> shapePoints = gtfsDao.getAllShapePoints();
 
@@ -581,92 +557,100 @@ public class GtfsValidationService {
 		// map first and last shape points
 
 		for(ShapePoint shapePoint : shapePoints) {
+			addShapePoint(firstShapePoint, lastShapePoint, shapePoint);
+		}
+
+		Stop firstStop, lastStop;
 
-			String shapeId = shapePoint.getShapeId().getId();
+		for(Trip trip : trips) {
 
-			if(firstShapePoint.containsKey(shapeId)) {
-				if(firstShapePoint.get(shapeId).getSequence() > shapePoint.getSequence())
-					firstShapePoint.put(shapeId, shapePoint);
+			int tripOrdinal = tripIndex.getTripOrdinal(trip.getId());
+			firstStop = null;
+			lastStop = null;
+			if (tripOrdinal >= 0 && tripIndex.getStopTimeCount(tripOrdinal) > 0) {
+				firstStop = tripIndex.getStop(tripIndex.getStart(tripOrdinal));
+				lastStop = tripIndex.getStop(tripIndex.getEnd(tripOrdinal) - 1);
 			}
-			else 
+
+			validateTripShape(trip, firstStop, lastStop, firstShapePoint, lastShapePoint, geometryCache, distanceMultiplier, result);
+		}
+
+		return result;
+
+	}
+
+	/**
+	 * Keep the first and last points of each shape, by shape ID.
+	 */
+	static void addShapePoint(HashMap<String, ShapePoint> firstShapePoint, HashMap<String, ShapePoint> lastShapePoint, ShapePoint shapePoint) {
+
+		String shapeId = shapePoint.getShapeId().getId();
+
+		if(firstShapePoint.containsKey(shapeId)) {
+			if(firstShapePoint.get(shapeId).getSequence() > shapePoint.getSequence())
 				firstShapePoint.put(shapeId, shapePoint);
+		}
+		else 
+			firstShapePoint.put(shapeId, shapePoint);
 
-			if(lastShapePoint.containsKey(shapeId)) {
-				if(lastShapePoint.get(shapeId).getSequence() < shapePoint.getSequence())
-					lastShapePoint.put(shapeId, shapePoint);
-			}
-			else 
+		if(lastShapePoint.containsKey(shapeId)) {
+			if(lastShapePoint.get(shapeId).getSequence() < shapePoint.getSequence())
 				lastShapePoint.put(shapeId, shapePoint);
-
 		}
+		else 
+			lastShapePoint.put(shapeId, shapePoint);
 
-		String tripId, shapeId;
-		StopTime firstStop, lastStop;
-		Coordinate firstStopCoord, lastStopCoord, firstShapeCoord, lastShapeCoord;
-		Geometry firstShapeGeom, lastShapeGeom, firstStopGeom, lastStopGeom;
+	}
 
-		for(Trip trip : trips) {
+	/**
+	 * Check whether a trip is missing its shape, or runs along it the wrong way.
+	 * @param firstStop the first stop of the trip, or null if it has no stop times
+	 * @param lastStop the last stop of the trip, or null if it has no stop times
+	 */
+	static void validateTripShape(Trip trip, Stop firstStop, Stop lastStop, Map<String, ShapePoint> firstShapePoint, Map<String, ShapePoint> lastShapePoint,
+			ProjectedGeometryCache geometryCache, Double distanceMultiplier, ValidationResult result) {
+
+		String tripId = trip.getId().toString();
+		if (trip.getShapeId() == null) {
+			InvalidValue iv = new InvalidValue("trip", "shape_id", tripId, "MissingShape", "Trip " + tripId + " is missing a shape", null, Priority.MEDIUM);
+			iv.route = trip.getRoute();
+			result.add(iv);
+			return;
+		}
+		String shapeId = trip.getShapeId().getId();
 
-			tripId = trip.getId().toString();
-			if (trip.getShapeId() == null) {
-				InvalidValue iv = new InvalidValue("trip", "shape_id", tripId, "MissingShape", "Trip " + tripId + " is missing a shape", null, Priority.MEDIUM);
-				iv.route = trip.getRoute();
-				result.add(iv);
-				continue;
-			}
-			shapeId = trip.getShapeId().getId();
-
-			firstStop = firstStopMap.get(tripId);
-			lastStop = lastStopMap.get(tripId);
-
-			firstStopCoord = null;
-			lastStopCoord = null;
-			firstShapeGeom = null;
-			lastShapeGeom = null;
-			firstStopGeom = null;
-			lastStopGeom = null;
-			firstShapeCoord = null;
-			lastShapeCoord = null;
-			try {
-				firstStopCoord = new Coordinate(firstStop.getStop().getLat(), firstStop.getStop().getLon());
-				lastStopCoord = new Coordinate(lastStop.getStop().getLat(), lastStop.getStop().getLon());
-
-				firstStopGeom = geometryFactory.createPoint(GeoUtils.convertLatLonToEuclidean(firstStopCoord));
-				lastStopGeom = geometryFactory.createPoint(GeoUtils.convertLatLonToEuclidean(lastStopCoord));
-
-				firstShapeCoord = new Coordinate(firstShapePoint.get(shapeId).getLat(), firstShapePoint.get(shapeId).getLon());
-				lastShapeCoord = new Coordinate(lastShapePoint.get(shapeId).getLat(), firstShapePoint.get(shapeId).getLon());
-
-				firstShapeGeom = geometryFactory.createPoint(GeoUtils.convertLatLonToEuclidean(firstShapeCoord));
-				lastShapeGeom = geometryFactory.createPoint(GeoUtils.convertLatLonToEuclidean(lastShapeCoord));
-			} catch (Exception any) {
-				InvalidValue iv = new InvalidValue("trip", "shape_id", tripId, "MissingCoordinates", "Trip " + tripId + " is missing coordinates", null, Priority.MEDIUM);
-				iv.route = trip.getRoute();
-				result.add(iv);
-				continue;
-			}
+		Geometry firstShapeGeom, lastShapeGeom, firstStopGeom, lastStopGeom;
+		Coordinate firstShapeCoord, lastShapeCoord;
 
+		try {
+			firstStopGeom = geometryCache.getStopGeometry(firstStop);
+			lastStopGeom = geometryCache.getStopGeometry(lastStop);
 
 			firstShapeCoord = new Coordinate(firstShapePoint.get(shapeId).getLat(), firstShapePoint.get(shapeId).getLon());
 			lastShapeCoord = new Coordinate(lastShapePoint.get(shapeId).getLat(), firstShapePoint.get(shapeId).getLon());
 
-			Double distanceFirstStopToStart = firstStopGeom.distance(firstShapeGeom);
-			Double distanceFirstStopToEnd = firstStopGeom.distance(lastShapeGeom);
-
-			Double distanceLastStopToEnd = lastStopGeom.distance(lastShapeGeom);
-			Double distanceLastStopToStart = lastStopGeom.distance(firstShapeGeom);
-
-			// check if first stop is x times closer to end of shape than the beginning or last stop is x times closer to start than the end
-			if(distanceFirstStopToStart > (distanceFirstStopToEnd * distanceMultiplier) && distanceLastStopToEnd > (distanceLastStopToStart * distanceMultiplier)) {
-				InvalidValue iv =
-						new InvalidValue("trip", "shape_id", tripId, "ReversedTripShape", "Trip " + tripId + " references reversed shape " + shapeId, null, Priority.MEDIUM);
-				iv.route = trip.getRoute();
-				result.add(iv);
-			}
+			firstShapeGeom = geometryFactory.createPoint(GeoUtils.convertLatLonToEuclidean(firstShapeCoord));
+			lastShapeGeom = geometryFactory.createPoint(GeoUtils.convertLatLonToEuclidean(lastShapeCoord));
+		} catch (Exception any) {
+			InvalidValue iv = new InvalidValue("trip", "shape_id", tripId, "MissingCoordinates", "Trip " + tripId + " is missing coordinates", null, Priority.MEDIUM);
+			iv.route = trip.getRoute();
+			result.add(iv);
+			return;
 		}
 
-		return result;
+		Double distanceFirstStopToStart = firstStopGeom.distance(firstShapeGeom);
+		Double distanceFirstStopToEnd = firstStopGeom.distance(lastShapeGeom);
+
+		Double distanceLastStopToEnd = lastStopGeom.distance(lastShapeGeom);
+		Double distanceLastStopToStart = lastStopGeom.distance(firstShapeGeom);
 
+		// check if first stop is x times closer to end of shape than the beginning or last stop is x times closer to start than the end
+		if(distanceFirstStopToStart > (distanceFirstStopToEnd * distanceMultiplier) && distanceLastStopToEnd > (distanceLastStopToStart * distanceMultiplier)) {
+			InvalidValue iv =
+					new InvalidValue("trip", "shape_id", tripId, "ReversedTripShape", "Trip " + tripId + " references reversed shape " + shapeId, null, Priority.MEDIUM);
+			iv.route = trip.getRoute();
+			result.add(iv);
+		}
 	}
 
 }
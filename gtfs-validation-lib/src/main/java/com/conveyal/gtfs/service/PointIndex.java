@@ -0,0 +1,58 @@
+package com.conveyal.gtfs.service;
+
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+
+/**
+ * A spatial index over a fixed set of projected points, answering fixed-radius neighbor queries.
+ * Points are identified by their index in the coordinate arrays the index was built from.
+ */
+public interface PointIndex {
+
+	/** The system property used to choose the index used by stop proximity checks, e.g. -Dgtfs.validator.pointIndex=grid */
+	public static final String POINT_INDEX_PROPERTY = "gtfs.validator.pointIndex";
+
+	/** The available implementations */
+	public enum Type {
+		/** a JTS STRtree; good for points that are unevenly spread, and for queries of varying radius */
+		STRTREE,
+		/** a hashed uniform grid, with cells the size of the query radius; faster to build and to query at a fixed radius */
+		GRID
+	}
+
+	/**
+	 * Visit every point that may be within radius of x, y. This includes every point that is, and may include
+	 * some that are not, so callers should check the distance themselves. Points with NaN coordinates are never visited.
+	 */
+	public void query(double x, double y, double radius, IntConsumer visitor);
+
+	/**
+	 * @return the type named by the {@value #POINT_INDEX_PROPERTY} system property, or STRTREE if it is not set
+	 */
+	public static Type getDefaultType() {
+		String type = System.getProperty(POINT_INDEX_PROPERTY);
+
+		if (type == null)
+			return Type.STRTREE;
+
+		try {
+			return Type.valueOf(type.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			Logger.getLogger(PointIndex.class.getName()).warning("Unknown point index " + type + ", using strtree");
+			return Type.STRTREE;
+		}
+	}
+
+	/**
+	 * Build an index of the given type.
+	 * @param radius the radius that will usually be queried, which the grid uses for its cell size
+	 */
+	public static PointIndex create(Type type, double[] x, double[] y, double radius) {
+		switch (type) {
+		case GRID:
+			return new GridPointIndex(x, y, radius);
+		default:
+			return new StrTreePointIndex(x, y);
+		}
+	}
+}
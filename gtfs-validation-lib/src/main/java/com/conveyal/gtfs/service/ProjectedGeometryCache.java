@@ -0,0 +1,155 @@
+package com.conveyal.gtfs.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * The projected geometries of the stops and shapes of a feed, shared by all of the checks of a
+ * GtfsValidationService so that each stop and shape is projected once rather than once per check (or per trip).
+ *
+ * Geometries are projected the first time they are asked for, or all at once, in parallel, by {@link #preload()}.
+ * Stops are always kept. Shapes are kept up to a total number of shape points, beyond which the least recently
+ * used shapes are evicted and will be projected again if they are needed.
+ *
+ * The cache may be used by several checks at once.
+ */
+public class ProjectedGeometryCache {
+
+	/** about 160MB of projected coordinates */
+	public static final long DEFAULT_MAX_SHAPE_POINTS = 10000000;
+
+	private GtfsRelationalDaoImpl gtfsDao;
+
+	private long maxShapePoints;
+
+	private ConcurrentHashMap<AgencyAndId, Geometry> stops = new ConcurrentHashMap<AgencyAndId, Geometry>();
+
+	/** shapes in access order, so that the eldest entry is the least recently used. Guarded by itself. */
+	private LinkedHashMap<AgencyAndId, Geometry> shapes = new LinkedHashMap<AgencyAndId, Geometry>(16, 0.75f, true);
+
+	private long cachedShapePoints = 0;
+
+	/** the DAO builds its shape point index the first time it is asked, which is not safe to do from several threads */
+	private Object shapePointLock = new Object();
+
+	public ProjectedGeometryCache(GtfsRelationalDaoImpl dao, long maxShapePoints) {
+		this.gtfsDao = dao;
+		this.maxShapePoints = maxShapePoints;
+	}
+
+	public ProjectedGeometryCache(GtfsRelationalDaoImpl dao) {
+		this(dao, DEFAULT_MAX_SHAPE_POINTS);
+	}
+
+	/**
+	 * @return the projected point of a stop
+	 * @throws IllegalArgumentException if the stop's coordinates cannot be projected
+	 */
+	public Geometry getStopGeometry(Stop stop) throws IllegalArgumentException {
+		Geometry geom = stops.get(stop.getId());
+
+		if (geom == null) {
+			geom = GeoUtils.getGeometryFromCoordinate(stop.getLat(), stop.getLon());
+			stops.put(stop.getId(), geom);
+		}
+
+		return geom;
+	}
+
+	/**
+	 * @return the projected line of a shape, with its points in sequence order
+	 * @throws IllegalArgumentException if the shape cannot be projected
+	 */
+	public Geometry getShapeGeometry(AgencyAndId shapeId) throws IllegalArgumentException {
+		Geometry geom;
+
+		synchronized (shapes) {
+			geom = shapes.get(shapeId);
+		}
+
+		if (geom != null)
+			return geom;
+
+		List<ShapePoint> shapePoints;
+		synchronized (shapePointLock) {
+			shapePoints = gtfsDao.getShapePointsForShapeId(shapeId);
+		}
+
+		// project outside the lock; if two checks want the same shape at once it is projected twice, which is harmless
+		geom = GeoUtils.getGeomFromShapePoints(shapePoints);
+
+		synchronized (shapes) {
+			if (geom.getNumPoints() <= maxShapePoints) {
+				Geometry previous = shapes.put(shapeId, geom);
+				if (previous != null)
+					cachedShapePoints -= previous.getNumPoints();
+				cachedShapePoints += geom.getNumPoints();
+
+				Iterator<Map.Entry<AgencyAndId, Geometry>> eldest = shapes.entrySet().iterator();
+				while (cachedShapePoints > maxShapePoints) {
+					cachedShapePoints -= eldest.next().getValue().getNumPoints();
+					eldest.remove();
+				}
+			}
+		}
+
+		return geom;
+	}
+
+	/**
+	 * @return the IDs of all of the shapes in the feed
+	 */
+	public List<AgencyAndId> getShapeIds() {
+		synchronized (shapePointLock) {
+			return gtfsDao.getAllShapeIds();
+		}
+	}
+
+	/**
+	 * Project every stop and as many shapes as will fit in the cache, in parallel.
+	 * Stops and shapes that cannot be projected are skipped; the checks that use them will report them.
+	 */
+	public void preload() {
+		gtfsDao.getAllStops().parallelStream().forEach(stop -> {
+			try {
+				getStopGeometry(stop);
+			} catch (IllegalArgumentException e) {
+				// reported by the checks
+			}
+		});
+
+		getShapeIds().parallelStream().forEach(shapeId -> {
+			if (isFull())
+				return;
+
+			try {
+				getShapeGeometry(shapeId);
+			} catch (IllegalArgumentException e) {
+				// reported by the checks
+			}
+		});
+	}
+
+	/**
+	 * @return the number of shape points currently held in the cache
+	 */
+	public long getCachedShapePoints() {
+		synchronized (shapes) {
+			return cachedShapePoints;
+		}
+	}
+
+	private boolean isFull() {
+		return getCachedShapePoints() >= maxShapePoints;
+	}
+}
@@ -0,0 +1,67 @@
+package com.conveyal.gtfs.service;
+
+/**
+ * Finds every pair of projected points that are within a given distance of one another.
+ *
+ * The points are held in a {@link PointIndex}, and each point's neighbors are found by querying the index with
+ * a square around the point, then testing the distance to each candidate directly. Points are identified by their
+ * index in the coordinate arrays. Each unordered pair is reported once, from its lower index: when a point is
+ * queried, candidates with a lower index are skipped, since that pair was already tested when the other point was.
+ */
+public class ProximityJoin {
+
+	/** Receives the pairs found by a join */
+	public interface PairVisitor {
+		/**
+		 * Called once for each pair of points within the distance, with point1 < point2.
+		 */
+		public void visit(int point1, int point2, double distance);
+	}
+
+	private double[] x;
+	private double[] y;
+
+	private PointIndex index;
+
+	/**
+	 * Join a set of projected points using an existing index of them.
+	 */
+	public ProximityJoin(double[] x, double[] y, PointIndex index) {
+		if (x.length != y.length)
+			throw new IllegalArgumentException("Coordinate arrays are different lengths");
+
+		this.x = x;
+		this.y = y;
+		this.index = index;
+	}
+
+	/**
+	 * Index a set of projected points in an STRtree. Points with a NaN coordinate are left out.
+	 */
+	public ProximityJoin(double[] x, double[] y) {
+		this(x, y, new StrTreePointIndex(x, y));
+	}
+
+	/**
+	 * Find every pair of points that are no more than maxDistance apart.
+	 */
+	public void findPairs(double maxDistance, PairVisitor visitor) {
+		for (int i = 0; i < x.length; i++) {
+			if (Double.isNaN(x[i]) || Double.isNaN(y[i]))
+				continue;
+
+			final int point = i;
+			index.query(x[i], y[i], maxDistance, candidate -> {
+				if (candidate <= point)
+					return;
+
+				double dx = x[candidate] - x[point];
+				double dy = y[candidate] - y[point];
+				double distance = Math.sqrt(dx * dx + dy * dy);
+
+				if (distance <= maxDistance)
+					visitor.visit(point, candidate, distance);
+			});
+		}
+	}
+}
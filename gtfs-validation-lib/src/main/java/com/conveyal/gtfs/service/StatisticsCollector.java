@@ -0,0 +1,262 @@
+package com.conveyal.gtfs.service;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+import com.conveyal.gtfs.model.FeedStatistics;
+import com.conveyal.gtfs.model.Statistic;
+import com.conveyal.gtfs.model.TripIndex;
+
+/**
+ * Accumulates the statistics of a feed, and of each agency in it, as entities are added to it.
+ *
+ * Each table only needs to be read once, however many agencies there are. A collector is not safe to use from
+ * several threads at once, but collectors can be merged, so each thread can fill its own and the results be
+ * combined; {@link #collect} does this with a parallel stream over each table.
+ *
+ * Routes and trips belong to the agency of their route, stop times to the agency of their trip's route, and
+ * stops, calendars and calendar dates to the agency of their ID.
+ */
+public class StatisticsCollector {
+
+	private int agencyCount;
+	private Totals feed = new Totals();
+	private HashMap<String, Totals> agencies = new HashMap<String, Totals>();
+
+	private double minLon = Double.POSITIVE_INFINITY;
+	private double minLat = Double.POSITIVE_INFINITY;
+	private double maxLon = Double.NEGATIVE_INFINITY;
+	private double maxLat = Double.NEGATIVE_INFINITY;
+
+	/** the counts and date ranges of the feed, or of one agency */
+	private static class Totals {
+		int routeCount;
+		int tripCount;
+		int stopCount;
+		int stopTimeCount;
+		Date calendarServiceStart;
+		Date calendarServiceEnd;
+		Date calendarStartDate;
+		Date calendarEndDate;
+
+		void merge(Totals other) {
+			routeCount += other.routeCount;
+			tripCount += other.tripCount;
+			stopCount += other.stopCount;
+			stopTimeCount += other.stopTimeCount;
+			calendarServiceStart = earliest(calendarServiceStart, other.calendarServiceStart);
+			calendarServiceEnd = latest(calendarServiceEnd, other.calendarServiceEnd);
+			calendarStartDate = earliest(calendarStartDate, other.calendarStartDate);
+			calendarEndDate = latest(calendarEndDate, other.calendarEndDate);
+		}
+
+		Statistic toStatistic() {
+			Statistic s = new Statistic();
+			s.setRouteCount(routeCount);
+			s.setTripCount(tripCount);
+			s.setStopCount(stopCount);
+			s.setStopTimeCount(stopTimeCount);
+			s.setCalendarServiceStart(calendarServiceStart);
+			s.setCalendarServiceEnd(calendarServiceEnd);
+			s.setCalendarStartDate(calendarStartDate);
+			s.setCalendarEndDate(calendarEndDate);
+			return s;
+		}
+	}
+
+	public void addAgency(Agency agency) {
+		agencyCount++;
+		agency(agency.getId());
+	}
+
+	public void addRoute(Route route) {
+		feed.routeCount++;
+		Totals agency = agency(route);
+		if (agency != null)
+			agency.routeCount++;
+	}
+
+	public void addTrip(Trip trip) {
+		feed.tripCount++;
+		Totals agency = agency(trip.getRoute());
+		if (agency != null)
+			agency.tripCount++;
+	}
+
+	public void addStop(Stop stop) {
+		feed.stopCount++;
+		Totals agency = agency(stop.getId());
+		if (agency != null)
+			agency.stopCount++;
+
+		minLon = Math.min(minLon, stop.getLon());
+		minLat = Math.min(minLat, stop.getLat());
+		maxLon = Math.max(maxLon, stop.getLon());
+		maxLat = Math.max(maxLat, stop.getLat());
+	}
+
+	public void addStopTime(StopTime stopTime) {
+		feed.stopTimeCount++;
+		Totals agency = stopTime.getTrip() == null ? null : agency(stopTime.getTrip().getRoute());
+		if (agency != null)
+			agency.stopTimeCount++;
+	}
+
+	/**
+	 * Add the stop times of a trip all at once, for a feed whose stop times are only held in a trip index.
+	 */
+	public void addStopTimes(Trip trip, int count) {
+		feed.stopTimeCount += count;
+		Totals agency = trip == null ? null : agency(trip.getRoute());
+		if (agency != null)
+			agency.stopTimeCount += count;
+	}
+
+	public void addCalendar(ServiceCalendar calendar) {
+		Date start = calendar.getStartDate().getAsDate();
+		Date end = calendar.getEndDate().getAsDate();
+
+		feed.calendarServiceStart = earliest(feed.calendarServiceStart, start);
+		feed.calendarServiceEnd = latest(feed.calendarServiceEnd, end);
+
+		Totals agency = agency(calendar.getServiceId());
+		if (agency != null) {
+			agency.calendarServiceStart = earliest(agency.calendarServiceStart, start);
+			agency.calendarServiceEnd = latest(agency.calendarServiceEnd, end);
+		}
+	}
+
+	public void addCalendarDate(ServiceCalendarDate calendarDate) {
+		Date date = calendarDate.getDate().getAsDate();
+
+		feed.calendarStartDate = earliest(feed.calendarStartDate, date);
+		feed.calendarEndDate = latest(feed.calendarEndDate, date);
+
+		Totals agency = agency(calendarDate.getServiceId());
+		if (agency != null) {
+			agency.calendarStartDate = earliest(agency.calendarStartDate, date);
+			agency.calendarEndDate = latest(agency.calendarEndDate, date);
+		}
+	}
+
+	/**
+	 * Add everything another collector has accumulated to this one.
+	 */
+	public void merge(StatisticsCollector other) {
+		agencyCount += other.agencyCount;
+		feed.merge(other.feed);
+
+		for (Map.Entry<String, Totals> agency : other.agencies.entrySet()) {
+			agency(agency.getKey()).merge(agency.getValue());
+		}
+
+		minLon = Math.min(minLon, other.minLon);
+		minLat = Math.min(minLat, other.minLat);
+		maxLon = Math.max(maxLon, other.maxLon);
+		maxLat = Math.max(maxLat, other.maxLat);
+	}
+
+	/**
+	 * @return a snapshot of the statistics accumulated so far
+	 */
+	public FeedStatistics getStatistics() {
+		Statistic feedStatistic = feed.toStatistic();
+
+		if (feed.stopCount > 0)
+			feedStatistic.setBounds(new Rectangle2D.Double(minLon, minLat, maxLon - minLon, maxLat - minLat));
+
+		HashMap<String, Statistic> agencyStatistics = new HashMap<String, Statistic>();
+		for (Map.Entry<String, Totals> agency : agencies.entrySet()) {
+			agencyStatistics.put(agency.getKey(), agency.getValue().toStatistic());
+		}
+
+		return new FeedStatistics(feedStatistic, agencyCount, agencyStatistics);
+	}
+
+	/**
+	 * Compute the statistics of a feed, reading each table once, in parallel.
+	 */
+	public static FeedStatistics collect(GtfsRelationalDaoImpl dao) {
+		StatisticsCollector collector = collectAllButStopTimes(dao);
+		collector.merge(collect(dao.getAllStopTimes(), StatisticsCollector::addStopTime));
+		return collector.getStatistics();
+	}
+
+	/**
+	 * Compute the statistics of a feed whose stop times are in a trip index, and not in the DAO.
+	 */
+	public static FeedStatistics collect(GtfsRelationalDaoImpl dao, TripIndex tripIndex) {
+		StatisticsCollector collector = collectAllButStopTimes(dao);
+		for (int trip = 0; trip < tripIndex.getTripCount(); trip++) {
+			collector.addStopTimes(tripIndex.getTrip(trip), tripIndex.getStopTimeCount(trip));
+		}
+		return collector.getStatistics();
+	}
+
+	private static StatisticsCollector collectAllButStopTimes(GtfsRelationalDaoImpl dao) {
+		StatisticsCollector collector = new StatisticsCollector();
+
+		collector.merge(collect(dao.getAllAgencies(), StatisticsCollector::addAgency));
+		collector.merge(collect(dao.getAllRoutes(), StatisticsCollector::addRoute));
+		collector.merge(collect(dao.getAllTrips(), StatisticsCollector::addTrip));
+		collector.merge(collect(dao.getAllStops(), StatisticsCollector::addStop));
+		collector.merge(collect(dao.getAllCalendars(), StatisticsCollector::addCalendar));
+		collector.merge(collect(dao.getAllCalendarDates(), StatisticsCollector::addCalendarDate));
+
+		return collector;
+	}
+
+	private static <T> StatisticsCollector collect(Collection<T> entities, BiConsumer<StatisticsCollector, T> add) {
+		return entities.parallelStream().collect(StatisticsCollector::new, add, StatisticsCollector::merge);
+	}
+
+	private Totals agency(String agencyId) {
+		if (agencyId == null)
+			return null;
+
+		Totals totals = agencies.get(agencyId);
+		if (totals == null) {
+			totals = new Totals();
+			agencies.put(agencyId, totals);
+		}
+		return totals;
+	}
+
+	private Totals agency(AgencyAndId id) {
+		return id == null ? null : agency(id.getAgencyId());
+	}
+
+	private Totals agency(Route route) {
+		return route == null || route.getAgency() == null ? null : agency(route.getAgency().getId());
+	}
+
+	private static Date earliest(Date a, Date b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		return b.before(a) ? b : a;
+	}
+
+	private static Date latest(Date a, Date b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		return b.after(a) ? b : a;
+	}
+}
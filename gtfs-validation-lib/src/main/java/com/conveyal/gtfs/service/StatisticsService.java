@@ -4,6 +4,7 @@ import java.awt.geom.Rectangle2D;
 import java.util.Date;
 import java.util.Optional;
 
+import com.conveyal.gtfs.model.FeedStatistics;
 import com.conveyal.gtfs.model.Statistic;
 
 /**
@@ -64,4 +65,9 @@ public interface StatisticsService {
 	Rectangle2D getBounds ();
 
 	Statistic getStatistic(String agencyId);
+
+	/**
+	 * @return the statistics of the feed and of each agency in it, computed together
+	 */
+	FeedStatistics getSnapshot();
 }
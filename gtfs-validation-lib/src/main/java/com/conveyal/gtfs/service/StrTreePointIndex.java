@@ -0,0 +1,39 @@
+package com.conveyal.gtfs.service;
+
+import java.util.function.IntConsumer;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * A PointIndex backed by a JTS STRtree.
+ */
+public class StrTreePointIndex implements PointIndex {
+
+	private STRtree index;
+
+	private Envelope search = new Envelope();
+
+	public StrTreePointIndex(double[] x, double[] y) {
+		if (x.length != y.length)
+			throw new IllegalArgumentException("Coordinate arrays are different lengths");
+
+		index = new STRtree();
+		for (int i = 0; i < x.length; i++) {
+			if (Double.isNaN(x[i]) || Double.isNaN(y[i]))
+				continue;
+
+			index.insert(new Envelope(x[i], x[i], y[i], y[i]), i);
+		}
+		index.build();
+	}
+
+	/**
+	 * Not safe to call from several threads at once, as the search envelope is reused.
+	 */
+	@Override
+	public void query(double x, double y, double radius, IntConsumer visitor) {
+		search.init(x - radius, x + radius, y - radius, y + radius);
+		index.query(search, item -> visitor.accept((Integer) item));
+	}
+}
@@ -0,0 +1,407 @@
+package com.conveyal.gtfs.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import org.onebusaway.csv_entities.exceptions.CsvEntityIOException;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.BlockInterval;
+import com.conveyal.gtfs.model.InvalidValue;
+import com.conveyal.gtfs.model.Priority;
+import com.conveyal.gtfs.model.StopTimeTable;
+import com.conveyal.gtfs.model.TripIndex;
+import com.conveyal.gtfs.model.ValidationResult;
+
+/**
+ * Validates a feed without holding all of its stop times and shape points in memory.
+ *
+ * OneBusAway reads the tables of a feed one at a time, with stops and trips before stop_times.txt. Everything
+ * but the stop times and shape points is kept as usual, in a GtfsRelationalDaoImpl. The stop times are checked
+ * as they are read, a batch of whole trips at a time, after which each trip is reduced to a few numbers: its
+ * number of stop times, the times and stops at either end of it, and its fingerprint. Shapes are reduced to their
+ * first and last points. So the memory needed grows with the number of trips, stops and shapes, and not with the
+ * number of stop times or shape points.
+ *
+ * The stop times of each trip must be together in stop_times.txt, although they may be in any order, as they are
+ * in nearly every feed. A trip is checked once the batch it is in is full, and if more of its stop times are read
+ * after that, {@link #load} throws an IllegalStateException, and the feed should be validated in memory instead.
+ * So it does if a stop time refers to a trip that is not in trips.txt.
+ *
+ * The checks of routes, stops and calendars only read the tables that are kept, so they are run as usual, by a
+ * GtfsValidationService or CalendarDateVerificationService given {@link #getContext()}. The checks of trips and
+ * reversed shapes are run by this class instead. Stops away from shapes need whole shapes, and are not checked.
+ */
+public class StreamingValidationService {
+
+	/** the default number of stop times checked at once */
+	public static final int BATCH_SIZE = 100000;
+
+	/** the number of stop times checked at once; a batch is only ended between trips, so may be a trip longer */
+	private int batchSize;
+
+	private StreamingDao dao = new StreamingDao();
+	private FeedContext context = new FeedContext(dao);
+
+	/** trips by ordinal, in the order of the DAO, followed by any that only stop_times.txt refers to */
+	private Trip[] trips;
+	private HashMap<AgencyAndId, Integer> tripOrdinals;
+	private int tripCount;
+
+	/** stops by ordinal, in the order of the DAO, followed by any that only stop_times.txt refers to */
+	private Stop[] stops;
+	private HashMap<AgencyAndId, Integer> stopOrdinals;
+	private int stopCount;
+
+	// the summary of each trip, by trip ordinal, once its stop times have been checked
+
+	private int[] stopTimeCounts;
+	private int[] firstDepartures;
+	private int[] firstArrivals;
+	private int[] lastDepartures;
+	private int[] firstStops;
+	private int[] lastStops;
+	private long[] fingerprints;
+
+	private BitSet checkedTrips = new BitSet();
+	private BitSet usedStops = new BitSet();
+	private int totalStopTimes;
+
+	/** a trip with stop times read after it was checked */
+	/** why the feed must be validated in memory instead, once that is known */
+	private String fallbackReason;
+
+	/** the problems found in the stop times of each trip */
+	private ValidationResult stopTimeProblems = new ValidationResult();
+
+	// the batch of trips whose stop times are being read
+
+	private StopTimeTable batch;
+	/** the trip ordinal of each trip in the batch */
+	private int[] batchTrips;
+	private int batchTripCount;
+	/** the position in the batch of each trip ordinal, or -1 if it is not in the batch */
+	private int[] batchOrdinals;
+
+	private HashMap<String, ShapePoint> firstShapePoint = new HashMap<String, ShapePoint>();
+	private HashMap<String, ShapePoint> lastShapePoint = new HashMap<String, ShapePoint>();
+
+	public StreamingValidationService(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public StreamingValidationService() {
+		this(BATCH_SIZE);
+	}
+
+	/**
+	 * Read a feed, checking its stop times as they are read.
+	 * @throws IllegalStateException if stop times of a trip are read after the trip has been checked, or a stop time
+	 * refers to a trip that is not in trips.txt
+	 */
+	public void load(File gtfs) throws IOException {
+		GtfsReader reader = new GtfsReader();
+		reader.setInputLocation(gtfs);
+		reader.setEntityStore(dao);
+
+		try {
+			reader.run();
+		} catch (CsvEntityIOException e) {
+			// OneBusAway wraps whatever is thrown while an entity is being saved
+			if (fallbackReason != null)
+				throw new IllegalStateException(fallbackReason, e);
+			throw e;
+		}
+
+		if (trips == null)
+			startStopTimes();
+		checkBatch();
+		batch = null;
+		batchTrips = null;
+		batchOrdinals = null;
+	}
+
+	/** @return every table of the feed, except stop times and shape points */
+	public GtfsRelationalDaoImpl getDao() {
+		return dao;
+	}
+
+	/** @return the context of the feed, which the services that check the other tables should share */
+	public FeedContext getContext() {
+		return context;
+	}
+
+	/** @return the number of stop times read */
+	public int getStopTimeCount() {
+		return totalStopTimes;
+	}
+
+	/**
+	 * Run the checks of {@link GtfsValidationService#validateTrips(boolean)}, without reversed trip shapes, on the
+	 * trip summaries.
+	 */
+	public ValidationResult validateTrips() {
+
+		ValidationResult result = new ValidationResult();
+
+		result.append(stopTimeProblems);
+
+		// check for unused stops
+
+		for (Stop stop : dao.getAllStops()) {
+
+			String stopId = stop.getId().toString();
+			Integer stopOrdinal = stopOrdinals.get(stop.getId());
+
+			if (stopOrdinal == null || !usedStops.get(stopOrdinal)) {
+				result.add(new InvalidValue("stop", "stop_id", stopId, "UnusedStop", "Stop Id " + stopId + " is not used in any trips." , null, Priority.LOW));
+			}
+		}
+
+		HashMap<String, ArrayList<BlockInterval>> blockIntervals = new HashMap<String, ArrayList<BlockInterval>>();
+
+		// the stop times are gone, so trips are compared by fingerprint alone
+		TripFingerprint tripFingerprints = new TripFingerprint(tripCount);
+
+		for (Trip trip : dao.getAllTrips()) {
+
+			String tripId = trip.getId().toString();
+
+			int tripOrdinal = tripOrdinals.get(trip.getId());
+
+			if (stopTimeCounts[tripOrdinal] == 0) {
+				InvalidValue iv = new InvalidValue("trip", "trip_id", tripId, "NoStopTimesForTrip", "Trip Id " + tripId + " has no stop times." , null, Priority.HIGH);
+				iv.route = trip.getRoute();
+				result.add(iv);
+				continue;
+			}
+
+			GtfsValidationService.addBlockInterval(blockIntervals, trip, firstDepartures[tripOrdinal], firstArrivals[tripOrdinal], lastDepartures[tripOrdinal]);
+
+			int duplicateTrip = tripFingerprints.add(tripOrdinal, fingerprints[tripOrdinal]);
+
+			if (duplicateTrip >= 0) {
+				String duplicateTripId = trips[duplicateTrip].getId().toString();
+				InvalidValue iv =
+						new InvalidValue("trip", "trip_id", tripId, "DuplicateTrip", "Trip Ids " + duplicateTripId + " & " + tripId + " are duplicates" , null, Priority.LOW);
+				iv.route = trip.getRoute();
+				result.add(iv);
+			}
+		}
+
+		GtfsValidationService.validateBlocks(blockIntervals, context.getServiceCalendarIndex(), result);
+
+		return result;
+	}
+
+	public ValidationResult listReversedTripShapes() {
+		return listReversedTripShapes(1.0);
+	}
+
+	/**
+	 * Run the checks of {@link GtfsValidationService#listReversedTripShapes(Double)} on the trip summaries and the
+	 * ends of the shapes.
+	 */
+	public ValidationResult listReversedTripShapes(Double distanceMultiplier) {
+
+		ValidationResult result = new ValidationResult();
+
+		ProjectedGeometryCache geometryCache = context.getGeometryCache();
+
+		for (Trip trip : dao.getAllTrips()) {
+
+			int tripOrdinal = tripOrdinals.get(trip.getId());
+			Stop firstStop = null;
+			Stop lastStop = null;
+			if (stopTimeCounts[tripOrdinal] > 0) {
+				firstStop = getStop(firstStops[tripOrdinal]);
+				lastStop = getStop(lastStops[tripOrdinal]);
+			}
+
+			GtfsValidationService.validateTripShape(trip, firstStop, lastStop, firstShapePoint, lastShapePoint, geometryCache, distanceMultiplier, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Give every trip and stop read so far an ordinal, once the tables before stop_times.txt have been read.
+	 */
+	private void startStopTimes() {
+		trips = dao.getAllTrips().toArray(new Trip[0]);
+		tripOrdinals = new HashMap<AgencyAndId, Integer>(trips.length * 2);
+		for (Trip trip : trips) {
+			tripOrdinals.put(trip.getId(), tripCount++);
+		}
+
+		stops = dao.getAllStops().toArray(new Stop[0]);
+		stopOrdinals = new HashMap<AgencyAndId, Integer>(stops.length * 2);
+		for (Stop stop : stops) {
+			stopOrdinals.put(stop.getId(), stopCount++);
+		}
+
+		stopTimeCounts = new int[tripCount];
+		firstDepartures = new int[tripCount];
+		firstArrivals = new int[tripCount];
+		lastDepartures = new int[tripCount];
+		firstStops = new int[tripCount];
+		lastStops = new int[tripCount];
+		fingerprints = new long[tripCount];
+
+		batch = new StopTimeTable();
+		batchTrips = new int[1024];
+		batchOrdinals = new int[tripCount];
+		Arrays.fill(batchOrdinals, -1);
+	}
+
+	private void addStopTime(StopTime stopTime) {
+		if (trips == null)
+			startStopTimes();
+
+		int trip = getTripOrdinal(stopTime.getTrip());
+
+		if (checkedTrips.get(trip)) {
+			fallbackReason = "The stop times of trip " + stopTime.getTrip().getId() + " are not together in stop_times.txt";
+			throw new IllegalStateException(fallbackReason);
+		}
+
+		int position = batchOrdinals[trip];
+
+		if (position < 0) {
+			// only end a batch between trips, so that each trip is checked whole
+			if (batch.size() >= batchSize)
+				checkBatch();
+
+			if (batchTripCount == batchTrips.length)
+				batchTrips = Arrays.copyOf(batchTrips, batchTripCount * 2);
+
+			position = batchTripCount++;
+			batchTrips[position] = trip;
+			batchOrdinals[trip] = position;
+		}
+
+		batch.add(position, getStopOrdinal(stopTime.getStop()), stopTime.getStopSequence(), stopTime.getArrivalTime(), stopTime.getDepartureTime());
+		totalStopTimes++;
+	}
+
+	/**
+	 * Check the stop times of the trips in the batch, summarize the trips and empty the batch.
+	 */
+	private void checkBatch() {
+		if (batchTripCount == 0)
+			return;
+
+		Trip[] batchTripObjects = new Trip[batchTripCount];
+		for (int t = 0; t < batchTripCount; t++) {
+			batchTripObjects[t] = trips[batchTrips[t]];
+		}
+
+		// sorts the stop times of each trip by stop_sequence
+		TripIndex tripIndex = new TripIndex(batchTripObjects, stops, batch);
+
+		for (int t = 0; t < batchTripCount; t++) {
+			int trip = batchTrips[t];
+			int first = tripIndex.getStart(t);
+			int last = tripIndex.getEnd(t) - 1;
+
+			GtfsValidationService.validateStopTimes(tripIndex, t, batchTripObjects[t], stopTimeProblems);
+
+			stopTimeCounts[trip] = last - first + 1;
+			firstDepartures[trip] = tripIndex.getDepartureTime(first);
+			firstArrivals[trip] = tripIndex.getArrivalTime(first);
+			lastDepartures[trip] = tripIndex.getDepartureTime(last);
+			firstStops[trip] = tripIndex.getStopOrdinal(first);
+			lastStops[trip] = tripIndex.getStopOrdinal(last);
+			fingerprints[trip] = TripFingerprint.fingerprint(tripIndex, t);
+
+			for (int row = first; row <= last; row++) {
+				int stop = tripIndex.getStopOrdinal(row);
+				if (stop != StopTimeTable.NO_STOP)
+					usedStops.set(stop);
+			}
+
+			checkedTrips.set(trip);
+			batchOrdinals[trip] = -1;
+		}
+
+		batch = new StopTimeTable();
+		batchTripCount = 0;
+	}
+
+	private int getTripOrdinal(Trip trip) {
+		// OneBusAway resolves a trip_id that isn't in trips.txt to no trip at all
+		if (trip == null) {
+			fallbackReason = "A stop time refers to a trip that is not in trips.txt";
+			throw new IllegalStateException(fallbackReason);
+		}
+
+		Integer ordinal = tripOrdinals.get(trip.getId());
+		if (ordinal != null)
+			return ordinal;
+
+		// a trip that isn't in trips.txt
+		if (tripCount == trips.length) {
+			int capacity = tripCount * 2 + 1;
+			trips = Arrays.copyOf(trips, capacity);
+			stopTimeCounts = Arrays.copyOf(stopTimeCounts, capacity);
+			firstDepartures = Arrays.copyOf(firstDepartures, capacity);
+			firstArrivals = Arrays.copyOf(firstArrivals, capacity);
+			lastDepartures = Arrays.copyOf(lastDepartures, capacity);
+			firstStops = Arrays.copyOf(firstStops, capacity);
+			lastStops = Arrays.copyOf(lastStops, capacity);
+			fingerprints = Arrays.copyOf(fingerprints, capacity);
+			batchOrdinals = Arrays.copyOf(batchOrdinals, capacity);
+			Arrays.fill(batchOrdinals, tripCount, capacity, -1);
+		}
+
+		trips[tripCount] = trip;
+		tripOrdinals.put(trip.getId(), tripCount);
+		return tripCount++;
+	}
+
+	private int getStopOrdinal(Stop stop) {
+		if (stop == null)
+			return StopTimeTable.NO_STOP;
+
+		Integer ordinal = stopOrdinals.get(stop.getId());
+		if (ordinal != null)
+			return ordinal;
+
+		// a stop that isn't in stops.txt; keep it so that it can still be reported
+		if (stopCount == stops.length)
+			stops = Arrays.copyOf(stops, stopCount * 2 + 1);
+
+		stops[stopCount] = stop;
+		stopOrdinals.put(stop.getId(), stopCount);
+		return stopCount++;
+	}
+
+	private Stop getStop(int stopOrdinal) {
+		return stopOrdinal == StopTimeTable.NO_STOP ? null : stops[stopOrdinal];
+	}
+
+	/**
+	 * Keeps every entity but stop times and shape points, which are passed to the validator as they are read.
+	 */
+	private class StreamingDao extends GtfsRelationalDaoImpl {
+		@Override
+		public void saveEntity(Object entity) {
+			if (entity instanceof StopTime)
+				addStopTime((StopTime) entity);
+			else if (entity instanceof ShapePoint)
+				GtfsValidationService.addShapePoint(firstShapePoint, lastShapePoint, (ShapePoint) entity);
+			else
+				super.saveEntity(entity);
+		}
+	}
+}
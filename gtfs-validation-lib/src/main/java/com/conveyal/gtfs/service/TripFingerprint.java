@@ -0,0 +1,170 @@
+package com.conveyal.gtfs.service;
+
+import java.util.Arrays;
+
+import org.onebusaway.gtfs.model.Trip;
+
+import com.conveyal.gtfs.model.StopTimeTable;
+import com.conveyal.gtfs.model.TripIndex;
+
+/**
+ * Finds trips that duplicate an earlier trip: the same service ID and block ID, the same departure time from the
+ * first stop and arrival time at the last, and the same sequence of stops.
+ *
+ * Rather than build a string of all of these for each trip, each trip is reduced to a 64-bit fingerprint, and
+ * trips are held in an open-addressed hash table keyed by fingerprint. Only trips with the same fingerprint are
+ * compared in full, so two trips that collide without being duplicates are still told apart. The table holds
+ * a fingerprint and a trip ordinal for each trip, whatever the length of the trips.
+ *
+ * When the stop times are no longer at hand, as when they are streamed, trips can be added by fingerprint alone.
+ * Two such trips are then taken to be duplicates if their fingerprints are equal, which for trips that are not
+ * duplicates happens with a probability of about one in 2^64 per pair.
+ */
+public class TripFingerprint {
+
+	private static final int EMPTY = -1;
+
+	private TripIndex tripIndex;
+
+	/** open-addressed hash table from fingerprint to trip ordinal; the capacity is a power of two */
+	private long[] tableKeys;
+	private int[] tableTrips;
+	private int mask;
+
+	/**
+	 * Create an empty table with room for every trip in the index.
+	 */
+	public TripFingerprint(TripIndex tripIndex) {
+		this(tripIndex.getTripCount());
+		this.tripIndex = tripIndex;
+	}
+
+	/**
+	 * Create an empty table with room for tripCount trips, which are added with {@link #add(int, long)} and
+	 * compared by fingerprint alone.
+	 */
+	public TripFingerprint(int tripCount) {
+		int capacity = Integer.highestOneBit(Math.max(tripCount, 8) * 2 - 1) << 1;
+		tableKeys = new long[capacity];
+		tableTrips = new int[capacity];
+		Arrays.fill(tableTrips, EMPTY);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Add a trip to the table, unless it duplicates a trip already there. The trip must have stop times.
+	 * @return the ordinal of the earlier trip that this trip duplicates, or -1 if it is not a duplicate
+	 */
+	public int add(int trip) {
+		return add(trip, fingerprint(tripIndex, trip));
+	}
+
+	/**
+	 * Add a trip whose fingerprint has already been computed, unless it duplicates a trip already there.
+	 * Trips are only compared in full if this table was created with a trip index.
+	 * @return the ordinal of the earlier trip that this trip duplicates, or -1 if it is not a duplicate
+	 */
+	public int add(int trip, long key) {
+		// mix the bits so that similar fingerprints don't land in neighboring slots
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+
+		while (tableTrips[slot] != EMPTY) {
+			if (tableKeys[slot] == key && (tripIndex == null || isDuplicate(tripIndex, tableTrips[slot], trip)))
+				return tableTrips[slot];
+
+			slot = (slot + 1) & mask;
+		}
+
+		tableKeys[slot] = key;
+		tableTrips[slot] = trip;
+		return -1;
+	}
+
+	/**
+	 * @return a 64-bit hash of the fields that make a trip a duplicate of another
+	 */
+	public static long fingerprint(TripIndex tripIndex, int trip) {
+		Trip t = tripIndex.getTrip(trip);
+		int first = tripIndex.getStart(trip);
+		int last = tripIndex.getEnd(trip) - 1;
+
+		long h = 0;
+		h = hash(h, t.getServiceId().getId());
+		h = hash(h, blockId(t));
+		h = hash(h, tripIndex.getDepartureTime(first));
+		h = hash(h, tripIndex.getArrivalTime(last));
+
+		for (int row = first; row <= last; row++) {
+			int stop = stopOrdinal(tripIndex, row);
+			if (stop != StopTimeTable.NO_STOP)
+				h = hash(h, stop);
+		}
+
+		// finalize, so that every bit of the input affects every bit of the fingerprint
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Compare two trips in full.
+	 * @return true if the trips have the same service ID, block ID, first departure, last arrival and stops
+	 */
+	public static boolean isDuplicate(TripIndex tripIndex, int trip1, int trip2) {
+		Trip t1 = tripIndex.getTrip(trip1);
+		Trip t2 = tripIndex.getTrip(trip2);
+
+		if (!t1.getServiceId().getId().equals(t2.getServiceId().getId()) || !blockId(t1).equals(blockId(t2)))
+			return false;
+
+		int first1 = tripIndex.getStart(trip1), last1 = tripIndex.getEnd(trip1) - 1;
+		int first2 = tripIndex.getStart(trip2), last2 = tripIndex.getEnd(trip2) - 1;
+
+		if (tripIndex.getDepartureTime(first1) != tripIndex.getDepartureTime(first2)
+				|| tripIndex.getArrivalTime(last1) != tripIndex.getArrivalTime(last2))
+			return false;
+
+		// compare the stops, skipping stop times without one
+		int row1 = first1, row2 = first2;
+		while (true) {
+			while (row1 <= last1 && stopOrdinal(tripIndex, row1) == StopTimeTable.NO_STOP)
+				row1++;
+			while (row2 <= last2 && stopOrdinal(tripIndex, row2) == StopTimeTable.NO_STOP)
+				row2++;
+
+			if (row1 > last1 || row2 > last2)
+				return row1 > last1 && row2 > last2;
+
+			if (stopOrdinal(tripIndex, row1++) != stopOrdinal(tripIndex, row2++))
+				return false;
+		}
+	}
+
+	/** @return the stop ordinal of a row, or NO_STOP if it has no stop or the stop has no ID */
+	private static int stopOrdinal(TripIndex tripIndex, int row) {
+		int stop = tripIndex.getStopOrdinal(row);
+		if (stop == StopTimeTable.NO_STOP || tripIndex.getStopForOrdinal(stop).getId() == null)
+			return StopTimeTable.NO_STOP;
+		return stop;
+	}
+
+	private static String blockId(Trip trip) {
+		return trip.getBlockId() == null ? "" : trip.getBlockId();
+	}
+
+	private static long hash(long h, long value) {
+		return (h ^ value) * 0x100000001b3L + 0x9E3779B97F4A7C15L;
+	}
+
+	private static long hash(long h, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			h = hash(h, value.charAt(i));
+		}
+		// the length, so that "ab" + "c" differs from "a" + "bc"
+		return hash(h, value.length());
+	}
+}
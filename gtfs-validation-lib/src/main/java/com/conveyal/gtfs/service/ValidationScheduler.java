@@ -0,0 +1,120 @@
+package com.conveyal.gtfs.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+import com.conveyal.gtfs.model.ValidationResult;
+
+/**
+ * Runs independent validation checks concurrently on a fork-join pool.
+ *
+ * Checks are identified by name. Submitting a name that has already been submitted returns the
+ * existing task rather than running the check again, so callers that need the result of a check
+ * can simply submit it and join. The wall-clock time of each check is recorded when it completes.
+ *
+ * Checks must not modify the feed they are validating; they share it with every other check
+ * running at the same time.
+ */
+public class ValidationScheduler {
+
+	private ForkJoinPool pool;
+
+	private ConcurrentHashMap<String, ForkJoinTask<ValidationResult>> tasks =
+			new ConcurrentHashMap<String, ForkJoinTask<ValidationResult>>();
+
+	/** names in the order they were first submitted, so that timings can be reported in a stable order */
+	private List<String> names = new ArrayList<String>();
+
+	private ConcurrentHashMap<String, Long> timings = new ConcurrentHashMap<String, Long>();
+
+	public ValidationScheduler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Create a scheduler that runs checks on the common fork-join pool.
+	 */
+	public ValidationScheduler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Start running a check, unless a check with the same name has already been submitted.
+	 * @return the task running the check with this name
+	 */
+	public ForkJoinTask<ValidationResult> submit(String name, Supplier<ValidationResult> check) {
+		return tasks.computeIfAbsent(name, n -> {
+			synchronized (names) {
+				names.add(n);
+			}
+			return pool.submit(ForkJoinTask.adapt(() -> {
+				long start = System.currentTimeMillis();
+				try {
+					return check.get();
+				} finally {
+					timings.put(n, System.currentTimeMillis() - start);
+				}
+			}));
+		});
+	}
+
+	/**
+	 * Wait for the named check to finish and return its result.
+	 * Any exception thrown by the check is rethrown here.
+	 */
+	public ValidationResult get(String name) {
+		ForkJoinTask<ValidationResult> task = tasks.get(name);
+
+		if (task == null)
+			throw new IllegalArgumentException("No check named " + name + " has been submitted");
+
+		return task.join();
+	}
+
+	/**
+	 * Wait for every submitted check to finish.
+	 */
+	public void awaitAll() {
+		for (String name : getNames()) {
+			get(name);
+		}
+	}
+
+	/**
+	 * @return the wall-clock time in milliseconds taken by each completed check, in the order the checks were submitted.
+	 */
+	public Map<String, Long> getTimings() {
+		Map<String, Long> ret = new LinkedHashMap<String, Long>();
+		for (String name : getNames()) {
+			Long time = timings.get(name);
+			if (time != null)
+				ret.put(name, time);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return a one-line summary of the time taken by each completed check, e.g. "routes 12ms, trips 340ms"
+	 */
+	public String formatTimings() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> timing : getTimings().entrySet()) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(timing.getKey()).append(' ').append(timing.getValue()).append("ms");
+		}
+		return sb.toString();
+	}
+
+	private List<String> getNames() {
+		synchronized (names) {
+			return new ArrayList<String>(names);
+		}
+	}
+}
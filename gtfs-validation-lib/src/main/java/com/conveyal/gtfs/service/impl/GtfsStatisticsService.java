@@ -1,27 +1,20 @@
 package com.conveyal.gtfs.service.impl;
 
-import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.time.Duration;
 import java.time.ZoneId;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Optional;
-import java.util.TimeZone;
 
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
-import org.onebusaway.gtfs.impl.calendar.CalendarServiceDataFactoryImpl;
 import org.onebusaway.gtfs.model.Agency;
-import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.ServiceCalendar;
 import org.onebusaway.gtfs.model.ServiceCalendarDate;
-import org.onebusaway.gtfs.model.Stop;
-import org.onebusaway.gtfs.model.StopTime;
-import org.onebusaway.gtfs.model.Trip;
-import org.onebusaway.gtfs.services.calendar.CalendarService;
 
+import com.conveyal.gtfs.model.FeedStatistics;
 import com.conveyal.gtfs.model.Statistic;
+import com.conveyal.gtfs.service.FeedContext;
 import com.conveyal.gtfs.service.StatisticsService;
 
 /**
@@ -30,10 +23,25 @@ import com.conveyal.gtfs.service.StatisticsService;
  */
 public class GtfsStatisticsService implements StatisticsService {
 
+	private FeedContext context = null;
 	private GtfsRelationalDaoImpl gtfsDao = null;
+
 	public GtfsStatisticsService(GtfsRelationalDaoImpl dao) {
-		gtfsDao = dao;
+		this(new FeedContext(dao));
 		}
+
+	public GtfsStatisticsService(FeedContext context) {
+		this.context = context;
+		gtfsDao = context.getDao();
+	}
+
+	/**
+	 * Get the statistics of the feed and of each of its agencies, computing them all in one pass over each table
+	 * the first time they are needed by any service sharing the context. The per-agency methods all use this snapshot.
+	 */
+	public FeedStatistics getSnapshot() {
+		return context.getStatistics();
+	}
 	
 	public Integer getAgencyCount() {
 		return gtfsDao.getAllAgencies().size();
@@ -52,7 +60,7 @@ public class GtfsStatisticsService implements StatisticsService {
 	}
 
 	public Integer getStopTimesCount() {
-		return gtfsDao.getAllStopTimes().size();
+		return context.getStopTimeCount();
 	}
 
 	// calendar date range start/end assume a service calendar based schedule
@@ -127,106 +135,35 @@ public class GtfsStatisticsService implements StatisticsService {
 	}
 
 	public Integer getRouteCount(String agencyId) {
-		int count = 0;
-		Collection<Route> routes = gtfsDao.getAllRoutes();
-		for (Route route : routes) {
-			if (agencyId.equals(route.getAgency().getId())) {
-				count++;
-			}
-		}
-		return count;
+		return getSnapshot().getStatistic(agencyId).getRouteCount();
 	}
 
 	public Integer getTripCount(String agencyId) {
-		int count = 0;
-		Collection<Trip> trips = gtfsDao.getAllTrips();
-		for (Trip trip : trips) {
-			if (agencyId.equals(trip.getRoute().getAgency().getId())) {
-				count++;
-			}
-		}
-		return count;
+		return getSnapshot().getStatistic(agencyId).getTripCount();
 	}
 
 	public Integer getStopCount(String agencyId) {
-		int count = 0;
-		Collection<Stop> stops = gtfsDao.getAllStops();
-		for (Stop stop : stops) {
-			AgencyAndId id = stop.getId();
-			if (agencyId.equals(id.getAgencyId())) {
-				count++;
-			}
-		}
-		return count;
+		return getSnapshot().getStatistic(agencyId).getStopCount();
 	}
 
 	public Integer getStopTimesCount(String agencyId) {
-		int count = 0;
-		Collection<StopTime> stopTimes = gtfsDao.getAllStopTimes();
-		for (StopTime stopTime : stopTimes) {
-			if (agencyId.equals(stopTime.getTrip().getRoute().getAgency().getId())) {
-				count++;
-			}
-		}
-		return count;
+		return getSnapshot().getStatistic(agencyId).getStopTimeCount();
 	}
 
 	public Date getCalendarServiceRangeStart(String agencyId) {
-
-		Date startDate = null;
-
-		for (ServiceCalendar serviceCalendar : gtfsDao.getAllCalendars()) {
-			if (agencyId.equals(serviceCalendar.getServiceId().getAgencyId())) {
-				if (startDate == null
-						|| serviceCalendar.getStartDate().getAsDate().before(startDate))
-					startDate = serviceCalendar.getStartDate().getAsDate();
-			}
-		}
-
-		return startDate;
-
+		return getSnapshot().getStatistic(agencyId).getCalendarServiceStart();
 	}
 
 	public Date getCalendarServiceRangeEnd(String agencyId) {
-		Date endDate = null;
-		for (ServiceCalendar serviceCalendar : gtfsDao.getAllCalendars()) {
-			if (agencyId.equals(serviceCalendar.getServiceId().getAgencyId())) {
-				if (endDate == null
-						|| serviceCalendar.getEndDate().getAsDate().after(endDate))
-					endDate = serviceCalendar.getEndDate().getAsDate();
-			}
-		}
-
-		return endDate;
+		return getSnapshot().getStatistic(agencyId).getCalendarServiceEnd();
 	}
 
 	public Date getCalendarDateStart(String agencyId) {
-
-		Date startDate = null;
-
-		for (ServiceCalendarDate serviceCalendarDate : gtfsDao.getAllCalendarDates()) {
-			if (agencyId.equals(serviceCalendarDate.getServiceId().getAgencyId())) {
-				if (startDate == null
-						|| serviceCalendarDate.getDate().getAsDate().before(startDate))
-					startDate = serviceCalendarDate.getDate().getAsDate();
-			}
-		}
-
-		return startDate;
-
+		return getSnapshot().getStatistic(agencyId).getCalendarStartDate();
 	}
 
 	public Date getCalendarDateEnd(String agencyId) {
-		Date endDate = null;
-		for (ServiceCalendarDate serviceCalendarDate : gtfsDao.getAllCalendarDates()) {
-			if (agencyId.equals(serviceCalendarDate.getServiceId().getAgencyId())) {
-				if (endDate == null
-						|| serviceCalendarDate.getDate().getAsDate().after(endDate))
-					endDate = serviceCalendarDate.getDate().getAsDate();
-			}
-		}
-
-		return endDate;
+		return getSnapshot().getStatistic(agencyId).getCalendarEndDate();
 	}
   
   /**
@@ -235,34 +172,11 @@ public class GtfsStatisticsService implements StatisticsService {
    * Note that stops do not have agencies in GTFS.
    */
   public Rectangle2D getBounds () {
-      Rectangle2D ret = null;
-      
-      for (Stop stop : gtfsDao.getAllStops()) {
-          if (ret == null) {
-              ret = new Rectangle2D.Double(stop.getLon(), stop.getLat(), 0, 0);
-          }
-          else {
-              ret.add(new Point2D.Double(stop.getLon(), stop.getLat()));
-          }
-      }
-  
-      return ret;
+      return context.getBounds();
   }
 
 	public Statistic getStatistic(String agencyId) {
-		Statistic gs = new Statistic();
-		gs.setAgencyId(agencyId);
-		gs.setRouteCount(getRouteCount(agencyId));
-		gs.setTripCount(getTripCount(agencyId));
-		gs.setStopCount(getStopCount(agencyId));
-		gs.setStopTimeCount(getStopTimesCount(agencyId));
-		gs.setCalendarStartDate(getCalendarDateStart(agencyId));
-		gs.setCalendarEndDate(getCalendarDateEnd(agencyId));
-		gs.setCalendarServiceStart(getCalendarServiceRangeStart(agencyId));
-		gs.setCalendarServiceEnd(getCalendarServiceRangeEnd(agencyId));
-    gs.setBounds(getBounds());
-
-		return gs;
+		return getSnapshot().getStatistic(agencyId);
 	}
 
 	public String getStatisticAsCSV(String agencyId) {
@@ -294,9 +208,7 @@ public class GtfsStatisticsService implements StatisticsService {
 	}
 	
 	private ZoneId getTimeZone(){
-		CalendarService calendarService = CalendarServiceDataFactoryImpl.createService(gtfsDao);
-		TimeZone tz = calendarService.getTimeZoneForAgencyId(gtfsDao.getAllAgencies().iterator().next().getId());
-		return tz.toZoneId();
+		return context.getTimeZone().toZoneId();
 	}
 /**
  * A convenience method primarily written for pre-allocating objects of a reasonable size.
@@ -12,13 +12,17 @@ import java.util.logging.Logger;
 
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.model.Agency;
-import org.onebusaway.gtfs.serialization.GtfsReader;
 
 import com.conveyal.gtfs.model.InvalidValue;
 import com.conveyal.gtfs.model.ValidationResult;
 import com.conveyal.gtfs.service.CalendarDateVerificationService;
+import com.conveyal.gtfs.service.FeedContext;
+import com.conveyal.gtfs.service.FeedLoader;
+import com.conveyal.gtfs.service.GeoUtils;
 import com.conveyal.gtfs.service.GtfsValidationService;
 import com.conveyal.gtfs.service.StatisticsService;
+import com.conveyal.gtfs.service.StreamingValidationService;
+import com.conveyal.gtfs.service.ValidationScheduler;
 import com.conveyal.gtfs.service.impl.GtfsStatisticsService;
 
 /**
@@ -28,8 +32,11 @@ import com.conveyal.gtfs.service.impl.GtfsStatisticsService;
  */
 public class ValidatorMain {
 	public static void main(String[] args) {
-		if (args.length != 1) {
-			System.err.println("Usage: gtfs-validator /path/to/gtfs.zip");
+		boolean streaming = args.length == 2 && "--streaming".equals(args[0]);
+
+		if (args.length != 1 && !streaming) {
+			System.err.println("Usage: gtfs-validator [--streaming] /path/to/gtfs.zip");
+			System.err.println("  --streaming  check stop times as they are read, rather than reading the whole feed into memory first");
 			System.exit(-1);
 		}
 		
@@ -40,22 +47,31 @@ public class ValidatorMain {
 			handler.setLevel(Level.OFF);
 		}
 		
-		File inputGtfs = new File(args[0]);
+		File inputGtfs = new File(args[args.length - 1]);
 		
 		System.err.println("Reading GTFS from " + inputGtfs.getPath());
 		
-		GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
-		
-		GtfsReader reader = new GtfsReader();
+		StreamingValidationService streamingService;
+		FeedLoader loader = null;
+		GtfsRelationalDaoImpl dao;
 		
 		try {
-			reader.setInputLocation(inputGtfs);
-			reader.setEntityStore(dao);
-			reader.run();
+			streamingService = streaming ? loadStreaming(inputGtfs) : null;
+
+			if (streamingService != null) {
+				dao = streamingService.getDao();
+			}
+			else {
+				// stop times and shapes are parsed without OneBusAway, unless they cannot be
+				loader = new FeedLoader(inputGtfs);
+				loader.load();
+				dao = loader.getDao();
+			}
 		} catch (IOException e) {
 			System.err.println("Could not read file " + inputGtfs.getPath() +
 					"; does it exist and is it readable?");
 			System.exit(-1);
+			return;
 		}
 
 		System.err.println("Read GTFS");
@@ -65,25 +81,50 @@ public class ValidatorMain {
 			System.exit(-1);
 		}
 				
-		GtfsValidationService validationService = new GtfsValidationService(dao);
+		// everything derived from the feed is built once and shared by the services below
+		FeedContext context = streamingService != null ? streamingService.getContext() : loader.getContext();
+
+		GtfsValidationService validationService = new GtfsValidationService(context);
 			
-		CalendarDateVerificationService calendarDateVerService = new CalendarDateVerificationService(dao);
+		CalendarDateVerificationService calendarDateVerService = new CalendarDateVerificationService(context);
+		
+		// the checks are independent, so run them all at once
+		System.err.println("Validating routes, trips, stops, shapes and dates");
+		// create the projections up front rather than in every check that needs them at once
+		GeoUtils.warmUp(context.getBounds());
+		// stops, reversed shapes and stops away from shapes all use the same projected stops and shapes
+		validationService.getGeometryCache().preload();
+		ValidationScheduler scheduler = new ValidationScheduler();
+		scheduler.submit("routes", validationService::validateRoutes);
+		// reversed shapes are reported with both trips and shapes, but only need to be found once
+		if (streamingService != null) {
+			// the stop times and shapes are gone, so there is not enough left to find stops away from shapes
+			scheduler.submit("trips", streamingService::validateTrips);
+			scheduler.submit("reversedShapes", streamingService::listReversedTripShapes);
+		}
+		else {
+			scheduler.submit("trips", () -> validationService.validateTrips(false));
+			scheduler.submit("reversedShapes", validationService::listReversedTripShapes);
+			scheduler.submit("stopsAwayFromShape", () -> validationService.listStopsAwayFromShape(130.0));
+		}
+		scheduler.submit("stops", validationService::duplicateStops);
+		scheduler.submit("dates", calendarDateVerService::getCalendarProblems);
 		
-		System.err.println("Validating routes");
-		ValidationResult routes = validationService.validateRoutes();
+		ValidationResult routes = scheduler.get("routes");
 		
-		System.err.println("Validating trips");
-		ValidationResult trips = validationService.validateTrips();
+		ValidationResult trips = scheduler.get("trips");
+		trips.append(scheduler.get("reversedShapes"));
 		
-		System.err.println("Checking for duplicate stops");
-		ValidationResult stops = validationService.duplicateStops();
+		ValidationResult stops = scheduler.get("stops");
 		
-		System.err.println("Checking for problems with shapes");
-		ValidationResult shapes = validationService.listReversedTripShapes();
-		shapes.append(validationService.listStopsAwayFromShape(130.0));
+		ValidationResult shapes = new ValidationResult();
+		shapes.append(scheduler.get("reversedShapes"));
+		if (streamingService == null)
+			shapes.append(scheduler.get("stopsAwayFromShape"));
 		
-		System.err.println("Checking for dates with no trips");
-		ValidationResult dates = calendarDateVerService.getCalendarProblems(); 
+		ValidationResult dates = scheduler.get("dates");
+		
+		System.err.println("Validated: " + scheduler.formatTimings());
 		
 		System.err.println("Calculating statistics");
 		
@@ -113,13 +154,13 @@ public class ValidatorMain {
 		
 		// generate and display feed statistics
 		System.out.println("## Feed statistics");
-		StatisticsService stats = new GtfsStatisticsService(dao);
+		StatisticsService stats = new GtfsStatisticsService(context);
 		
 		System.out.println("- " + stats.getAgencyCount() + " agencies");
 		System.out.println("- " + stats.getRouteCount() + " routes");
 		System.out.println("- " + stats.getTripCount() + " trips");
 		System.out.println("- " + stats.getStopCount() + " stops");
-		System.out.println("- " + stats.getStopTimesCount() + " stop times");
+		System.out.println("- " + (streamingService != null ? streamingService.getStopTimeCount() : stats.getStopTimesCount()) + " stop times");
 		
 		Optional<Date> calDateStart = stats.getCalendarDateStart();
 		Date calSvcStart = stats.getCalendarServiceRangeStart();
@@ -161,6 +202,23 @@ public class ValidatorMain {
 		System.out.println(calendarDateVerService.getTripDataForEveryDay());
 	}
 	
+	/**
+	 * Read a feed in streaming mode.
+	 * @return the service holding the feed, or null if the stop times are not grouped by trip, in which case the
+	 * feed needs to be read into memory instead
+	 */
+	static StreamingValidationService loadStreaming(File inputGtfs) throws IOException {
+		StreamingValidationService streamingService = new StreamingValidationService();
+
+		try {
+			streamingService.load(inputGtfs);
+			return streamingService;
+		} catch (IllegalStateException e) {
+			System.err.println(e.getMessage() + "; reading the whole feed into memory instead");
+			return null;
+		}
+	}
+
 	/**
 	 * Return a single-line summary of a ValidationResult
 	 */
@@ -180,7 +238,7 @@ public class ValidatorMain {
 		int MAX_PRINT = 128;
 		
 		// loop over each invalid value, and take advantage of InvalidValue.toString to create a line about the error
-		for (InvalidValue v : result.invalidValues) {
+		for (InvalidValue v : result.sorted()) {
 			i++;
 			if (i > MAX_PRINT){
 				sb.append("And Many More...");
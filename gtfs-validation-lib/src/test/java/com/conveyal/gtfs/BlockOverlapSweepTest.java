@@ -0,0 +1,58 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.conveyal.gtfs.model.BlockInterval;
+import com.conveyal.gtfs.service.BlockOverlapSweep;
+
+public class BlockOverlapSweepTest {
+
+	@Test
+	public void eachOverlapOnce() {
+		List<BlockInterval> intervals = new ArrayList<BlockInterval>();
+		BlockInterval a = interval(0, 100);
+		BlockInterval b = interval(50, 150);
+		BlockInterval c = interval(100, 200);
+		BlockInterval d = interval(300, 400);
+		BlockInterval e = interval(310, 320);
+		BlockInterval f = interval(390, 500);
+
+		// out of order, to check that they are sorted
+		intervals.addAll(Arrays.asList(f, c, a, e, b, d));
+
+		List<String> overlaps = new ArrayList<String>();
+		BlockOverlapSweep.findOverlaps(intervals, (earlier, later) ->
+			overlaps.add(earlier.getFirstArrivalTime() + "-" + later.getFirstArrivalTime()));
+
+		// a and c only touch, and e finishes before f starts
+		assertEquals(Arrays.asList("0-50", "50-100", "300-310", "300-390"), overlaps);
+	}
+
+	@Test
+	public void identicalIntervals() {
+		List<BlockInterval> intervals = new ArrayList<BlockInterval>();
+		for (int i = 0; i < 4; i++) {
+			intervals.add(interval(120, 365));
+		}
+
+		int[] count = {0};
+		BlockOverlapSweep.findOverlaps(intervals, (earlier, later) -> count[0]++);
+
+		// every pair of the four
+		assertEquals(6, count[0]);
+	}
+
+	private BlockInterval interval(int firstArrival, int lastDeparture) {
+		BlockInterval interval = new BlockInterval();
+		interval.setStartTime(firstArrival);
+		interval.setFirstArrivalTime(firstArrival);
+		interval.setLastDepartureTime(lastDeparture);
+		return interval;
+	}
+}
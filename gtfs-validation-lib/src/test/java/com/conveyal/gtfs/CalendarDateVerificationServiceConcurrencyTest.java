@@ -0,0 +1,127 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.service.CalendarDateVerificationService;
+
+/**
+ * Checks the calendars of all of the test feeds at once, on a thread pool, and compares the results with
+ * those from checking each feed on its own.
+ */
+public class CalendarDateVerificationServiceConcurrencyTest extends UnitTestBaseUtil {
+
+	static String[] feeds = {"gtfs_bx10.zip", "gtfs_two_agencies.zip", "nyc_gtfs_si.zip", "st_gtfs_bad.zip",
+			"st_gtfs_good.zip", "test_gtfs1.zip", "test_gtfs2.zip"};
+
+	static final int THREADS = 8;
+	static final int ROUNDS = 20;
+
+	static List<GtfsRelationalDaoImpl> daos = new ArrayList<GtfsRelationalDaoImpl>();
+	static List<CalendarDateVerificationService> services = new ArrayList<CalendarDateVerificationService>();
+	static List<Summary> expected = new ArrayList<Summary>();
+
+	/** what a check of one feed found, in a form that can be compared */
+	static class Summary {
+		Map<AgencyAndId, Integer> tripsPerService = new TreeMap<AgencyAndId, Integer>();
+		TreeMap<Calendar, Integer> tripsPerDate;
+		TreeMap<Calendar, HashSet<AgencyAndId>> servicesPerDate = new TreeMap<Calendar, HashSet<AgencyAndId>>();
+		int problems;
+
+		Summary(CalendarDateVerificationService cdvs) {
+			cdvs.getTripCountsForAllServiceIDs().forEach((sid, count) -> tripsPerService.put(sid, count.get()));
+			tripsPerDate = cdvs.getTripCountForDates();
+			cdvs.getServiceIdsForDates().forEach((date, sids) -> servicesPerDate.put(date, new HashSet<AgencyAndId>(sids)));
+			problems = cdvs.getCalendarProblems().invalidValues.size();
+		}
+
+		void assertSame(String feed, Summary other) {
+			assertEquals(feed, tripsPerService, other.tripsPerService);
+			assertEquals(feed, tripsPerDate, other.tripsPerDate);
+			assertEquals(feed, servicesPerDate, other.servicesPerDate);
+			assertEquals(feed, problems, other.problems);
+		}
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		for (String feed : feeds) {
+			GtfsReader reader = new GtfsReader();
+			GtfsRelationalDaoImpl gtfsMDao = new GtfsRelationalDaoImpl();
+
+			try {
+				reader.setInputLocation(new File("src/test/resources/" + feed));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			reader.setEntityStore(gtfsMDao);
+
+			try {
+				reader.run();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			CalendarDateVerificationService cdvs = new CalendarDateVerificationService(gtfsMDao);
+			daos.add(gtfsMDao);
+			services.add(cdvs);
+			expected.add(new Summary(cdvs));
+		}
+	}
+
+	@Test
+	public void instancesDoNotShareState() {
+		// the last service created must not have changed the first
+		CalendarDateVerificationService first = new CalendarDateVerificationService(daos.get(0));
+		new CalendarDateVerificationService(daos.get(daos.size() - 1));
+		expected.get(0).assertSame(feeds[0], new Summary(first));
+	}
+
+	@Test
+	public void concurrentFeeds() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+
+			for (int task = 0; task < ROUNDS * feeds.length; task++) {
+				final int feed = task % feeds.length;
+				// half of the tasks share one service per feed, the other half create their own
+				final boolean shared = (task / feeds.length) % 2 == 0;
+
+				futures.add(pool.submit((Callable<Void>) () -> {
+					CalendarDateVerificationService cdvs = shared ? services.get(feed) : new CalendarDateVerificationService(daos.get(feed));
+					expected.get(feed).assertSame(feeds[feed], new Summary(cdvs));
+					return null;
+				}));
+			}
+
+			// rethrows any assertion that failed on the pool
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+}
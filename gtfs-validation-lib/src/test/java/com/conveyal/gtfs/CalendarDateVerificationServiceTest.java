@@ -121,11 +121,30 @@ public class CalendarDateVerificationServiceTest extends UnitTestBaseUtil {
 		idsOnWeekday.forEach(t -> System.out.println(t.getId()));
 		Assert.assertTrue(idsOnWeekday.size() > 1);
 	}
+	@Test
+	public void tripCountsMatchServiceIds(){
+		TreeMap<Calendar, Integer> tripsPerDate = cdvs.getTripCountForDates();
+		TreeMap<Calendar, ArrayList<AgencyAndId>> serviceIds = cdvs.getServiceIdsForDates();
+		ArrayList<Calendar> datesWithNoTrips = cdvs.getDatesWithNoTrips();
+		assertEquals(tripsPerDate.keySet(), serviceIds.keySet());
+
+		for (Calendar d : tripsPerDate.keySet()){
+			int trips = 0;
+			for (AgencyAndId sid : serviceIds.get(d)){
+				if (tripCounts.containsKey(sid)){
+					trips += tripCounts.get(sid).get();
+				}
+			}
+			assertEquals(trips, (int) tripsPerDate.get(d));
+			assertEquals(trips == 0, datesWithNoTrips.contains(d));
+		}
+	}
+
 	@Test
 	public void serviceCalendarforCalendarDate(){
 		Date d = new Date(1428033603000L);
 		ServiceDate sd = new ServiceDate(d);
-		Set<AgencyAndId> calendars = CalendarDateVerificationService.getCalendarsForDate(sd);
+		Set<AgencyAndId> calendars = cdvs.getCalendarsForDate(sd);
 		Assert.assertEquals("MTA NYCT_YU_J5-Weekday".trim(), calendars.toArray()[0].toString().trim());
 	}
 	
@@ -0,0 +1,98 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.ProjectedCoordinate;
+import com.conveyal.gtfs.service.GeoUtils;
+import com.conveyal.gtfs.service.GeoUtils.ProjectionEngine;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Check that the fast projection gives the same coordinates as GeoTools for every stop and shape point in the test feeds.
+ */
+public class FastUtmProjectionTest extends UnitTestBaseUtil {
+
+	/** one centimeter */
+	static final double TOLERANCE = 0.01;
+
+	@After
+	public void resetEngine() {
+		GeoUtils.setProjectionEngine(ProjectionEngine.GEOTOOLS);
+	}
+
+	@Test
+	public void sameAsGeoToolsForStGtfs() {
+		assertSameAsGeoTools("src/test/resources/st_gtfs_good.zip");
+	}
+
+	@Test
+	public void sameAsGeoToolsForBx10() {
+		assertSameAsGeoTools("src/test/resources/gtfs_bx10.zip");
+	}
+
+	@Test
+	public void sameAsGeoToolsForSouthernHemisphere() {
+		// Sydney, Santiago and Cape Town
+		double[][] points = {{-33.8688, 151.2093}, {-33.4489, -70.6693}, {-33.9249, 18.4241}};
+
+		for (double[] point : points) {
+			assertSameAsGeoTools(point[0], point[1]);
+		}
+	}
+
+	@Test
+	public void convertLatLonToEuclidean() {
+		GeoUtils.setProjectionEngine(ProjectionEngine.FAST);
+		ProjectedCoordinate projCoord = GeoUtils.convertLatLonToEuclidean(new Coordinate(47.604201,-122.311123));
+
+		// x and y are swapped, as with GeoTools
+		assertEquals(551778.8, projCoord.y, 1.0);
+		assertEquals(5272540.2, projCoord.x, 1.0);
+		assertEquals("EPSG:32610", projCoord.epsgCode());
+	}
+
+	private void assertSameAsGeoTools(String path) {
+		GtfsReader reader = new GtfsReader();
+		GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+
+		try {
+			reader.setInputLocation(new File(path));
+			reader.setEntityStore(dao);
+			reader.run();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (Stop stop : dao.getAllStops()) {
+			assertSameAsGeoTools(stop.getLat(), stop.getLon());
+		}
+
+		for (ShapePoint shapePoint : dao.getAllShapePoints()) {
+			assertSameAsGeoTools(shapePoint.getLat(), shapePoint.getLon());
+		}
+	}
+
+	private void assertSameAsGeoTools(double lat, double lon) {
+		double[] expected = new double[2];
+		double[] actual = new double[2];
+
+		GeoUtils.setProjectionEngine(ProjectionEngine.GEOTOOLS);
+		GeoUtils.project(lat, lon, expected);
+
+		GeoUtils.setProjectionEngine(ProjectionEngine.FAST);
+		GeoUtils.project(lat, lon, actual);
+
+		assertEquals("northing of " + lat + ", " + lon, expected[0], actual[0], TOLERANCE);
+		assertEquals("easting of " + lat + ", " + lon, expected[1], actual[1], TOLERANCE);
+	}
+}
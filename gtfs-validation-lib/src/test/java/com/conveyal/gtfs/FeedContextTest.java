@@ -0,0 +1,108 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.TripIndex;
+import com.conveyal.gtfs.service.CalendarDateVerificationService;
+import com.conveyal.gtfs.service.FeedContext;
+import com.conveyal.gtfs.service.GtfsValidationService;
+import com.conveyal.gtfs.service.StatisticsCollector;
+import com.conveyal.gtfs.service.impl.GtfsStatisticsService;
+
+public class FeedContextTest extends UnitTestBaseUtil {
+
+	static GtfsRelationalDaoImpl gtfsMDao = null;
+
+	@BeforeClass
+	public static void setUpClass() {
+		GtfsReader reader = new GtfsReader();
+		gtfsMDao = new GtfsRelationalDaoImpl();
+
+		File gtfsFile = new File("src/test/resources/gtfs_two_agencies.zip");
+
+		try {
+			reader.setInputLocation(gtfsFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		reader.setEntityStore(gtfsMDao);
+
+		try {
+			reader.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public void sharedByServices() {
+		FeedContext context = new FeedContext(gtfsMDao);
+		GtfsValidationService validation = new GtfsValidationService(context);
+		GtfsValidationService otherValidation = new GtfsValidationService(context);
+		GtfsStatisticsService stats = new GtfsStatisticsService(context);
+
+		assertSame(context.getTripIndex(), validation.getTripIndex());
+		assertSame(validation.getTripIndex(), otherValidation.getTripIndex());
+		assertSame(validation.getServiceCalendarIndex(), otherValidation.getServiceCalendarIndex());
+		assertSame(validation.getGeometryCache(), otherValidation.getGeometryCache());
+		assertSame(context.getStatistics(), stats.getSnapshot());
+		assertSame(context.getCalendarService(), context.getCalendarService());
+
+		// services given only the feed do not share anything
+		GtfsValidationService separate = new GtfsValidationService(gtfsMDao);
+		assertFalse(separate.getTripIndex() == validation.getTripIndex());
+	}
+
+	@Test
+	public void sameResults() {
+		FeedContext context = new FeedContext(gtfsMDao);
+
+		assertEquals(new GtfsStatisticsService(gtfsMDao).getBounds(), context.getBounds());
+		// the bounds come from the statistics, once they have been computed
+		context.getStatistics();
+		assertEquals(StatisticsCollector.collect(gtfsMDao).getBounds(), context.getBounds());
+
+		assertEquals(gtfsMDao.getAllAgencies().iterator().next().getTimezone(), context.getTimeZone().getID());
+
+		assertEquals(new CalendarDateVerificationService(gtfsMDao).getTripDataForEveryDay(),
+				new CalendarDateVerificationService(context).getTripDataForEveryDay());
+		assertEquals(new GtfsValidationService(gtfsMDao).validateTrips().invalidValues.size(),
+				new GtfsValidationService(context).validateTrips().invalidValues.size());
+	}
+
+	@Test
+	public void builtOnce() throws Exception {
+		FeedContext context = new FeedContext(gtfsMDao);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		try {
+			List<Future<TripIndex>> tripIndexes = new ArrayList<Future<TripIndex>>();
+			for (int i = 0; i < 16; i++) {
+				tripIndexes.add(executor.submit(() -> new GtfsValidationService(context).getTripIndex()));
+			}
+
+			for (Future<TripIndex> tripIndex : tripIndexes) {
+				assertTrue(tripIndex.get() == context.getTripIndex());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
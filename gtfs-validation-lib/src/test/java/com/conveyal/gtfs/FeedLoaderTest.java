@@ -0,0 +1,261 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.TripIndex;
+import com.conveyal.gtfs.service.FeedContext;
+import com.conveyal.gtfs.service.FeedLoader;
+import com.conveyal.gtfs.service.GtfsValidationService;
+import com.conveyal.gtfs.service.impl.GtfsStatisticsService;
+
+public class FeedLoaderTest extends UnitTestBaseUtil {
+
+	static String[] feeds = {"test_gtfs1.zip", "test_gtfs2.zip", "st_gtfs_good.zip", "st_gtfs_bad.zip", "nyc_gtfs_si.zip", "gtfs_bx10.zip", "gtfs_two_agencies.zip"};
+
+	@Test
+	public void sameAsOneBusAway() throws IOException {
+		for (String feed : feeds) {
+			File gtfsFile = new File("src/test/resources/" + feed);
+
+			GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+			GtfsReader reader = new GtfsReader();
+			reader.setInputLocation(gtfsFile);
+			reader.setEntityStore(dao);
+			reader.run();
+			FeedContext expected = new FeedContext(dao);
+
+			FeedLoader loader = new FeedLoader(gtfsFile);
+			loader.setFastCsv(true);
+			loader.load();
+			FeedContext actual = loader.getContext();
+
+			assertFalse(feed, loader.isFallback());
+			assertEquals(feed, 0, loader.getDao().getAllStopTimes().size());
+			assertEquals(feed, dao.getAllStopTimes().size(), actual.getStopTimeCount());
+
+			assertSameIndex(feed, expected.getTripIndex(), actual.getTripIndex());
+			assertSameShapes(feed, dao.getAllShapePoints(), loader.getDao().getAllShapePoints());
+
+			assertEquals(feed, new GtfsValidationService(expected).validateTrips(false).sorted(),
+					new GtfsValidationService(actual).validateTrips(false).sorted());
+			assertEquals(feed, new GtfsValidationService(expected).listReversedTripShapes().sorted(),
+					new GtfsValidationService(actual).listReversedTripShapes().sorted());
+
+			GtfsStatisticsService expectedStats = new GtfsStatisticsService(expected);
+			GtfsStatisticsService actualStats = new GtfsStatisticsService(actual);
+			assertEquals(feed, expectedStats.getStopTimesCount(), actualStats.getStopTimesCount());
+			for (Agency agency : dao.getAllAgencies()) {
+				assertEquals(feed, expectedStats.getStopTimesCount(agency.getId()), actualStats.getStopTimesCount(agency.getId()));
+			}
+		}
+	}
+
+	@Test
+	public void chunkedSameAsSingleThread() throws IOException {
+		for (String feed : feeds) {
+			File gtfsFile = new File("src/test/resources/" + feed);
+
+			FeedLoader single = new FeedLoader(gtfsFile);
+			single.setFastCsv(true);
+			single.setParseThreads(1);
+			single.load();
+
+			// chunks of a few records each, so that every feed is cut into many
+			FeedLoader chunked = new FeedLoader(gtfsFile);
+			chunked.setFastCsv(true);
+			chunked.setParseThreads(4);
+			chunked.setChunkSize(500);
+			chunked.load();
+
+			assertFalse(feed, chunked.isFallback());
+			assertSameIndex(feed, single.getContext().getTripIndex(), chunked.getContext().getTripIndex());
+			assertEquals(feed, new GtfsValidationService(single.getContext()).validateTrips(false).sorted(),
+					new GtfsValidationService(chunked.getContext()).validateTrips(false).sorted());
+		}
+	}
+
+	@Test
+	public void fallsBackToOneBusAway() throws IOException {
+		// a time with spaces around it, which is only parsed as a String, and a trip that does not exist
+		assertFallsBack("42347,99,STOP_42331, 06:00:00 ,06:00:00,,,0,0,\n");
+		assertFallsBack("no_such_trip,1,STOP_42331,06:00:00,06:00:00,,,0,0,\n");
+
+		// the same, found by one of many threads
+		assertFallsBack("no_such_trip,1,STOP_42331,06:00:00,06:00:00,,,0,0,\n", 4);
+	}
+
+	@Test
+	public void sameFailureAsOneBusAway() throws IOException {
+		// a stop with no stop_id, which OneBusAway fails on while the stop times are being parsed
+		File gtfsFile = File.createTempFile("nostopid", ".zip");
+		gtfsFile.deleteOnExit();
+		copyFeed(new File("src/test/resources/test_gtfs1.zip"), gtfsFile, "stops.txt", ",,Stop 99,,38.94,-77.03,,,0,,0,\n");
+
+		RuntimeException fastFailure = null, slowFailure = null;
+
+		FeedLoader fast = new FeedLoader(gtfsFile);
+		fast.setFastCsv(true);
+		try {
+			fast.load();
+		} catch (RuntimeException e) {
+			fastFailure = e;
+		}
+
+		FeedLoader slow = new FeedLoader(gtfsFile);
+		slow.setFastCsv(false);
+		try {
+			slow.load();
+		} catch (RuntimeException e) {
+			slowFailure = e;
+		}
+
+		assertTrue(slowFailure != null);
+		assertTrue(fastFailure != null);
+		// the load status of a feed depends on both
+		assertEquals(slowFailure.getClass(), fastFailure.getClass());
+		assertEquals(slowFailure.getCause() == null ? null : slowFailure.getCause().getClass(),
+				fastFailure.getCause() == null ? null : fastFailure.getCause().getClass());
+	}
+
+	@Test
+	public void fastCsvOff() throws IOException {
+		FeedLoader loader = new FeedLoader(new File("src/test/resources/test_gtfs1.zip"));
+		loader.setFastCsv(false);
+		loader.load();
+
+		assertTrue(loader.isFallback());
+		assertSame(loader.getDao(), loader.getContext().getDao());
+		assertEquals(loader.getDao().getAllStopTimes().size(), loader.getContext().getStopTimeCount());
+	}
+
+	/**
+	 * Add a line to stop_times.txt of a feed, and check that it is read by OneBusAway, which either fails the same
+	 * way as when it reads the feed alone, or reads the same stop times.
+	 */
+	private static void assertFallsBack(String line) throws IOException {
+		assertFallsBack(line, 1);
+	}
+
+	private static void assertFallsBack(String line, int parseThreads) throws IOException {
+		File gtfsFile = File.createTempFile("fallback", ".zip");
+		gtfsFile.deleteOnExit();
+		copyFeed(new File("src/test/resources/test_gtfs1.zip"), gtfsFile, "stop_times.txt", line);
+
+		FeedLoader fast = new FeedLoader(gtfsFile);
+		fast.setFastCsv(true);
+		fast.setParseThreads(parseThreads);
+		fast.setChunkSize(500);
+		FeedLoader slow = new FeedLoader(gtfsFile);
+		slow.setFastCsv(false);
+
+		String fastFailure = null, slowFailure = null;
+		try {
+			fast.load();
+		} catch (RuntimeException e) {
+			fastFailure = e.getClass().getName();
+		}
+		try {
+			slow.load();
+		} catch (RuntimeException e) {
+			slowFailure = e.getClass().getName();
+		}
+
+		assertTrue(line, fast.isFallback());
+		assertEquals(line, slowFailure, fastFailure);
+		if (slowFailure == null)
+			assertEquals(line, slow.getDao().getAllStopTimes().size(), fast.getContext().getStopTimeCount());
+	}
+
+	/** Copy a feed, adding a line to the end of one of its files */
+	private static void copyFeed(File from, File to, String file, String line) throws IOException {
+		try (ZipFile original = new ZipFile(from);
+				ZipOutputStream out = new ZipOutputStream(new FileOutputStream(to))) {
+			Enumeration<? extends ZipEntry> entries = original.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				Writer writer = new OutputStreamWriter(out, "UTF-8");
+
+				try (BufferedReader in = new BufferedReader(new InputStreamReader(original.getInputStream(entry), "UTF-8"))) {
+					String read;
+					while ((read = in.readLine()) != null) {
+						writer.write(read);
+						writer.write('\n');
+					}
+				}
+
+				if (entry.getName().endsWith(file))
+					writer.write(line);
+
+				writer.flush();
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static void assertSameIndex(String feed, TripIndex expected, TripIndex actual) {
+		assertEquals(feed, expected.getTripCount(), actual.getTripCount());
+		assertEquals(feed, expected.getStopTimeCount(), actual.getStopTimeCount());
+
+		for (int trip = 0; trip < expected.getTripCount(); trip++) {
+			assertEquals(feed, expected.getTrip(trip).getId(), actual.getTrip(trip).getId());
+			assertEquals(feed, expected.getStart(trip), actual.getStart(trip));
+			assertEquals(feed, expected.getEnd(trip), actual.getEnd(trip));
+		}
+
+		for (int row = 0; row < expected.getStopTimeCount(); row++) {
+			assertEquals(feed, expected.getStop(row).getId(), actual.getStop(row).getId());
+			assertEquals(feed, expected.getStopSequence(row), actual.getStopSequence(row));
+			assertEquals(feed, expected.getArrivalTime(row), actual.getArrivalTime(row));
+			assertEquals(feed, expected.getDepartureTime(row), actual.getDepartureTime(row));
+		}
+	}
+
+	private static void assertSameShapes(String feed, Iterable<ShapePoint> expected, Iterable<ShapePoint> actual) {
+		List<ShapePoint> expectedPoints = sortedShapePoints(expected);
+		List<ShapePoint> actualPoints = sortedShapePoints(actual);
+		assertEquals(feed, expectedPoints.size(), actualPoints.size());
+
+		for (int i = 0; i < expectedPoints.size(); i++) {
+			ShapePoint e = expectedPoints.get(i), a = actualPoints.get(i);
+			assertEquals(feed, e.getShapeId(), a.getShapeId());
+			assertEquals(feed, e.getSequence(), a.getSequence());
+			assertEquals(feed, Double.doubleToLongBits(e.getLat()), Double.doubleToLongBits(a.getLat()));
+			assertEquals(feed, Double.doubleToLongBits(e.getLon()), Double.doubleToLongBits(a.getLon()));
+			assertEquals(feed, Double.doubleToLongBits(e.getDistTraveled()), Double.doubleToLongBits(a.getDistTraveled()));
+		}
+	}
+
+	private static List<ShapePoint> sortedShapePoints(Iterable<ShapePoint> points) {
+		List<ShapePoint> sorted = new ArrayList<ShapePoint>();
+		for (ShapePoint point : points) {
+			sorted.add(point);
+		}
+		sorted.sort(Comparator.comparing((ShapePoint p) -> p.getShapeId()).thenComparingInt(ShapePoint::getSequence));
+		return sorted;
+	}
+}
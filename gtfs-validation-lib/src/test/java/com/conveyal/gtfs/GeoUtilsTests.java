@@ -1,6 +1,9 @@
 package com.conveyal.gtfs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.geom.Rectangle2D;
 
 import org.junit.Test;
 
@@ -8,6 +11,7 @@ import com.conveyal.gtfs.model.ProjectedCoordinate;
 import com.conveyal.gtfs.service.GeoUtils;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
 
 import junit.framework.Assert;
  
@@ -52,4 +56,30 @@ public class GeoUtilsTests {
 		assertEquals(551778.8, g.getCoordinate().y,1.0);
 		assertEquals(5272540.2, g.getCoordinate().x,1.0);
 	}
+
+	@Test
+	public void transformsAreCached() {
+		// Seattle and Washington, DC are in zones 10 and 18
+		GeoUtils.warmUp(new Rectangle2D.Double(-122.311123, 38.891726, 122.311123 - 76.999470, 47.604201 - 38.891726));
+
+		ProjectedCoordinate seattle = GeoUtils.convertLatLonToEuclidean(new Coordinate(47.604201, -122.311123));
+		assertEquals("EPSG:32610", seattle.epsgCode());
+		assertSame(GeoUtils.getTransform(32610), seattle.getTransform());
+		assertSame(GeoUtils.getTransform(32618), GeoUtils.getTransform(new Coordinate(-77.044788, 38.925922)));
+	}
+
+	@Test
+	public void batchProjection() {
+		// Seattle, Washington, DC and Sydney, in three different zones and both hemispheres
+		double[] latLons = {47.604201, -122.311123, 47.565297, -122.300823, 38.925922, -77.044788, -33.8688, 151.2093};
+
+		PackedCoordinateSequence.Double projected = GeoUtils.project(latLons);
+		assertEquals(4, projected.size());
+
+		for (int i = 0; i < projected.size(); i++) {
+			ProjectedCoordinate expected = GeoUtils.convertLatLonToEuclidean(new Coordinate(latLons[i * 2], latLons[i * 2 + 1]));
+			assertEquals(expected.x, projected.getX(i), 0.001);
+			assertEquals(expected.y, projected.getY(i), 0.001);
+		}
+	}
 }
@@ -80,10 +80,11 @@ public class GtfsValidationServiceTest extends UnitTestBaseUtil {
 
 	}
 	// Test originally did not pass as some trips got included twice. 
+	// Overlapping trips in a block are now reported once per pair; one pair with different service IDs used to be reported in both orders.
 	@Test
 	public void validateTrips() {
 		ValidationResult result = gtfsValidation2.validateTrips();
-		Assert.assertEquals(8,result.invalidValues.size());
+		Assert.assertEquals(7,result.invalidValues.size());
 	}
 
 	@Test
@@ -0,0 +1,81 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.conveyal.gtfs.model.InvalidValue;
+import com.conveyal.gtfs.model.Priority;
+import com.conveyal.gtfs.model.ValidationResult;
+
+public class InvalidValueSetTest {
+
+	@Test
+	public void equalValuesKeptOnce() {
+		ValidationResult result = new ValidationResult();
+		result.add(unusedStop("1"));
+		result.add(unusedStop("1"));
+		result.add(unusedStop("2"));
+
+		assertEquals(2, result.invalidValues.size());
+	}
+
+	@Test
+	public void lookups() {
+		ValidationResult result = new ValidationResult();
+		result.add(unusedStop("2"));
+		result.add(new InvalidValue("trip", "trip_id", "A", "NoStopTimesForTrip", "Trip Id A has no stop times.", null, Priority.HIGH));
+		result.add(unusedStop("1"));
+
+		assertEquals(2, result.invalidValues.getByProblemType("UnusedStop").size());
+		assertEquals(1, result.invalidValues.getByAffectedEntity("trip").size());
+		assertEquals(1, result.invalidValues.getByAffectedEntityId("A").size());
+		assertEquals(2, result.invalidValues.getByPriority(Priority.LOW).size());
+		assertTrue(result.invalidValues.getByProblemType("DuplicateStops").isEmpty());
+
+		// the index is kept up to date once it has been built
+		result.add(unusedStop("3"));
+		assertEquals(3, result.invalidValues.getByProblemType("UnusedStop").size());
+
+		Iterator<InvalidValue> it = result.invalidValues.iterator();
+		it.next();
+		it.remove();
+		assertEquals(2, result.invalidValues.getByProblemType("UnusedStop").size());
+	}
+
+	@Test
+	public void removeByProblemType() {
+		ValidationResult result = new ValidationResult();
+		result.add(unusedStop("2"));
+		result.add(new InvalidValue("trip", "trip_id", "A", "NoStopTimesForTrip", "Trip Id A has no stop times.", null, Priority.HIGH));
+		result.add(unusedStop("1"));
+
+		List<InvalidValue> removed = result.invalidValues.removeByProblemType("UnusedStop");
+
+		assertEquals(Arrays.asList(unusedStop("2"), unusedStop("1")), removed);
+		assertEquals(1, result.invalidValues.size());
+		assertTrue(result.invalidValues.getByProblemType("UnusedStop").isEmpty());
+	}
+
+	@Test
+	public void sortedView() {
+		ValidationResult result = new ValidationResult();
+		result.add(unusedStop("2"));
+		result.add(new InvalidValue("trip", "trip_id", "A", "NoStopTimesForTrip", "Trip Id A has no stop times.", null, Priority.HIGH));
+		result.add(unusedStop("1"));
+
+		List<InvalidValue> sorted = result.sorted();
+		assertEquals("NoStopTimesForTrip", sorted.get(0).problemType);
+		assertEquals(unusedStop("1"), sorted.get(1));
+		assertEquals(unusedStop("2"), sorted.get(2));
+	}
+
+	private InvalidValue unusedStop(String stopId) {
+		return new InvalidValue("stop", "stop_id", stopId, "UnusedStop", "Stop Id " + stopId + " is not used in any trips.", null, Priority.LOW);
+	}
+}
@@ -0,0 +1,131 @@
+package com.conveyal.gtfs;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.conveyal.gtfs.service.GridPointIndex;
+import com.conveyal.gtfs.service.PointIndex;
+import com.conveyal.gtfs.service.ProximityJoin;
+import com.conveyal.gtfs.service.StrTreePointIndex;
+
+/**
+ * Compares the time to build each PointIndex, and to find every pair of stops within the duplicate stop
+ * distance with it, for a regional feed (20,000 stops in a city) and a national one (400,000 stops in 200 cities).
+ * Stops are laid out along streets, with a few percent placed within a meter or two of another.
+ *
+ * This is not run as part of the build. Run it with main(), or with
+ * java -cp target/test-classes:[dependencies] org.openjdk.jmh.Main PointIndexBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PointIndexBenchmark {
+
+	static final double DUPLICATE_DISTANCE = 2.0;
+
+	@Param({"regional", "national"})
+	public String feed;
+
+	double[] x;
+	double[] y;
+
+	PointIndex strTree;
+	PointIndex grid;
+
+	@Setup
+	public void setUp() {
+		if ("national".equals(feed))
+			generateStops(400000, 200);
+		else
+			generateStops(20000, 1);
+
+		strTree = new StrTreePointIndex(x, y);
+		grid = new GridPointIndex(x, y, DUPLICATE_DISTANCE);
+	}
+
+	@Benchmark
+	public PointIndex buildStrTree() {
+		return new StrTreePointIndex(x, y);
+	}
+
+	@Benchmark
+	public PointIndex buildGrid() {
+		return new GridPointIndex(x, y, DUPLICATE_DISTANCE);
+	}
+
+	@Benchmark
+	public int joinStrTree() {
+		return countPairs(strTree);
+	}
+
+	@Benchmark
+	public int joinGrid() {
+		return countPairs(grid);
+	}
+
+	private int countPairs(PointIndex index) {
+		int[] count = {0};
+		new ProximityJoin(x, y, index).findPairs(DUPLICATE_DISTANCE, (stop1, stop2, distance) -> count[0]++);
+		return count[0];
+	}
+
+	/**
+	 * Lay stops out every 300 m or so along a grid of streets in each city, with cities spread over 2000 km.
+	 */
+	private void generateStops(int stopCount, int cityCount) {
+		Random random = new Random(42);
+		x = new double[stopCount];
+		y = new double[stopCount];
+
+		double[] cityX = new double[cityCount];
+		double[] cityY = new double[cityCount];
+		for (int c = 0; c < cityCount; c++) {
+			cityX[c] = random.nextDouble() * 2000000;
+			cityY[c] = random.nextDouble() * 2000000;
+		}
+
+		for (int i = 0; i < stopCount; i++) {
+			if (i > 0 && random.nextDouble() < 0.03) {
+				// a near-duplicate of the previous stop
+				x[i] = x[i - 1] + random.nextGaussian();
+				y[i] = y[i - 1] + random.nextGaussian();
+				continue;
+			}
+
+			int city = random.nextInt(cityCount);
+			double street = Math.floor(random.nextDouble() * 200) * 300;
+			double along = random.nextDouble() * 60000;
+
+			if (random.nextBoolean()) {
+				x[i] = cityX[city] + street;
+				y[i] = cityY[city] + along;
+			}
+			else {
+				x[i] = cityX[city] + along;
+				y[i] = cityY[city] + street;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PointIndexBenchmark.class.getSimpleName()).build()).run();
+	}
+}
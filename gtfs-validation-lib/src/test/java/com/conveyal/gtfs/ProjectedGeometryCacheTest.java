@@ -0,0 +1,87 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.service.GeoUtils;
+import com.conveyal.gtfs.service.ProjectedGeometryCache;
+import com.vividsolutions.jts.geom.Geometry;
+
+public class ProjectedGeometryCacheTest extends UnitTestBaseUtil {
+
+	static GtfsRelationalDaoImpl gtfsMDao = null;
+
+	@BeforeClass
+	public static void setUpClass() {
+		GtfsReader reader = new GtfsReader();
+		gtfsMDao = new GtfsRelationalDaoImpl();
+
+		File gtfsFile = new File("src/test/resources/st_gtfs_good.zip");
+
+		try {
+			reader.setInputLocation(gtfsFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		reader.setEntityStore(gtfsMDao);
+
+		try {
+			reader.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Test
+	public void sameGeometriesAsGeoUtils() {
+		ProjectedGeometryCache cache = new ProjectedGeometryCache(gtfsMDao);
+		cache.preload();
+
+		for (Stop stop : gtfsMDao.getAllStops()) {
+			Geometry expected = GeoUtils.getGeometryFromCoordinate(stop.getLat(), stop.getLon());
+			Geometry actual = cache.getStopGeometry(stop);
+			assertEquals(0, expected.distance(actual), 0.0);
+			assertSame(actual, cache.getStopGeometry(stop));
+		}
+
+		for (AgencyAndId shapeId : cache.getShapeIds()) {
+			Geometry expected = GeoUtils.getGeomFromShapePoints(gtfsMDao.getShapePointsForShapeId(shapeId));
+			Geometry actual = cache.getShapeGeometry(shapeId);
+			assertEquals(expected.getNumPoints(), actual.getNumPoints());
+			assertSame(actual, cache.getShapeGeometry(shapeId));
+		}
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedShapes() {
+		List<AgencyAndId> shapeIds = gtfsMDao.getAllShapeIds();
+		AgencyAndId first = shapeIds.get(0);
+		AgencyAndId second = shapeIds.get(1);
+
+		// only room for one shape
+		int firstPoints = gtfsMDao.getShapePointsForShapeId(first).size();
+		int secondPoints = gtfsMDao.getShapePointsForShapeId(second).size();
+		ProjectedGeometryCache cache = new ProjectedGeometryCache(gtfsMDao, Math.max(firstPoints, secondPoints));
+
+		Geometry firstGeom = cache.getShapeGeometry(first);
+		assertSame(firstGeom, cache.getShapeGeometry(first));
+
+		cache.getShapeGeometry(second);
+		assertTrue(cache.getCachedShapePoints() <= Math.max(firstPoints, secondPoints));
+		assertNotSame(firstGeom, cache.getShapeGeometry(first));
+	}
+}
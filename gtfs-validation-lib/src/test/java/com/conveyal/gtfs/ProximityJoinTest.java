@@ -0,0 +1,60 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.conveyal.gtfs.service.PointIndex;
+import com.conveyal.gtfs.service.ProximityJoin;
+
+public class ProximityJoinTest {
+
+	@Test
+	public void eachPairOnce() {
+		for (PointIndex.Type type : PointIndex.Type.values()) {
+			eachPairOnce(type);
+		}
+	}
+
+	@Test
+	public void inclusiveDistance() {
+		for (PointIndex.Type type : PointIndex.Type.values()) {
+			inclusiveDistance(type);
+		}
+	}
+
+	private void eachPairOnce(PointIndex.Type type) {
+		// a tight cluster of five points, one point just within 1 m of the last of them, one far away and one that can't be projected
+		double[] x = {0, 0.1, 0.2, 0.3, 0.4, 1.3, 1000, Double.NaN};
+		double[] y = {0, 0.1, 0.2, 0.3, 0.4, 0.4, 1000, Double.NaN};
+
+		Set<String> pairs = new HashSet<String>();
+
+		new ProximityJoin(x, y, PointIndex.create(type, x, y, 1.0)).findPairs(1.0, (point1, point2, distance) -> {
+			assertTrue(point1 < point2);
+			assertTrue(distance <= 1.0);
+			assertTrue(pairs.add(point1 + "," + point2));
+		});
+
+		// every pair within the cluster, plus 1.3,0.4 is 0.9 m from 0.4,0.4 but more than 1 m from the rest
+		assertEquals(10 + 1, pairs.size());
+		assertTrue(pairs.contains("4,5"));
+	}
+
+	private void inclusiveDistance(PointIndex.Type type) {
+		double[] x = {0, 3};
+		double[] y = {0, 4};
+
+		int[] count = {0};
+		new ProximityJoin(x, y, PointIndex.create(type, x, y, 5.0)).findPairs(5.0, (point1, point2, distance) -> {
+			assertEquals(5.0, distance, 0.0);
+			count[0]++;
+		});
+
+		assertEquals(1, count[0]);
+	}
+}
@@ -0,0 +1,152 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.ServiceCalendarIndex;
+
+public class ServiceCalendarIndexTest extends UnitTestBaseUtil {
+
+	static GtfsRelationalDaoImpl gtfsMDao = null;
+	static ServiceCalendarIndex index = null;
+
+	static AgencyAndId weekday = AgencyAndId.convertFromString("MTA NYCT_YU_A5-Weekday");
+	static AgencyAndId weekdaySchoolDays = AgencyAndId.convertFromString("MTA NYCT_YU_A5-Weekday-SDon");
+	static AgencyAndId saturday = AgencyAndId.convertFromString("MTA NYCT_YU_A5-Saturday");
+	static AgencyAndId sunday = AgencyAndId.convertFromString("MTA NYCT_YU_A5-Sunday");
+	static AgencyAndId goodFriday = AgencyAndId.convertFromString("MTA NYCT_YU_J5-Weekday");
+
+	@BeforeClass
+	public static void setUpClass() {
+		GtfsReader reader = new GtfsReader();
+		gtfsMDao = new GtfsRelationalDaoImpl();
+
+		File gtfsFile = new File("src/test/resources/nyc_gtfs_si.zip");
+
+		try {
+			reader.setInputLocation(gtfsFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		reader.setEntityStore(gtfsMDao);
+
+		try {
+			reader.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		index = new ServiceCalendarIndex(gtfsMDao.getAllCalendars(), gtfsMDao.getAllCalendarDates());
+	}
+
+	@Test
+	public void servicesFromCalendarAndCalendarDates() {
+		// five in calendar.txt, four more only in calendar_dates.txt
+		assertEquals(9, index.getServiceIds().size());
+		assertTrue(index.getServiceIds().contains(goodFriday));
+	}
+
+	@Test
+	public void everyActiveWeekday() {
+		// Monday to Friday, not just the first day of the week that is set
+		for (int day = 5; day <= 9; day++) {
+			assertTrue(index.isActive(weekdaySchoolDays, new ServiceDate(2015, 1, day)));
+		}
+		assertFalse(index.isActive(weekdaySchoolDays, new ServiceDate(2015, 1, 10)));
+		assertFalse(index.isActive(weekdaySchoolDays, new ServiceDate(2015, 1, 11)));
+		assertTrue(index.isActive(sunday, new ServiceDate(2015, 1, 11)));
+	}
+
+	@Test
+	public void calendarDatesApplied() {
+		// removed for Martin Luther King day and mid-winter recess
+		assertFalse(index.isActive(weekdaySchoolDays, new ServiceDate(2015, 1, 19)));
+		assertFalse(index.isActive(weekdaySchoolDays, new ServiceDate(2015, 2, 17)));
+		assertTrue(index.isActive(weekday, new ServiceDate(2015, 2, 17)));
+
+		// 64 weekdays from January 5 to April 2, less six removed
+		assertEquals(58, index.getActiveDayCount(weekdaySchoolDays));
+		assertEquals(5, index.getActiveDayCount(weekday));
+		assertEquals(1, index.getActiveDayCount(goodFriday));
+	}
+
+	@Test
+	public void outsideTheFeed() {
+		assertFalse(index.isActive(weekdaySchoolDays, new ServiceDate(2014, 12, 31)));
+		assertFalse(index.isActive(weekdaySchoolDays, new ServiceDate(2016, 1, 4)));
+		assertFalse(index.isActive(AgencyAndId.convertFromString("MTA NYCT_nonexistent"), new ServiceDate(2015, 1, 5)));
+		assertEquals(0, index.getActiveDayCount(AgencyAndId.convertFromString("MTA NYCT_nonexistent")));
+	}
+
+	@Test
+	public void serviceIdsOnDate() {
+		List<AgencyAndId> thursday = index.getServiceIdsOnDate(new ServiceDate(2015, 4, 2));
+		assertEquals(3, thursday.size());
+		assertTrue(thursday.contains(weekdaySchoolDays));
+
+		List<AgencyAndId> friday = index.getServiceIdsOnDate(new ServiceDate(2015, 4, 3));
+		assertEquals(1, friday.size());
+		assertEquals(goodFriday, friday.get(0));
+
+		assertEquals(0, index.getServiceIdsOnDate(new ServiceDate(2014, 1, 1)).size());
+	}
+
+	@Test
+	public void serviceIdsByDay() {
+		ServiceDate first = new ServiceDate(2014, 12, 20);
+		List<List<AgencyAndId>> byDay = index.getServiceIdsByDay(first, new ServiceDate(2015, 4, 10));
+		assertEquals(112, byDay.size());
+
+		long firstDay = ServiceCalendarIndex.toEpochDay(first);
+		for (int day = 0; day < byDay.size(); day++) {
+			assertEquals(index.getServiceIdsOnDate(ServiceCalendarIndex.fromEpochDay(firstDay + day)), byDay.get(day));
+		}
+
+		assertEquals(0, index.getServiceIdsByDay(new ServiceDate(2015, 4, 10), first).size());
+	}
+
+	@Test
+	public void shareDate() {
+		assertTrue(index.shareDate(weekdaySchoolDays, AgencyAndId.convertFromString("MTA NYCT_CH_A5-Weekday-SDon")));
+		assertFalse(index.shareDate(saturday, sunday));
+		// the regular weekday service only runs on the days removed from the school day service
+		assertFalse(index.shareDate(weekday, weekdaySchoolDays));
+		assertFalse(index.shareDate(weekday, AgencyAndId.convertFromString("MTA NYCT_nonexistent")));
+
+		assertEquals(58, index.getSharedDayCount(weekdaySchoolDays, weekdaySchoolDays));
+		assertEquals(0, index.getSharedDayCount(saturday, sunday));
+	}
+
+	@Test
+	public void dateRange() {
+		assertEquals(new ServiceDate(2015, 1, 4), index.getFirstDate());
+		assertEquals(new ServiceDate(2015, 4, 4), index.getLastDate());
+	}
+
+	@Test
+	public void epochDays() {
+		assertEquals(0, ServiceCalendarIndex.toEpochDay(new ServiceDate(1970, 1, 1)));
+		assertEquals(16439, ServiceCalendarIndex.toEpochDay(new ServiceDate(2015, 1, 4)));
+		assertEquals(new ServiceDate(2016, 2, 29), ServiceCalendarIndex.fromEpochDay(ServiceCalendarIndex.toEpochDay(new ServiceDate(2016, 2, 29))));
+
+		HashSet<ServiceDate> dates = new HashSet<ServiceDate>();
+		for (long day = 16436; day < 16436 + 366; day++) {
+			dates.add(ServiceCalendarIndex.fromEpochDay(day));
+		}
+		assertEquals(366, dates.size());
+	}
+}
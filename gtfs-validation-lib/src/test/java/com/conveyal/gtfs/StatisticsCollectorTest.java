@@ -0,0 +1,164 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.FeedStatistics;
+import com.conveyal.gtfs.model.Statistic;
+import com.conveyal.gtfs.service.StatisticsCollector;
+import com.conveyal.gtfs.service.impl.GtfsStatisticsService;
+
+public class StatisticsCollectorTest extends UnitTestBaseUtil {
+
+	static GtfsRelationalDaoImpl gtfsMDao = null;
+	static FeedStatistics snapshot = null;
+
+	@BeforeClass
+	public static void setUpClass() {
+		GtfsReader reader = new GtfsReader();
+		gtfsMDao = new GtfsRelationalDaoImpl();
+
+		File gtfsFile = new File("src/test/resources/gtfs_two_agencies.zip");
+
+		try {
+			reader.setInputLocation(gtfsFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		reader.setEntityStore(gtfsMDao);
+
+		try {
+			reader.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		snapshot = StatisticsCollector.collect(gtfsMDao);
+	}
+
+	@Test
+	public void feedTotals() {
+		GtfsStatisticsService stats = new GtfsStatisticsService(gtfsMDao);
+
+		assertEquals(2, snapshot.getAgencyCount());
+		assertEquals(gtfsMDao.getAllRoutes().size(), snapshot.getRouteCount());
+		assertEquals(gtfsMDao.getAllTrips().size(), snapshot.getTripCount());
+		assertEquals(gtfsMDao.getAllStops().size(), snapshot.getStopCount());
+		assertEquals(gtfsMDao.getAllStopTimes().size(), snapshot.getStopTimeCount());
+		assertEquals(stats.getCalendarServiceRangeStart(), snapshot.getCalendarServiceStart());
+		assertEquals(stats.getCalendarServiceRangeEnd(), snapshot.getCalendarServiceEnd());
+		assertEquals(stats.getCalendarDateStart().get(), snapshot.getCalendarStartDate());
+		assertEquals(stats.getCalendarDateEnd().get(), snapshot.getCalendarEndDate());
+		assertEquals(stats.getBounds(), snapshot.getBounds());
+	}
+
+	@Test
+	public void agencyTotals() {
+		assertTrue(snapshot.getAgencyIds().contains("SoundTransit"));
+		assertTrue(snapshot.getAgencyIds().contains("TEST"));
+
+		int routes = 0, trips = 0, stopTimes = 0;
+
+		for (Agency agency : gtfsMDao.getAllAgencies()) {
+			String agencyId = agency.getId();
+			Statistic s = snapshot.getStatistic(agencyId);
+
+			assertEquals(agencyId, s.getAgencyId());
+			assertEquals(gtfsMDao.getAllRoutes().stream().filter(r -> agencyId.equals(r.getAgency().getId())).count(), (long) s.getRouteCount());
+			assertEquals(gtfsMDao.getAllTrips().stream().filter(t -> agencyId.equals(t.getRoute().getAgency().getId())).count(), (long) s.getTripCount());
+			assertEquals(gtfsMDao.getAllStops().stream().filter(st -> agencyId.equals(st.getId().getAgencyId())).count(), (long) s.getStopCount());
+			assertEquals(gtfsMDao.getAllStopTimes().stream().filter(st -> agencyId.equals(st.getTrip().getRoute().getAgency().getId())).count(), (long) s.getStopTimeCount());
+
+			Date serviceStart = null;
+			for (ServiceCalendar calendar : gtfsMDao.getAllCalendars()) {
+				if (agencyId.equals(calendar.getServiceId().getAgencyId()) && (serviceStart == null || calendar.getStartDate().getAsDate().before(serviceStart)))
+					serviceStart = calendar.getStartDate().getAsDate();
+			}
+			assertEquals(serviceStart, s.getCalendarServiceStart());
+
+			Date dateEnd = null;
+			for (ServiceCalendarDate calendarDate : gtfsMDao.getAllCalendarDates()) {
+				if (agencyId.equals(calendarDate.getServiceId().getAgencyId()) && (dateEnd == null || calendarDate.getDate().getAsDate().after(dateEnd)))
+					dateEnd = calendarDate.getDate().getAsDate();
+			}
+			assertEquals(dateEnd, s.getCalendarEndDate());
+
+			// stops do not have agencies, so the bounds are those of the feed
+			assertEquals(snapshot.getBounds(), s.getBounds());
+
+			routes += s.getRouteCount();
+			trips += s.getTripCount();
+			stopTimes += s.getStopTimeCount();
+		}
+
+		assertEquals(snapshot.getRouteCount(), routes);
+		assertEquals(snapshot.getTripCount(), trips);
+		assertEquals(snapshot.getStopTimeCount(), stopTimes);
+	}
+
+	@Test
+	public void unknownAgency() {
+		Statistic s = snapshot.getStatistic("nonexistent");
+		assertEquals(0, (int) s.getRouteCount());
+		assertEquals(0, (int) s.getStopTimeCount());
+		assertNull(s.getCalendarServiceStart());
+	}
+
+	@Test
+	public void mergedCollectors() {
+		// accumulate the stop times in two halves, as two threads would
+		List<StopTime> stopTimes = new ArrayList<StopTime>(gtfsMDao.getAllStopTimes());
+		StatisticsCollector first = new StatisticsCollector();
+		StatisticsCollector second = new StatisticsCollector();
+
+		for (int i = 0; i < stopTimes.size(); i++) {
+			if (i < stopTimes.size() / 2)
+				first.addStopTime(stopTimes.get(i));
+			else
+				second.addStopTime(stopTimes.get(i));
+		}
+		gtfsMDao.getAllAgencies().forEach(first::addAgency);
+		gtfsMDao.getAllStops().forEach(second::addStop);
+
+		first.merge(second);
+		FeedStatistics merged = first.getStatistics();
+
+		assertEquals(snapshot.getStopTimeCount(), merged.getStopTimeCount());
+		assertEquals(snapshot.getAgencyCount(), merged.getAgencyCount());
+		assertEquals(snapshot.getBounds(), merged.getBounds());
+		for (String agencyId : snapshot.getAgencyIds()) {
+			assertEquals(snapshot.getStatistic(agencyId).getStopTimeCount(), merged.getStatistic(agencyId).getStopTimeCount());
+		}
+	}
+
+	@Test
+	public void snapshotIsShared() {
+		GtfsStatisticsService stats = new GtfsStatisticsService(gtfsMDao);
+		FeedStatistics s = stats.getSnapshot();
+		assertTrue(s == stats.getSnapshot());
+
+		Rectangle2D bounds = s.getBounds();
+		bounds.add(0, 0);
+		assertEquals(snapshot.getBounds(), s.getBounds());
+
+		assertEquals(snapshot.getStatistic("TEST").getTripCount(), stats.getTripCount("TEST"));
+	}
+}
@@ -0,0 +1,134 @@
+package com.conveyal.gtfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.conveyal.gtfs.service.FeedContext;
+import com.conveyal.gtfs.service.FeedLoader;
+
+/**
+ * Compares the time to load a feed whose stop_times.txt has four million rows, about 160 MB, when it is parsed by
+ * one thread and when it is parsed in chunks by several. The other tables are small, so that the time is mostly
+ * that of stop_times.txt.
+ *
+ * This is not run as part of the build. Run it with main(), or with
+ * java -cp target/test-classes:[dependencies] org.openjdk.jmh.Main StopTimeParsingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StopTimeParsingBenchmark {
+
+	static final int TRIPS = 100000;
+	static final int STOPS = 5000;
+	static final int STOPS_PER_TRIP = 40;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	File feed;
+
+	@Setup
+	public void setUp() throws IOException {
+		feed = Files.createTempDirectory("stoptimes").toFile();
+		generateFeed();
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : feed.listFiles()) {
+			file.delete();
+		}
+		feed.delete();
+	}
+
+	@Benchmark
+	public FeedContext load() throws IOException {
+		FeedLoader loader = new FeedLoader(feed);
+		loader.setFastCsv(true);
+		loader.setParseThreads(threads);
+		loader.load();
+		return loader.getContext();
+	}
+
+	/**
+	 * Write a feed of one route, with each trip serving a run of consecutive stops, and its stop times grouped by trip
+	 * as they usually are.
+	 */
+	private void generateFeed() throws IOException {
+		try (Writer out = writer("agency.txt")) {
+			out.write("agency_id,agency_name,agency_url,agency_timezone\n");
+			out.write("a,Agency,http://example.com,America/New_York\n");
+		}
+
+		try (Writer out = writer("calendar.txt")) {
+			out.write("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n");
+			out.write("weekday,1,1,1,1,1,0,0,20170101,20171231\n");
+		}
+
+		try (Writer out = writer("routes.txt")) {
+			out.write("route_id,agency_id,route_short_name,route_long_name,route_type\n");
+			out.write("r,a,1,Route,3\n");
+		}
+
+		try (Writer out = writer("stops.txt")) {
+			out.write("stop_id,stop_name,stop_lat,stop_lon\n");
+			for (int stop = 0; stop < STOPS; stop++) {
+				out.write("stop_" + stop + ",Stop " + stop + "," + (40 + stop * 0.0001) + "," + (-74 + stop * 0.0001) + "\n");
+			}
+		}
+
+		try (Writer out = writer("trips.txt")) {
+			out.write("route_id,service_id,trip_id\n");
+			for (int trip = 0; trip < TRIPS; trip++) {
+				out.write("r,weekday,trip_" + trip + "\n");
+			}
+		}
+
+		try (Writer out = writer("stop_times.txt")) {
+			out.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+			for (int trip = 0; trip < TRIPS; trip++) {
+				int start = 5 * 3600 + (trip % 1000) * 60;
+				for (int i = 0; i < STOPS_PER_TRIP; i++) {
+					String time = time(start + i * 90);
+					out.write("trip_" + trip + "," + time + "," + time + ",stop_" + ((trip + i) % STOPS) + "," + (i + 1) + "\n");
+				}
+			}
+		}
+	}
+
+	private Writer writer(String name) throws IOException {
+		return Files.newBufferedWriter(new File(feed, name).toPath(), StandardCharsets.UTF_8);
+	}
+
+	private static String time(int seconds) {
+		return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(StopTimeParsingBenchmark.class.getSimpleName()).build()).run();
+	}
+}
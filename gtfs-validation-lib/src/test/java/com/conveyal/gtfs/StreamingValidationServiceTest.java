@@ -0,0 +1,128 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.ValidationResult;
+import com.conveyal.gtfs.service.GtfsValidationService;
+import com.conveyal.gtfs.service.StreamingValidationService;
+
+public class StreamingValidationServiceTest extends UnitTestBaseUtil {
+
+	static String[] feeds = {"test_gtfs1.zip", "test_gtfs2.zip", "st_gtfs_good.zip", "st_gtfs_bad.zip", "nyc_gtfs_si.zip", "gtfs_bx10.zip"};
+
+	@Test
+	public void sameResultsAsInMemory() throws IOException {
+		for (String feed : feeds) {
+			File gtfsFile = new File("src/test/resources/" + feed);
+
+			GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+			GtfsReader reader = new GtfsReader();
+			reader.setInputLocation(gtfsFile);
+			reader.setEntityStore(dao);
+			reader.run();
+			GtfsValidationService inMemory = new GtfsValidationService(dao);
+
+			// a small batch size, so that most feeds are checked in several batches
+			for (int batchSize : new int[] {StreamingValidationService.BATCH_SIZE, 50}) {
+				StreamingValidationService streaming = new StreamingValidationService(batchSize);
+				streaming.load(gtfsFile);
+
+				assertEquals(feed, dao.getAllStopTimes().size(), streaming.getStopTimeCount());
+				assertEquals(feed, 0, streaming.getDao().getAllStopTimes().size());
+				assertEquals(feed, 0, streaming.getDao().getAllShapePoints().size());
+				assertEquals(feed, dao.getAllTrips().size(), streaming.getDao().getAllTrips().size());
+
+				assertSameProblems(feed, inMemory.validateTrips(false), streaming.validateTrips());
+				assertSameProblems(feed, inMemory.listReversedTripShapes(), streaming.listReversedTripShapes());
+				assertSameProblems(feed, inMemory.validateRoutes(), new GtfsValidationService(streaming.getContext()).validateRoutes());
+			}
+		}
+	}
+
+	@Test
+	public void stopTimesNotGroupedByTrip() throws IOException {
+		// move the first stop time to the end of the file, a batch or more after the rest of its trip
+		File gtfsFile = rewriteStopTimes(lines -> lines.add(lines.remove(1)));
+
+		try {
+			new StreamingValidationService(10).load(gtfsFile);
+			fail("stop times apart from the rest of their trip were not detected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void stopTimeOfUnknownTrip() throws IOException {
+		File gtfsFile = rewriteStopTimes(lines -> lines.add("no_such_trip,1,STOP_42331,00:00:40,00:00:40,,,0,0,"));
+
+		try {
+			new StreamingValidationService(10).load(gtfsFile);
+			fail("a stop time of a trip that is not in trips.txt was not detected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * @return a copy of test_gtfs1.zip with the lines of stop_times.txt changed
+	 */
+	private static File rewriteStopTimes(Consumer<List<String>> change) throws IOException {
+		File gtfsFile = File.createTempFile("stoptimes", ".zip");
+		gtfsFile.deleteOnExit();
+
+		try (ZipFile original = new ZipFile("src/test/resources/test_gtfs1.zip");
+				ZipOutputStream out = new ZipOutputStream(new FileOutputStream(gtfsFile))) {
+			Enumeration<? extends ZipEntry> entries = original.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				List<String> lines = new ArrayList<String>();
+				try (BufferedReader in = new BufferedReader(new InputStreamReader(original.getInputStream(entry), "UTF-8"))) {
+					String line;
+					while ((line = in.readLine()) != null) {
+						lines.add(line);
+					}
+				}
+
+				if (entry.getName().endsWith("stop_times.txt"))
+					change.accept(lines);
+
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				Writer writer = new OutputStreamWriter(out, "UTF-8");
+				for (String line : lines) {
+					writer.write(line);
+					writer.write('\n');
+				}
+				writer.flush();
+				out.closeEntry();
+			}
+		}
+
+		return gtfsFile;
+	}
+
+	private static void assertSameProblems(String feed, ValidationResult expected, ValidationResult actual) {
+		assertEquals(feed, expected.sorted(), actual.sorted());
+	}
+}
@@ -0,0 +1,116 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+
+import com.conveyal.gtfs.model.StopTimeTable;
+import com.conveyal.gtfs.model.TripIndex;
+import com.conveyal.gtfs.service.TripFingerprint;
+
+public class TripFingerprintTest {
+
+	static Stop[] stops = new Stop[4];
+
+	static {
+		for (int i = 0; i < stops.length; i++) {
+			stops[i] = new Stop();
+			stops[i].setId(new AgencyAndId("agency", "stop" + i));
+		}
+	}
+
+	@Test
+	public void duplicates() {
+		Trip[] trips = {
+			trip("a", "weekday", null),
+			trip("b", "weekday", null),      // same as a
+			trip("c", "weekday", null),      // one stop different
+			trip("d", "weekday", null),      // leaves later
+			trip("e", "saturday", null),     // different service
+			trip("f", "weekday", "block1"),  // different block
+			trip("g", "weekday", null),      // same as a, with a stop time that has no stop
+			trip("h", "weekday", null)       // the first two stops of a
+		};
+
+		StopTimeTable table = new StopTimeTable();
+		addStops(table, 0, 100, 0, 1, 2);
+		addStops(table, 1, 100, 0, 1, 2);
+		addStops(table, 2, 100, 0, 3, 2);
+		addStops(table, 3, 110, 0, 1, 2);
+		addStops(table, 4, 100, 0, 1, 2);
+		addStops(table, 5, 100, 0, 1, 2);
+		table.add(6, 0, 1, 100, 100);
+		table.add(6, StopTimeTable.NO_STOP, 2, 130, 130);
+		table.add(6, 1, 3, 160, 160);
+		table.add(6, 2, 4, 220, 220);
+		addStops(table, 7, 100, 0, 1);
+
+		TripIndex tripIndex = new TripIndex(trips, stops, table);
+		TripFingerprint fingerprints = new TripFingerprint(tripIndex);
+
+		int[] expected = {-1, 0, -1, -1, -1, -1, 0, -1};
+		for (int trip = 0; trip < trips.length; trip++) {
+			assertEquals(trips[trip].getId().getId(), expected[trip], fingerprints.add(trip));
+		}
+	}
+
+	@Test
+	public void fullComparison() {
+		Trip[] trips = {trip("a", "weekday", null), trip("b", "weekday", null), trip("c", "weekday", null)};
+
+		StopTimeTable table = new StopTimeTable();
+		addStops(table, 0, 100, 0, 1, 2);
+		addStops(table, 1, 100, 0, 1, 2);
+		addStops(table, 2, 100, 0, 2, 1);
+
+		TripIndex tripIndex = new TripIndex(trips, stops, table);
+
+		assertEquals(TripFingerprint.fingerprint(tripIndex, 0), TripFingerprint.fingerprint(tripIndex, 1));
+		assertTrue(TripFingerprint.isDuplicate(tripIndex, 0, 1));
+
+		// the same stops in a different order
+		assertFalse(TripFingerprint.fingerprint(tripIndex, 0) == TripFingerprint.fingerprint(tripIndex, 2));
+		assertFalse(TripFingerprint.isDuplicate(tripIndex, 0, 2));
+	}
+
+	@Test
+	public void manyTrips() {
+		// more trips than the initial capacity, half of them duplicates
+		int count = 10000;
+		Trip[] trips = new Trip[count];
+		StopTimeTable table = new StopTimeTable();
+
+		for (int i = 0; i < count; i++) {
+			trips[i] = trip("t" + i, "weekday", null);
+			addStops(table, i, (i / 2) * 60, (i / 2) % 4, (i / 2 + 1) % 4);
+		}
+
+		TripIndex tripIndex = new TripIndex(trips, stops, table);
+		TripFingerprint fingerprints = new TripFingerprint(tripIndex);
+
+		for (int i = 0; i < count; i++) {
+			assertEquals(i % 2 == 0 ? -1 : i - 1, fingerprints.add(i));
+		}
+	}
+
+	private static Trip trip(String id, String serviceId, String blockId) {
+		Trip trip = new Trip();
+		trip.setId(new AgencyAndId("agency", id));
+		trip.setServiceId(new AgencyAndId("agency", serviceId));
+		trip.setBlockId(blockId);
+		return trip;
+	}
+
+	/** add stop times a minute apart, departing at the given time */
+	private static void addStops(StopTimeTable table, int trip, int departure, int... stopOrdinals) {
+		for (int i = 0; i < stopOrdinals.length; i++) {
+			int time = departure + i * 60;
+			table.add(trip, stopOrdinals[i], i + 1, time, time);
+		}
+	}
+}
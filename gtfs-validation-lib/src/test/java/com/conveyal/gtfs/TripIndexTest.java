@@ -0,0 +1,94 @@
+package com.conveyal.gtfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import com.conveyal.gtfs.model.StopTimeTable;
+import com.conveyal.gtfs.model.TripIndex;
+
+public class TripIndexTest extends UnitTestBaseUtil {
+
+	static GtfsRelationalDaoImpl gtfsMDao = null;
+	static TripIndex tripIndex = null;
+
+	@BeforeClass
+	public static void setUpClass() {
+		GtfsReader reader = new GtfsReader();
+		gtfsMDao = new GtfsRelationalDaoImpl();
+
+		File gtfsFile = new File("src/test/resources/st_gtfs_good.zip");
+
+		try {
+			reader.setInputLocation(gtfsFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		reader.setEntityStore(gtfsMDao);
+
+		try {
+			reader.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		tripIndex = new TripIndex(gtfsMDao.getAllTrips(), gtfsMDao.getAllStops(), gtfsMDao.getAllStopTimes());
+	}
+
+	@Test
+	public void allStopTimesIndexed() {
+		assertEquals(gtfsMDao.getAllStopTimes().size(), tripIndex.getStopTimeCount());
+		assertEquals(gtfsMDao.getAllTrips().size(), tripIndex.getTripCount());
+	}
+
+	@Test
+	public void sameStopTimesAsDao() {
+		for (Trip trip : gtfsMDao.getAllTrips()) {
+			List<StopTime> expected = gtfsMDao.getStopTimesForTrip(trip);
+
+			int ordinal = tripIndex.getTripOrdinal(trip.getId());
+			assertEquals(expected.size(), tripIndex.getStopTimeCount(ordinal));
+
+			int row = tripIndex.getStart(ordinal);
+			for (StopTime stopTime : expected) {
+				assertEquals(stopTime.getStop(), tripIndex.getStop(row));
+				assertEquals(stopTime.getStopSequence(), tripIndex.getStopSequence(row));
+				assertEquals(stopTime.getArrivalTime(), tripIndex.getArrivalTime(row));
+				assertEquals(stopTime.getDepartureTime(), tripIndex.getDepartureTime(row));
+				assertEquals(ordinal, tripIndex.getStopTimes().getTrip(row));
+				row++;
+			}
+		}
+	}
+
+	@Test
+	public void groupByTrip() {
+		StopTimeTable table = new StopTimeTable(2);
+		table.add(1, 10, 2, 200, 210);
+		table.add(0, 11, 5, 500, 500);
+		table.add(1, 12, 1, 100, 110);
+		table.add(0, 13, 4, 400, 400);
+		table.add(2, 14, 1, 50, 50);
+
+		int[] offsets = table.groupByTrip(3);
+
+		assertArrayEquals(new int[] {0, 2, 4, 5}, offsets);
+		assertEquals(13, table.getStop(0));
+		assertEquals(11, table.getStop(1));
+		assertEquals(12, table.getStop(2));
+		assertEquals(10, table.getStop(3));
+		assertEquals(210, table.getDepartureTime(3));
+		assertEquals(2, table.getTrip(4));
+	}
+}
@@ -60,6 +60,24 @@ public class ValidatorMainIntegrationTest extends UnitTestBaseUtil {
 			System.setOut(originalStream);
 		}
 	}
+
+	@Test
+	public void testAllGtfsStreaming() {
+		PrintStream originalStream = System.out;
+
+		setDummyPrintStream();
+		
+		try (Stream<Path> paths = getZipFiles()) {
+			paths
+			.filter(p -> !p.endsWith("gtfs_two_agencies.zip"))
+			.filter(p -> !p.endsWith("20170119.zip"))
+			.forEach(p -> ValidatorMain.main(new String[] {"--streaming", p.toString()}));
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} finally {
+			System.setOut(originalStream);
+		}
+	}
 	
 }
-
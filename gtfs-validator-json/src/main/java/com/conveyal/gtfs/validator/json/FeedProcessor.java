@@ -3,6 +3,7 @@ package com.conveyal.gtfs.validator.json;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.zip.ZipException;
 
@@ -10,21 +11,55 @@ import org.onebusaway.csv_entities.exceptions.CsvEntityIOException;
 import org.onebusaway.csv_entities.exceptions.MissingRequiredFieldException;
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.model.Agency;
-import org.onebusaway.gtfs.serialization.GtfsReader;
 
+import com.conveyal.gtfs.model.BlockInterval;
 import com.conveyal.gtfs.model.InvalidValue;
+import com.conveyal.gtfs.model.ValidationResult;
+import com.conveyal.gtfs.service.FeedContext;
+import com.conveyal.gtfs.service.FeedLoader;
+import com.conveyal.gtfs.service.GeoUtils;
+import com.conveyal.gtfs.service.GtfsTables;
 import com.conveyal.gtfs.service.GtfsValidationService;
 import com.conveyal.gtfs.service.StatisticsService;
+import com.conveyal.gtfs.service.StreamingValidationService;
+import com.conveyal.gtfs.service.ValidationScheduler;
 import com.conveyal.gtfs.service.impl.GtfsStatisticsService;
 
 /**
  * Process a feed and return the validation results and the statistics.
+ * 
+ * A feed can also be validated incrementally, given a {@link FeedSnapshot} of the last time it was validated. Each
+ * check declares the tables it reads, and only the checks that read a table that has changed since the snapshot are
+ * run again, on only the tables they need, along with any table that has changed, so that it is still checked for
+ * problems loading it; the results of the rest are taken from the snapshot. So are statistics whose tables have not
+ * changed. A feed whose agency.txt has changed, or that fails to load, is validated in full.
  * @author mattwigway
  */
 public class FeedProcessor {
+	/** the tables from which each of the statistics, except the agencies, are calculated */
+	private static final List<String> ROUTE_COUNT_TABLES = Arrays.asList(GtfsTables.ROUTES);
+	private static final List<String> TRIP_COUNT_TABLES = Arrays.asList(GtfsTables.TRIPS);
+	private static final List<String> STOP_TIMES_COUNT_TABLES = Arrays.asList(GtfsTables.STOP_TIMES);
+	private static final List<String> BOUNDS_TABLES = Arrays.asList(GtfsTables.STOPS);
+	private static final List<String> DATE_TABLES = Arrays.asList(GtfsTables.CALENDAR, GtfsTables.CALENDAR_DATES);
+
 	private File feed;
 	private GtfsRelationalDaoImpl dao;
+	private FeedContext context;
+	private boolean streaming = false;
+	private StreamingValidationService streamingService;
 	private FeedValidationResult output;
+
+	private boolean incremental = false;
+	private FeedSnapshot previous;
+	private Map<String, String> tableHashes;
+	/** the tables that have changed since the previous snapshot, or null if the whole feed is being validated */
+	private Set<String> changedTables;
+	/** the result of each check, before they are combined into the output */
+	private Map<String, ValidationResult> checks = new HashMap<String, ValidationResult>();
+	private LinkedHashMap<String, ArrayList<BlockInterval>> blockIntervals;
+	private FeedSnapshot snapshot;
+
 	private static Logger _log = Logger.getLogger(FeedProcessor.class.getName());
 	
 	/**
@@ -36,16 +71,116 @@ public class FeedProcessor {
 		this.output = new FeedValidationResult();
 	}
 	
+	/**
+	 * Check stop times as they are read, rather than reading the whole feed into memory first. Stops away from
+	 * shapes are not checked in this mode. A feed whose stop times are not grouped by trip is read into memory anyway.
+	 */
+	public void setStreaming (boolean streaming) {
+		this.streaming = streaming;
+	}
+	
+	/**
+	 * Validate only what may have changed since the feed was last validated, and keep a snapshot of this validation
+	 * for next time, which {@link #getSnapshot()} returns. This has no effect in streaming mode.
+	 * @param previous the snapshot of the last time this feed was validated, in the same way by the same version of
+	 * the validator, or null if there is none, in which case the whole feed is validated
+	 */
+	public void setIncremental (FeedSnapshot previous) {
+		this.incremental = true;
+		this.previous = previous;
+	}
+	
+	/**
+	 * @return a snapshot of this validation, to pass to {@link #setIncremental} the next time this feed is validated,
+	 * or null if the validation was not incremental, or the feed did not load
+	 */
+	public FeedSnapshot getSnapshot () {
+		return snapshot;
+	}
+	
 	/**
 	 * Load the feed and run the validator and calculate statistics.
 	 * @throws IOException
 	 */
 	public void run () throws IOException {
+		if (incremental && !streaming) {
+			if (!feed.exists() || !feed.canRead())
+				throw new IOException("File does not exist or not readable");
+
+			tableHashes = FeedSnapshot.hashTables(feed, previous);
+			if (previous != null && runChanged())
+				return;
+		}
+
 		load();
 		if (output.loadStatus.equals(LoadStatus.SUCCESS)) {
 			validate();
 			calculateStats();
+			takeSnapshot();
+		}
+	}
+	
+	/**
+	 * Run the checks that read tables that have changed since the previous snapshot.
+	 * @return false if the whole feed must be validated instead
+	 */
+	private boolean runChanged () throws IOException {
+		changedTables = previous.getChangedTables(tableHashes);
+		_log.info("Tables changed in " + feed.getName() + ": " + changedTables);
+
+		// the agency is part of every ID
+		if (!changedTables.contains(GtfsTables.AGENCY)) {
+			load(getTablesToLoad());
+
+			if (output.loadStatus.equals(LoadStatus.SUCCESS)) {
+				validate();
+				calculateStats();
+				takeSnapshot();
+				return true;
+			}
+
+			_log.warning("Unable to load the tables that changed in " + feed.getName() + "; validating all of it");
 		}
+
+		changedTables = null;
+		output = new FeedValidationResult();
+		checks.clear();
+		blockIntervals = null;
+		return false;
+	}
+	
+	/**
+	 * @return the tables that have changed and those read by the checks and statistics that will be run again
+	 */
+	private Set<String> getTablesToLoad () {
+		Set<String> tables = new HashSet<String>(changedTables);
+
+		for (List<String> inputs : Arrays.asList(GtfsValidationService.ROUTE_TABLES, GtfsValidationService.TRIP_TABLES,
+				GtfsValidationService.STOP_TABLES, GtfsValidationService.SHAPE_TABLES, ROUTE_COUNT_TABLES, TRIP_COUNT_TABLES,
+				STOP_TIMES_COUNT_TABLES, BOUNDS_TABLES, DATE_TABLES)) {
+			if (reruns(inputs))
+				tables.addAll(inputs);
+		}
+
+		// the block intervals are kept if only the calendars have changed
+		if (reruns(GtfsValidationService.BLOCK_INTERVAL_TABLES))
+			tables.addAll(GtfsValidationService.BLOCK_INTERVAL_TABLES);
+		if (reruns(GtfsValidationService.BLOCK_INTERVAL_TABLES) || reruns(GtfsValidationService.BLOCK_TABLES))
+			tables.addAll(GtfsValidationService.BLOCK_TABLES);
+
+		return tables;
+	}
+	
+	/**
+	 * @return true if a check or statistic that reads the given tables must be run, rather than taken from the snapshot
+	 */
+	private boolean reruns (List<String> tables) {
+		return changedTables == null || !Collections.disjoint(changedTables, tables);
+	}
+	
+	private void takeSnapshot () {
+		if (incremental && streamingService == null)
+			snapshot = new FeedSnapshot(tableHashes, checks, blockIntervals, output);
 	}
 	
 	/**
@@ -53,6 +188,13 @@ public class FeedProcessor {
 	 * @throws IOException 
 	 */
 	public void load () throws IOException {
+		load(null);
+	}
+	
+	/**
+	 * Load the given tables of the feed, or all of them if tables is null.
+	 */
+	private void load (Set<String> tables) throws IOException {
 		_log.fine("Loading GTFS");
 		
 		// check if the file is accessible
@@ -61,16 +203,29 @@ public class FeedProcessor {
 		
 		output.feedFileName = feed.getName();
 		
-		// note: we have two references because a GtfsDao is not mutable and we can't load to it,
-		// but a GtfsDaoImpl is.
-		GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
-		this.dao = dao;
-		GtfsReader reader = new GtfsReader();
-		reader.setEntityStore(dao);
 		// Exceptions here mean a problem with the file 
 		try {
-			reader.setInputLocation(feed);
-			reader.run();
+			if (streaming && tables == null)
+				streamingService = loadStreaming();
+			
+			if (streamingService != null) {
+				this.dao = streamingService.getDao();
+				this.context = streamingService.getContext();
+			}
+			else if (tables != null && tables.isEmpty()) {
+				// nothing has changed
+				this.dao = new GtfsRelationalDaoImpl();
+				this.context = new FeedContext(dao);
+			}
+			else {
+				// stop times and shapes are parsed without OneBusAway, unless they cannot be;
+				// nothing is derived from the feed until it is used, after loading
+				FeedLoader loader = new FeedLoader(feed);
+				loader.setTables(tables);
+				loader.load();
+				this.dao = loader.getDao();
+				this.context = loader.getContext();
+			}
 			output.loadStatus = LoadStatus.SUCCESS;
 		}
 		catch (ZipException e) {
@@ -99,51 +254,136 @@ public class FeedProcessor {
 	}
 	
 	/**
-	 * Run the GTFS validator
+	 * Read the feed in streaming mode.
+	 * @return the service holding the feed, or null if its stop times are not grouped by trip
+	 */
+	private StreamingValidationService loadStreaming () throws IOException {
+		StreamingValidationService streamingService = new StreamingValidationService();
+		try {
+			streamingService.load(feed);
+			return streamingService;
+		} catch (IllegalStateException e) {
+			_log.warning(e.getMessage() + "; reading " + feed.getName() + " into memory instead");
+			return null;
+		}
+	}
+	
+	/**
+	 * Run the GTFS validator. The checks are independent of one another, so they are run concurrently.
 	 */
 	public void validate () {
-		GtfsValidationService validator = new GtfsValidationService(dao);
+		GtfsValidationService validator = new GtfsValidationService(context);
+		ValidationScheduler scheduler = new ValidationScheduler();
+		
+		_log.fine("Validating routes, trips, stops and shapes");
+		// create the projections up front rather than in every check that needs them at once
+		if (reruns(GtfsValidationService.STOP_TABLES) || reruns(GtfsValidationService.SHAPE_TABLES))
+			GeoUtils.warmUp(context.getBounds());
+		submit(scheduler, "routes", GtfsValidationService.ROUTE_TABLES, validator::validateRoutes);
+		// reversed shapes are reported with both trips and shapes, but only need to be found once
+		if (streamingService != null) {
+			scheduler.submit("trips", streamingService::validateTrips);
+			scheduler.submit("shapes", streamingService::listReversedTripShapes);
+		}
+		else {
+			// blocks are checked separately, as the only part of the trips that reads the calendars
+			submit(scheduler, "trips", GtfsValidationService.TRIP_TABLES, () -> validator.validateTrips(false, false));
+			if (reruns(GtfsValidationService.BLOCK_INTERVAL_TABLES) || reruns(GtfsValidationService.BLOCK_TABLES))
+				scheduler.submit("blocks", () -> validateBlocks(validator));
+			else {
+				checks.put("blocks", previous.getCheck("blocks"));
+				blockIntervals = previous.getBlockIntervals();
+			}
+			submit(scheduler, "shapes", GtfsValidationService.SHAPE_TABLES, validator::listReversedTripShapes);
+		}
+		submit(scheduler, "stops", GtfsValidationService.STOP_TABLES, validator::duplicateStops);
+		
+		scheduler.awaitAll();
+		for (String name : scheduler.getTimings().keySet()) {
+			checks.put(name, scheduler.get(name));
+		}
 		
-		_log.fine("Validating routes");
-		output.routes = validator.validateRoutes();
-		_log.fine("Validating trips");
-		output.trips = validator.validateTrips();
-		_log.fine("Finding duplicate stops");
-		output.stops = validator.duplicateStops();
-		_log.fine("Checking shapes");
-		output.shapes = validator.listReversedTripShapes();
+		// combine copies, so that the result of each check is kept as it was
+		output.routes = copy(checks.get("routes"));
+		output.trips = copy(checks.get("trips"));
+		if (checks.containsKey("blocks"))
+			output.trips.append(checks.get("blocks"));
+		output.stops = copy(checks.get("stops"));
+		output.shapes = copy(checks.get("shapes"));
+		output.trips.append(output.shapes);
+		
+		_log.info("Validated " + feed.getName() + ": " + scheduler.formatTimings());
 		
 		// even though unused stops are found by validating trips, they make more sense as stop-level warnings
 		// move them over
-		Iterator<InvalidValue> tripIt = output.trips.invalidValues.iterator();
-		
-		while (tripIt.hasNext()) {
-			InvalidValue next = tripIt.next();
-			if (next.problemType.equals("UnusedStop")) {
-				output.stops.invalidValues.add(next);
-				tripIt.remove();
-			}					
+		for (InvalidValue unusedStop : output.trips.invalidValues.removeByProblemType("UnusedStop")) {
+			output.stops.add(unusedStop);
 		}
 	}
 	
+	/**
+	 * Run a check, unless none of the tables it reads have changed since the previous snapshot, in which case its
+	 * result is taken from that.
+	 */
+	private void submit (ValidationScheduler scheduler, String name, List<String> tables, Supplier<ValidationResult> check) {
+		if (reruns(tables))
+			scheduler.submit(name, check);
+		else
+			checks.put(name, previous.getCheck(name));
+	}
+	
+	/**
+	 * Check for overlapping trips in blocks, finding the trips in each block again only if the trips or stop times
+	 * have changed.
+	 */
+	private ValidationResult validateBlocks (GtfsValidationService validator) {
+		blockIntervals = reruns(GtfsValidationService.BLOCK_INTERVAL_TABLES) ? validator.getBlockIntervals() : previous.getBlockIntervals();
+		return validator.validateBlocks(blockIntervals);
+	}
+	
+	private static ValidationResult copy (ValidationResult result) {
+		ValidationResult copy = new ValidationResult();
+		copy.append(result);
+		return copy;
+	}
+	
 	/**
 	 * Calculate statistics for the GTFS feed.
 	 */
 	public void calculateStats () {
 		_log.fine("Calculating statistics");
 		
-		StatisticsService stats = new GtfsStatisticsService(dao);
+		// when validating incrementally, the statistics of tables that have not changed are kept
+		FeedValidationResult last = previous != null ? previous.getOutput() : null;
+		
+		StatisticsService stats = new GtfsStatisticsService(context);
 
 		Optional<Date> optionalCalDateStart = Optional.empty();
 		Optional<Date> optionalCalDateEnd = Optional.empty();
 		Date calDateStart = null;
 		Date calDateEnd = null;
 
-		output.agencyCount = stats.getAgencyCount();
-		output.routeCount = stats.getRouteCount();
-		output.tripCount = stats.getTripCount();
-		output.stopTimesCount = stats.getStopTimesCount();
-		output.bounds = stats.getBounds();
+		if (changedTables != null) {
+			output.agencyCount = last.agencyCount;
+			output.agencies = last.agencies;
+		}
+		else {
+			output.agencyCount = stats.getAgencyCount();
+		}
+		output.routeCount = reruns(ROUTE_COUNT_TABLES) ? stats.getRouteCount() : last.routeCount;
+		output.tripCount = reruns(TRIP_COUNT_TABLES) ? stats.getTripCount() : last.tripCount;
+		// in streaming mode, the stop times are counted as they are read rather than kept
+		if (streamingService != null)
+			output.stopTimesCount = streamingService.getStopTimeCount();
+		else
+			output.stopTimesCount = reruns(STOP_TIMES_COUNT_TABLES) ? stats.getStopTimesCount() : last.stopTimesCount;
+		output.bounds = reruns(BOUNDS_TABLES) ? stats.getBounds() : last.bounds;
+
+		if (!reruns(DATE_TABLES)) {
+			output.startDate = last.startDate;
+			output.endDate = last.endDate;
+			return;
+		}
 
 		optionalCalDateStart = stats.getCalendarDateStart();
 		if(optionalCalDateStart.isPresent()) {
@@ -176,6 +416,11 @@ public class FeedProcessor {
 		else
 			output.endDate = calDateEnd.after(calSvcEnd) ? calDateEnd : calSvcEnd;
 		
+		if (changedTables == null)
+			calculateAgencies();
+	}
+	
+	private void calculateAgencies () {
 		Collection<Agency> agencies = dao.getAllAgencies();
 		output.agencies = new HashSet<String>(agencies.size());
 		for (Agency agency : agencies) {
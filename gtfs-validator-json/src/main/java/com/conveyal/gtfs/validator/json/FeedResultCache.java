@@ -0,0 +1,261 @@
+package com.conveyal.gtfs.validator.json;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An on-disk cache of the results of validating feeds, so that a feed that has not changed since it was last
+ * validated is not validated again.
+ *
+ * Each result is kept in a file named by a key: the SHA-256 of the feed file (or of each of its tables, for a feed
+ * that is a directory), together with the version of the validator and a description of the configuration that
+ * affects the results. So a feed that has changed, a new validator or a different configuration simply misses, and
+ * nothing is ever invalidated. The name of the feed is not part of the key, so a feed that has been renamed but not
+ * changed still hits.
+ *
+ * A {@link FeedSnapshot} of the last validation of each feed is also kept, by the path of the feed rather than its
+ * contents, so that a feed that has changed can be validated again incrementally.
+ *
+ * Once the files add up to more than the size limit, those used least recently are removed. Reading a result
+ * touches its file, so that this holds from one run to the next.
+ */
+public class FeedResultCache {
+	private static final String SUFFIX = ".result";
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	private static Logger _log = Logger.getLogger(FeedResultCache.class.getName());
+
+	private File directory;
+	private long maxBytes;
+	private String version = getValidatorVersion();
+
+	/**
+	 * Create a cache in the given directory, which is created if it does not exist, and which can be shared by runs
+	 * of the validator at the same time.
+	 * @param maxBytes the most that the cached results may take up on disk
+	 */
+	public FeedResultCache (File directory, long maxBytes) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create cache directory " + directory.getPath());
+
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Compute the key of the result of validating a feed, which is a zip file or a directory. A directory is hashed
+	 * by the names and contents of the tables in it.
+	 * @param configuration everything besides the feed and the validator that affects the result
+	 * @throws IOException if the feed cannot be read
+	 */
+	public String getKey (File feed, String configuration) throws IOException {
+		MessageDigest digest = sha256();
+
+		if (feed.isDirectory()) {
+			for (Map.Entry<String, String> table : new TreeMap<String, String>(FeedSnapshot.hashTables(feed)).entrySet()) {
+				digest.update((table.getKey() + "=" + table.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		else {
+			try (InputStream in = new FileInputStream(feed)) {
+				byte[] buf = new byte[1 << 16];
+				int read;
+				while ((read = in.read(buf)) > 0) {
+					digest.update(buf, 0, read);
+				}
+			}
+		}
+
+		byte[] feedHash = digest.digest();
+
+		digest.update(feedHash);
+		digest.update((version + "\n" + configuration).getBytes(StandardCharsets.UTF_8));
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Compute the key of the snapshot of the last validation of a feed, which depends on where the feed is rather
+	 * than what it contains.
+	 * @param configuration everything besides the feed and the validator that affects the result
+	 * @throws IOException if the path of the feed cannot be found
+	 */
+	public String getSnapshotKey (File feed, String configuration) throws IOException {
+		MessageDigest digest = sha256();
+		digest.update((feed.getCanonicalPath() + "\n" + version + "\n" + configuration).getBytes(StandardCharsets.UTF_8));
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Get a cached result.
+	 * @return the result, or null if there is none, or if it cannot be read (such as when it was written by a
+	 * different version of the validator)
+	 */
+	public FeedValidationResult get (String key) {
+		return read(new File(directory, key + SUFFIX), FeedValidationResult.class);
+	}
+
+	/**
+	 * Cache a result, and evict the least recently used results if the cache has grown too large. A result that
+	 * cannot be written is not cached, and a warning is logged.
+	 */
+	public void put (String key, FeedValidationResult result) {
+		write(new File(directory, key + SUFFIX), result, result.feedFileName);
+	}
+
+	/**
+	 * Get the snapshot of the last validation of a feed.
+	 * @return the snapshot, or null if there is none, or if it cannot be read
+	 */
+	public FeedSnapshot getSnapshot (String key) {
+		return read(new File(directory, key + SNAPSHOT_SUFFIX), FeedSnapshot.class);
+	}
+
+	/**
+	 * Keep the snapshot of the validation of a feed, replacing the last one, and evict the least recently used files
+	 * if the cache has grown too large.
+	 */
+	public void putSnapshot (String key, FeedSnapshot snapshot) {
+		write(new File(directory, key + SNAPSHOT_SUFFIX), snapshot, snapshot.getOutput().feedFileName);
+	}
+
+	private <T> T read (File file, Class<T> type) {
+		if (!file.exists())
+			return null;
+
+		try (ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+			T result = type.cast(in.readObject());
+			// keep it from being evicted before those that have not been used since
+			file.setLastModified(System.currentTimeMillis());
+			return result;
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			// it may have been evicted since it was found, by another run
+			if (file.exists()) {
+				_log.warning("Unable to read cached result " + file.getName() + ", removing it: " + e);
+				file.delete();
+			}
+			return null;
+		}
+	}
+
+	private void write (File file, Object result, String feedFileName) {
+		File temp = null;
+
+		try {
+			// write to a file of our own, so that no other thread or run ever reads a partial result
+			temp = File.createTempFile("result", ".tmp", directory);
+			try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))) {
+				out.writeObject(result);
+			}
+
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			_log.warning("Unable to cache result for " + feedFileName + ": " + e);
+			if (temp != null)
+				temp.delete();
+			return;
+		}
+
+		evict();
+	}
+
+	/**
+	 * Remove the least recently used results and snapshots until the rest fit within the size limit.
+	 */
+	synchronized void evict () {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX) || name.endsWith(SNAPSHOT_SUFFIX));
+		if (files == null)
+			return;
+
+		long[] lastModified = new long[files.length];
+		long total = 0;
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			// read once, since another run may touch them while they are being sorted
+			lastModified[i] = files[i].lastModified();
+			total += files[i].length();
+			order[i] = i;
+		}
+
+		if (total <= maxBytes)
+			return;
+
+		Arrays.sort(order, Comparator.comparingLong(i -> lastModified[i]));
+
+		for (int i = 0; i < order.length && total > maxBytes; i++) {
+			File file = files[order[i]];
+			long length = file.length();
+			if (file.delete()) {
+				_log.fine("Evicted cached result " + file.getName());
+				total -= length;
+			}
+		}
+	}
+
+	/**
+	 * @return the version of the validator, so that results are not shared between versions: the version in the
+	 * manifest of the jar, if any, and the size and modification time of the jar itself, so that a snapshot
+	 * that has been rebuilt does not see the results of the last one.
+	 */
+	static String getValidatorVersion () {
+		String version = FeedResultCache.class.getPackage().getImplementationVersion();
+		// run from the classes rather than a jar, as in development
+		if (version == null)
+			version = "unversioned";
+
+		try {
+			CodeSource source = FeedResultCache.class.getProtectionDomain().getCodeSource();
+			if (source != null) {
+				File jar = new File(source.getLocation().toURI());
+				if (jar.isFile())
+					version += "/" + jar.length() + "/" + jar.lastModified();
+			}
+		} catch (URISyntaxException | IllegalArgumentException | SecurityException e) {
+			_log.fine("Unable to find validator jar: " + e);
+		}
+
+		return version;
+	}
+
+	static MessageDigest sha256 () {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex (byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,141 @@
+package com.conveyal.gtfs.validator.json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.conveyal.gtfs.model.BlockInterval;
+import com.conveyal.gtfs.model.ValidationResult;
+import com.conveyal.gtfs.service.GtfsTables;
+
+/**
+ * What was found when a feed was last validated, kept so that the next time only the checks that read tables
+ * that have changed need to be run again: a hash of the contents of each table, the result of each check before
+ * they were combined into the output, and the output itself, for its statistics.
+ *
+ * The trips in a block, and when each of them runs, are also kept, since they are found from the stop times but
+ * checked against the calendars. So a feed where only the calendars have changed need not have its stop times read.
+ */
+public class FeedSnapshot implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private Map<String, String> tableHashes;
+	private Map<String, ValidationResult> checks;
+	private LinkedHashMap<String, ArrayList<BlockInterval>> blockIntervals;
+	private FeedValidationResult output;
+
+	public FeedSnapshot (Map<String, String> tableHashes, Map<String, ValidationResult> checks,
+			LinkedHashMap<String, ArrayList<BlockInterval>> blockIntervals, FeedValidationResult output) {
+		this.tableHashes = new HashMap<String, String>(tableHashes);
+		this.checks = new HashMap<String, ValidationResult>(checks);
+		this.blockIntervals = blockIntervals;
+		this.output = output;
+	}
+
+	/**
+	 * Hash the contents of each of the tables of a feed that OneBusAway reads, which is a zip file or a directory.
+	 * Other files do not affect the result of validating it, and are not hashed.
+	 * @return the hash of each table that is in the feed, by file name
+	 */
+	public static Map<String, String> hashTables (File feed) throws IOException {
+		return hashTables(feed, null);
+	}
+
+	/**
+	 * Hash the contents of each of the tables of a feed, as {@link #hashTables(File)} does, but without reading the
+	 * tables of a zip file whose CRC-32 and size are the same as when the previous snapshot was taken. Those are
+	 * in the central directory of the zip, so a feed where only one small table has changed is hashed without
+	 * decompressing the rest. The tables of a directory are always read.
+	 * @param previous the snapshot of the last time the feed was validated, or null
+	 */
+	public static Map<String, String> hashTables (File feed, FeedSnapshot previous) throws IOException {
+		Map<String, String> hashes = new HashMap<String, String>();
+		Set<String> tables = new TreeSet<String>(GtfsTables.getTables());
+
+		if (feed.isDirectory()) {
+			for (String table : tables) {
+				File file = new File(feed, table);
+				if (file.isFile()) {
+					try (InputStream in = new FileInputStream(file)) {
+						hashes.put(table, hash(in));
+					}
+				}
+			}
+			return hashes;
+		}
+
+		try (ZipFile zip = new ZipFile(feed)) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!tables.contains(entry.getName()))
+					continue;
+
+				// the hash of a table in a zip starts with its CRC and size, which are compared first
+				String prefix = entry.getCrc() != -1 && entry.getSize() != -1 ? entry.getCrc() + ":" + entry.getSize() + ":" : null;
+				String last = previous != null ? previous.tableHashes.get(entry.getName()) : null;
+				if (prefix != null && last != null && last.startsWith(prefix)) {
+					hashes.put(entry.getName(), last);
+					continue;
+				}
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					hashes.put(entry.getName(), (prefix != null ? prefix : "") + hash(in));
+				}
+			}
+		}
+
+		return hashes;
+	}
+
+	/**
+	 * @return the names of the tables whose contents differ between this snapshot and the given hashes, including
+	 * those that have been added or removed
+	 */
+	public Set<String> getChangedTables (Map<String, String> hashes) {
+		Set<String> changed = new TreeSet<String>();
+		for (String table : GtfsTables.getTables()) {
+			if (!Objects.equals(tableHashes.get(table), hashes.get(table)))
+				changed.add(table);
+		}
+		return changed;
+	}
+
+	/** @return the result of the named check, before it was combined with the others, or null if it was not run */
+	public ValidationResult getCheck (String name) {
+		return checks.get(name);
+	}
+
+	/** @return the trips in each block, and when they run */
+	public LinkedHashMap<String, ArrayList<BlockInterval>> getBlockIntervals () {
+		return blockIntervals;
+	}
+
+	/** @return the output of the validation, whose statistics can be kept if the tables they come from have not changed */
+	public FeedValidationResult getOutput () {
+		return output;
+	}
+
+	private static String hash (InputStream in) throws IOException {
+		MessageDigest digest = FeedResultCache.sha256();
+		byte[] buf = new byte[1 << 16];
+		int read;
+		while ((read = in.read(buf)) > 0) {
+			digest.update(buf, 0, read);
+		}
+		return FeedResultCache.toHex(digest.digest());
+	}
+}
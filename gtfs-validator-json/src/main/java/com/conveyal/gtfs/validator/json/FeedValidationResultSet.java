@@ -1,6 +1,6 @@
 package com.conveyal.gtfs.validator.json;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -40,15 +40,16 @@ public class FeedValidationResultSet {
     private int loadCount;
 
     /**
-     * The validation results of all of the feeds.
+     * The validation results of all of the feeds, in the order they were added.
      */
     @JsonProperty
     private Set<FeedValidationResult> results;
 
     /**
-     * Add a feed validation result to this result set.
+     * Add a feed validation result to this result set. This is safe to call from multiple threads,
+     * although callers that want a repeatable order should add results in a fixed order.
      */
-    public void add(FeedValidationResult results) {
+    public synchronized void add(FeedValidationResult results) {
         this.results.add(results);
         feedCount++;
         if (LoadStatus.SUCCESS.equals(results.loadStatus))
@@ -60,7 +61,7 @@ public class FeedValidationResultSet {
      * @param capacity initial capacity
      */
     public FeedValidationResultSet (int capacity) {
-        this.results = new HashSet<FeedValidationResult>(capacity);
+        this.results = new LinkedHashSet<FeedValidationResult>(capacity);
         this.date = new Date();
     }
     
@@ -2,51 +2,128 @@ package com.conveyal.gtfs.validator.json;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.conveyal.gtfs.validator.json.backends.FileSystemFeedBackend;
-import com.conveyal.gtfs.validator.json.serialization.JsonSerializer;
+import com.conveyal.gtfs.validator.json.serialization.StreamingJsonSerializer;
 
 public class JsonValidatorMain {
 
     /**
      * Take an input GTFS and an output file and write JSON to that output file summarizing validation of the GTFS.
+     * 
+     * Options, which must come before the feeds:
+     *   --threads n        validate up to n feeds at once (default 1)
+     *   --heap-budget mb   only start a feed when the estimated heap of all feeds in flight fits in mb megabytes
+     *                      (default three quarters of the maximum heap)
+     *   --streaming        check stop times as they are read, rather than reading each feed into memory first
+     *   --cache dir        keep the results of each feed in dir, and use them rather than validating a feed
+     *                      again if neither it nor the validator nor these options have changed
+     *   --cache-size mb    remove the least recently used results once dir holds more than mb megabytes (default 1024)
      * @param args
      */
     public static void main(String[] args) throws Exception {
-        if (args.length < 2) {
-            System.err.println("usage: java -Xmx[several]G input_gtfs.zip [other_gtfs.zip third_gtfs.zip . . .] output_file.json");
+        int threads = 1;
+        long heapBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+        boolean streaming = false;
+        File cacheDirectory = null;
+        long cacheSize = 1024L * 1024 * 1024;
+
+        int firstFeed = 0;
+        try {
+            while (firstFeed < args.length && args[firstFeed].startsWith("--")) {
+                String option = args[firstFeed++];
+                if ("--streaming".equals(option)) {
+                    streaming = true;
+                    continue;
+                }
+
+                if (firstFeed >= args.length)
+                    throw new IllegalArgumentException("Option " + option + " requires a value");
+
+                if ("--threads".equals(option))
+                    threads = Integer.parseInt(args[firstFeed++]);
+                else if ("--heap-budget".equals(option))
+                    heapBudget = Long.parseLong(args[firstFeed++]) * 1024 * 1024;
+                else if ("--cache".equals(option))
+                    cacheDirectory = new File(args[firstFeed++]);
+                else if ("--cache-size".equals(option))
+                    cacheSize = Long.parseLong(args[firstFeed++]) * 1024 * 1024;
+                else
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            return;
+        }
+
+        if (args.length - firstFeed < 2) {
+            printUsage();
             return;
         }
 
         // We use a file system backend because we're not doing anything fancy, just reading local GTFS
         FileSystemFeedBackend backend = new FileSystemFeedBackend();
         
-        // Since we're processing multiple feeds (potentially), use a FeedValidationResultSet to save the output
-        FeedValidationResultSet results = new FeedValidationResultSet();
-        
         // default name is directory name
-        results.name = new File(args[0]).getAbsoluteFile().getParentFile().getName();
+        String name = new File(args[firstFeed]).getAbsoluteFile().getParentFile().getName();
         
-        // loop over all arguments except the last (which is the name of the JSON file)
-        // TODO: throw all feeds in a queue and run as many threads as we have cores to do the validation
-        // not exactly urgent, since for all of New York State this takes only a few minutes on my laptop
-        for (int i = 0; i < args.length - 1; i++) {
-            File input = backend.getFeed(args[i]);
-            System.err.println("Processing feed " + input.getName());
-            FeedProcessor processor = new FeedProcessor(input);
-            try {
-                processor.run();
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.err.println("Unable to access input GTFS " + input.getPath() + ". Does the file exist and do I have permission to read it?");
-                return;
-            }
-
-            results.add(processor.getOutput());
+        // all arguments except the last (which is the name of the JSON file) are feeds
+        List<File> feeds = new ArrayList<File>(args.length - firstFeed - 1);
+        for (int i = firstFeed; i < args.length - 1; i++) {
+            feeds.add(backend.getFeed(args[i]));
         }
-        
-        JsonSerializer serializer = new JsonSerializer(results);
+
+        ParallelFeedValidator validator = new ParallelFeedValidator(threads, heapBudget);
+        validator.setStreaming(streaming);
+
+        // Since we're processing multiple feeds (potentially), write the result of each as soon as it is done,
+        // rather than keeping them all in memory until the end. They are written to a file next to the output,
+        // which replaces the output only once every feed has been validated, so that a run that fails leaves the
+        // output of the last run as it was.
+        File output = new File(args[args.length - 1]).getAbsoluteFile();
+        File temp = File.createTempFile("results", ".tmp", output.getParentFile());
         // TODO: error handling
-        serializer.serializeToFile(new File(args[args.length - 1]));
+        StreamingJsonSerializer serializer = new StreamingJsonSerializer(temp, name);
+        boolean complete = false;
+        try {
+            if (cacheDirectory != null)
+                validator.setCache(new FeedResultCache(cacheDirectory, cacheSize));
+            validator.run(feeds, serializer::add);
+            complete = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println(e.getMessage() + ". Does the file exist and do I have permission to read it?");
+        } finally {
+            serializer.close();
+            if (!complete)
+                temp.delete();
+        }
+
+        if (complete)
+            replace(temp, output);
+    }
+
+    /**
+     * Move a file over another, so that nothing ever reads a partly written file in its place.
+     */
+    private static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            source.delete();
+            throw e;
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("usage: java -Xmx[several]G [--threads n] [--heap-budget mb] [--streaming] [--cache dir [--cache-size mb]] input_gtfs.zip [other_gtfs.zip third_gtfs.zip . . .] output_file.json");
     }
 }
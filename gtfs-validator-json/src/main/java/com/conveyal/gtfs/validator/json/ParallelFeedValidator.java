@@ -0,0 +1,234 @@
+package com.conveyal.gtfs.validator.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+import com.conveyal.gtfs.service.GeoUtils;
+import com.conveyal.gtfs.service.PointIndex;
+
+/**
+ * Run a FeedProcessor on each of a number of feeds using a bounded pool of worker threads.
+ *
+ * Each feed is loaded entirely into memory while it is validated, so the number of feeds that
+ * can be in flight at once is limited both by a thread count and by a budget on the estimated
+ * heap the feeds will need. A feed whose estimate exceeds the whole budget is still processed,
+ * but on its own.
+ *
+ * Results are added to the result set in the order the feeds were given, regardless of the
+ * order in which the workers finish.
+ *
+ * With a {@link FeedResultCache}, a feed that has been validated before with the same configuration
+ * is not loaded at all, and takes no part of the heap budget. One that has changed since it was last
+ * validated from the same path is validated incrementally, running only the checks that read the
+ * tables that have changed.
+ */
+public class ParallelFeedValidator {
+	/**
+	 * Rough ratio of heap used by a loaded feed to the size of the zip file it came from.
+	 * GTFS zips compress about tenfold, and the OneBusAway model objects are several times larger
+	 * than the CSV they were read from.
+	 */
+	public static final long HEAP_BYTES_PER_ZIP_BYTE = 50;
+
+	private static final long MEGABYTE = 1024 * 1024;
+
+	private static Logger _log = Logger.getLogger(ParallelFeedValidator.class.getName());
+
+	private int threads;
+
+	/** heap budget in megabytes; the semaphore works in megabytes so large budgets fit in an int */
+	private int heapBudgetMb;
+
+	private boolean streaming = false;
+
+	private FeedResultCache cache;
+
+	/**
+	 * Create a validator that runs at most threads feeds at once, and at most as many as fit in
+	 * heapBudget bytes of estimated heap.
+	 * @param threads the maximum number of feeds to validate concurrently
+	 * @param heapBudget the estimated heap, in bytes, that feeds in flight may use
+	 */
+	public ParallelFeedValidator (int threads, long heapBudget) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Need at least one worker thread");
+
+		this.threads = threads;
+		this.heapBudgetMb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, heapBudget / MEGABYTE));
+	}
+
+	/**
+	 * Create a validator using one thread per core and three quarters of the maximum heap.
+	 */
+	public ParallelFeedValidator () {
+		this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 4 * 3);
+	}
+
+	/**
+	 * Validate the feeds in streaming mode; see {@link FeedProcessor#setStreaming(boolean)}. The heap estimates
+	 * are not changed, since a feed may still need to be read into memory.
+	 */
+	public void setStreaming (boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Take the results of feeds that have not changed since they were last validated from a cache, and
+	 * cache the results of the others.
+	 */
+	public void setCache (FeedResultCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Describe everything besides the feed and the validator that affects the result of validating it,
+	 * for the cache.
+	 */
+	String getConfiguration () {
+		return "streaming=" + streaming
+				+ " projection=" + GeoUtils.getProjectionEngine()
+				+ " pointIndex=" + PointIndex.getDefaultType()
+				// service dates are turned into Dates in the default time zone
+				+ " timeZone=" + TimeZone.getDefault().getID();
+	}
+
+	/**
+	 * Receives the result of each feed as soon as it, and those of the feeds before it, have been validated.
+	 */
+	public interface ResultConsumer {
+		void add (FeedValidationResult result) throws IOException;
+	}
+
+	/**
+	 * Validate all of the feeds and add their results to the result set, in the order of the feeds list.
+	 * @throws IOException if any feed could not be read; no further results are added in that case.
+	 */
+	public void run (List<File> feeds, FeedValidationResultSet results) throws IOException {
+		run(feeds, results::add);
+	}
+
+	/**
+	 * Validate all of the feeds and pass their results to the consumer, in the order of the feeds list. No reference
+	 * to a result is kept once it has been passed on, so a consumer that writes the results out, such as a
+	 * {@link com.conveyal.gtfs.validator.json.serialization.StreamingJsonSerializer}, need not keep the results of
+	 * every feed in memory at once.
+	 * @throws IOException if any feed could not be read, or the consumer throws one; no further results are added
+	 * in that case.
+	 */
+	public void run (List<File> feeds, ResultConsumer results) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Semaphore heapBudget = new Semaphore(heapBudgetMb, true);
+		String configuration = getConfiguration();
+
+		List<Future<FeedValidationResult>> futures = new ArrayList<Future<FeedValidationResult>>(feeds.size());
+
+		try {
+			for (File feed : feeds) {
+				futures.add(executor.submit(new FeedTask(feed, heapBudget, configuration)));
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					FeedValidationResult result = futures.get(i).get();
+					futures.set(i, null);
+					results.add(result);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException)
+						throw new IOException("Unable to access input GTFS " + feeds.get(i).getPath(), cause);
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new IllegalStateException(cause);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while validating " + feeds.get(i).getPath(), e);
+				}
+			}
+		} finally {
+			// stop any feeds that have not yet started if we bailed out early
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Estimate the heap, in megabytes, needed to validate a feed, capped at the whole budget so
+	 * that oversized feeds run alone rather than never.
+	 */
+	int estimateHeapMb (File feed) {
+		long estimate = feed.length() * HEAP_BYTES_PER_ZIP_BYTE / MEGABYTE;
+		return (int) Math.max(1, Math.min(heapBudgetMb, estimate));
+	}
+
+	/**
+	 * Validate a single feed once there is room for it in the heap budget, unless its result is cached.
+	 */
+	private class FeedTask implements Callable<FeedValidationResult> {
+		private File feed;
+		private Semaphore heapBudget;
+		private String configuration;
+
+		private FeedTask (File feed, Semaphore heapBudget, String configuration) {
+			this.feed = feed;
+			this.heapBudget = heapBudget;
+			this.configuration = configuration;
+		}
+
+		@Override
+		public FeedValidationResult call() throws Exception {
+			if (cache == null)
+				return validate(newProcessor());
+
+			String key = cache.getKey(feed, configuration);
+			FeedValidationResult result = cache.get(key);
+			if (result != null) {
+				System.err.println("Using cached result for feed " + feed.getName());
+				result.feedFileName = feed.getName();
+				return result;
+			}
+
+			FeedProcessor processor = newProcessor();
+			String snapshotKey = cache.getSnapshotKey(feed, configuration);
+			if (!streaming)
+				processor.setIncremental(cache.getSnapshot(snapshotKey));
+
+			result = validate(processor);
+			// a feed that could not be read for some other reason may be readable next time
+			if (!LoadStatus.OTHER_FAILURE.equals(result.loadStatus))
+				cache.put(key, result);
+			if (processor.getSnapshot() != null)
+				cache.putSnapshot(snapshotKey, processor.getSnapshot());
+			return result;
+		}
+
+		private FeedProcessor newProcessor() {
+			FeedProcessor processor = new FeedProcessor(feed);
+			processor.setStreaming(streaming);
+			return processor;
+		}
+
+		private FeedValidationResult validate(FeedProcessor processor) throws IOException, InterruptedException {
+			int permits = estimateHeapMb(feed);
+			heapBudget.acquire(permits);
+			try {
+				System.err.println("Processing feed " + feed.getName());
+				_log.fine("Reserved " + permits + "MB of heap for " + feed.getName());
+				processor.run();
+				return processor.getOutput();
+			} finally {
+				heapBudget.release(permits);
+			}
+		}
+	}
+}
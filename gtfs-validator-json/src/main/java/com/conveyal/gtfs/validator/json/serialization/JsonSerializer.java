@@ -29,14 +29,26 @@ public class JsonSerializer extends Serializer {
 	 */
 	public JsonSerializer (FeedValidationResultSet results) {
 		super(results);
-		mapper = new ObjectMapper();
+		mapper = createMapper();
+		writer = createWriter(mapper);
+	}
+	
+	/**
+	 * Create a mapper that reads and writes the bounds of a feed as west, east, south and north.
+	 */
+	static ObjectMapper createMapper () {
+		ObjectMapper mapper = new ObjectMapper();
 		mapper.addMixInAnnotations(Rectangle2D.class, Rectangle2DMixIn.class);
 		SimpleModule deser = new SimpleModule();
 		deser.addDeserializer(Rectangle2D.class, new Rectangle2DDeserializer());
 		mapper.registerModule(deser);
+		return mapper;
+	}
+	
+	static ObjectWriter createWriter (ObjectMapper mapper) {
 		SimpleFilterProvider filters = new SimpleFilterProvider();
 		filters.addFilter("bbox", SimpleBeanPropertyFilter.filterOutAllExcept("west", "east", "south", "north"));
-		writer = mapper.writer(filters);
+		return mapper.writer(filters);
 	}
 	
 	/**
@@ -0,0 +1,89 @@
+package com.conveyal.gtfs.validator.json.serialization;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import com.conveyal.gtfs.validator.json.FeedValidationResult;
+import com.conveyal.gtfs.validator.json.FeedValidationResultSet;
+import com.conveyal.gtfs.validator.json.LoadStatus;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Write validation results to a JSON file as each feed is validated, rather than all at once at the end, so that
+ * the results of each feed can be garbage collected as soon as they are written, and the memory needed depends on
+ * the largest feed rather than on all of them.
+ *
+ * The file has the same fields as a {@link FeedValidationResultSet} written by {@link JsonSerializer}, but the counts
+ * come after the results, since they are not known until the end.
+ */
+public class StreamingJsonSerializer implements Closeable {
+	private ObjectWriter writer;
+	private JsonGenerator generator;
+	private int feedCount;
+	private int loadCount;
+	private boolean closed = false;
+
+	/**
+	 * Start writing the results of a validator run to a file.
+	 * @param name the name of the feedset, as {@link FeedValidationResultSet#name}
+	 * @param date the date of the run
+	 */
+	public StreamingJsonSerializer (File file, String name, Date date) throws IOException {
+		ObjectMapper mapper = JsonSerializer.createMapper();
+		writer = JsonSerializer.createWriter(mapper);
+		generator = mapper.getFactory().createGenerator(file, JsonEncoding.UTF8);
+
+		generator.writeStartObject();
+		generator.writeStringField("name", name);
+		generator.writeFieldName("date");
+		writer.writeValue(generator, date);
+		generator.writeFieldName("results");
+		generator.writeStartArray();
+	}
+
+	/**
+	 * Start writing the results of a validator run that starts now to a file.
+	 */
+	public StreamingJsonSerializer (File file, String name) throws IOException {
+		this(file, name, new Date());
+	}
+
+	/**
+	 * Write the results of a feed. This is safe to call from multiple threads, and the results are written in the
+	 * order they are added.
+	 */
+	public synchronized void add (FeedValidationResult result) throws IOException {
+		if (closed)
+			throw new IllegalStateException("Results have already been closed");
+
+		// this flushes, so nothing of the result is kept here
+		writer.writeValue(generator, result);
+		feedCount++;
+		if (LoadStatus.SUCCESS.equals(result.loadStatus))
+			loadCount++;
+	}
+
+	/**
+	 * Write the counts of feeds, and finish the file.
+	 */
+	@Override
+	public synchronized void close () throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		try {
+			generator.writeEndArray();
+			generator.writeNumberField("feedCount", feedCount);
+			generator.writeNumberField("loadCount", loadCount);
+			generator.writeEndObject();
+		} finally {
+			generator.close();
+		}
+	}
+}
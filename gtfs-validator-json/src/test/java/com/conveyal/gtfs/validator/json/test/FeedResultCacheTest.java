@@ -0,0 +1,148 @@
+package com.conveyal.gtfs.validator.json.test;
+
+import com.conveyal.gtfs.validator.json.FeedProcessor;
+import com.conveyal.gtfs.validator.json.FeedResultCache;
+import com.conveyal.gtfs.validator.json.FeedValidationResult;
+import com.conveyal.gtfs.validator.json.ParallelFeedValidator;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FeedResultCacheTest {
+
+    private static File feed = new File("src/test/resources/test_gtfs1.zip");
+
+    private static FeedValidationResult result;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        FeedProcessor processor = new FeedProcessor(feed);
+        processor.run();
+        result = processor.getOutput();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        FeedResultCache cache = new FeedResultCache(Files.createTempDirectory("cache").toFile(), Long.MAX_VALUE);
+        String key = cache.getKey(feed, "streaming=false");
+
+        assertNull(cache.get(key));
+        cache.put(key, result);
+
+        FeedValidationResult cached = cache.get(key);
+        assertNotNull(cached);
+        assertEquals(result.loadStatus, cached.loadStatus);
+        assertEquals(result.agencies, cached.agencies);
+        assertEquals(result.tripCount, cached.tripCount);
+        assertEquals(result.stopTimesCount, cached.stopTimesCount);
+        assertEquals(result.startDate, cached.startDate);
+        assertEquals(result.bounds, cached.bounds);
+        assertEquals(result.routes.invalidValues, cached.routes.invalidValues);
+        assertEquals(result.stops.invalidValues, cached.stops.invalidValues);
+        assertEquals(result.trips.invalidValues, cached.trips.invalidValues);
+        assertEquals(result.shapes.invalidValues, cached.shapes.invalidValues);
+    }
+
+    @Test
+    public void keyDependsOnContentAndConfiguration() throws IOException {
+        FeedResultCache cache = new FeedResultCache(Files.createTempDirectory("cache").toFile(), Long.MAX_VALUE);
+
+        File renamed = File.createTempFile("renamed", ".zip");
+        renamed.deleteOnExit();
+        Files.copy(feed.toPath(), renamed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        assertEquals(cache.getKey(feed, "streaming=false"), cache.getKey(renamed, "streaming=false"));
+        assertFalse(cache.getKey(feed, "streaming=false").equals(cache.getKey(feed, "streaming=true")));
+
+        // the same feed with a byte more
+        File changed = File.createTempFile("changed", ".zip");
+        changed.deleteOnExit();
+        Files.copy(feed.toPath(), changed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(changed.toPath(), new byte[] {0}, StandardOpenOption.APPEND);
+
+        assertFalse(cache.getKey(feed, "streaming=false").equals(cache.getKey(changed, "streaming=false")));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        File directory = Files.createTempDirectory("cache").toFile();
+
+        // find out how large one result is
+        FeedResultCache sizing = new FeedResultCache(directory, Long.MAX_VALUE);
+        sizing.put("size", result);
+        long size = new File(directory, "size.result").length();
+        assertTrue(new File(directory, "size.result").delete());
+
+        // room for two results and a half
+        FeedResultCache cache = new FeedResultCache(directory, size * 5 / 2);
+        long now = System.currentTimeMillis();
+
+        cache.put("a", result);
+        new File(directory, "a.result").setLastModified(now - 20000);
+        cache.put("b", result);
+        new File(directory, "b.result").setLastModified(now - 10000);
+
+        // a is now the most recently used
+        assertNotNull(cache.get("a"));
+        cache.put("c", result);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void directoryFeed() throws IOException {
+        File directory = Files.createTempDirectory("feed").toFile();
+        try (ZipFile zip = new ZipFile(feed)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    Files.copy(in, new File(directory, entry.getName()).toPath());
+                }
+            }
+        }
+
+        File cacheDirectory = Files.createTempDirectory("cache").toFile();
+        FeedResultCache cache = new FeedResultCache(cacheDirectory, Long.MAX_VALUE);
+        String key = cache.getKey(directory, "streaming=false");
+
+        ParallelFeedValidator validator = new ParallelFeedValidator(1, Long.MAX_VALUE);
+        validator.setCache(cache);
+
+        List<FeedValidationResult> first = new ArrayList<FeedValidationResult>();
+        validator.run(Arrays.asList(directory), first::add);
+        assertEquals(result.tripCount, first.get(0).tripCount);
+        assertEquals(1, cacheDirectory.listFiles((dir, name) -> name.endsWith(".result")).length);
+
+        // again, from the cache
+        List<FeedValidationResult> second = new ArrayList<FeedValidationResult>();
+        validator.run(Arrays.asList(directory), second::add);
+        assertEquals(result.tripCount, second.get(0).tripCount);
+
+        // a table that has changed changes the key
+        Files.write(new File(directory, "stops.txt").toPath(), new byte[] {'\n'}, StandardOpenOption.APPEND);
+        assertFalse(key.equals(cache.getKey(directory, "streaming=false")));
+    }
+}
@@ -0,0 +1,139 @@
+package com.conveyal.gtfs.validator.json.test;
+
+import com.conveyal.gtfs.validator.json.FeedProcessor;
+import com.conveyal.gtfs.validator.json.FeedSnapshot;
+import com.conveyal.gtfs.validator.json.FeedValidationResult;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class IncrementalValidationTest {
+
+    private static File feed = new File("src/test/resources/test_gtfs1.zip");
+
+    private static FeedSnapshot snapshot;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        FeedProcessor processor = new FeedProcessor(feed);
+        processor.setIncremental(null);
+        processor.run();
+        snapshot = processor.getSnapshot();
+        assertNotNull(snapshot);
+    }
+
+    @Test
+    public void calendarChanged() throws IOException {
+        File changed = replace("calendar.txt",
+                "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+                + "42348,1,1,1,1,1,0,0,20140219,20140419\n");
+
+        assertEquals(new HashSet<String>(Arrays.asList("calendar.txt")),
+                snapshot.getChangedTables(FeedSnapshot.hashTables(changed)));
+        // only calendar.txt is read when the snapshot is given, but the hashes are the same
+        assertEquals(FeedSnapshot.hashTables(changed), FeedSnapshot.hashTables(changed, snapshot));
+        assertSameAsFull(changed);
+    }
+
+    @Test
+    public void stopsChanged() throws IOException {
+        // move the duplicate stop away from the one it duplicates, which also changes the bounds
+        File changed = replace("stops.txt", read("stops.txt")
+                .replace("Duplicate Stop 1,,38.94338908847991,-77.03656196594238", "Stop 6,,38.96,-77.01"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("stops.txt")),
+                snapshot.getChangedTables(FeedSnapshot.hashTables(changed)));
+        assertSameAsFull(changed);
+    }
+
+    @Test
+    public void unchanged() throws IOException {
+        assertSameAsFull(feed);
+    }
+
+    /**
+     * Validate a feed incrementally from the snapshot of the original feed, and in full, and check that the results
+     * are the same.
+     */
+    private static void assertSameAsFull(File changed) throws IOException {
+        FeedProcessor full = new FeedProcessor(changed);
+        full.run();
+        FeedValidationResult expected = full.getOutput();
+
+        FeedProcessor incremental = new FeedProcessor(changed);
+        incremental.setIncremental(snapshot);
+        incremental.run();
+        FeedValidationResult actual = incremental.getOutput();
+
+        assertEquals(expected.loadStatus, actual.loadStatus);
+        assertEquals(expected.agencies, actual.agencies);
+        assertEquals(expected.agencyCount, actual.agencyCount);
+        assertEquals(expected.routeCount, actual.routeCount);
+        assertEquals(expected.tripCount, actual.tripCount);
+        assertEquals(expected.stopTimesCount, actual.stopTimesCount);
+        assertEquals(expected.startDate, actual.startDate);
+        assertEquals(expected.endDate, actual.endDate);
+        assertEquals(expected.bounds, actual.bounds);
+        assertEquals(expected.routes.invalidValues, actual.routes.invalidValues);
+        assertEquals(expected.stops.invalidValues, actual.stops.invalidValues);
+        assertEquals(expected.trips.invalidValues, actual.trips.invalidValues);
+        assertEquals(expected.shapes.invalidValues, actual.shapes.invalidValues);
+        assertNotNull(incremental.getSnapshot());
+    }
+
+    private static String read(String table) throws IOException {
+        try (ZipFile zip = new ZipFile(feed); InputStream in = zip.getInputStream(zip.getEntry(table))) {
+            byte[] buf = new byte[(int) zip.getEntry(table).getSize()];
+            int off = 0;
+            while (off < buf.length)
+                off += in.read(buf, off, buf.length - off);
+            return new String(buf, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return a copy of the feed with the contents of one table replaced
+     */
+    private static File replace(String table, String contents) throws IOException {
+        File changed = File.createTempFile("changed", ".zip");
+        changed.deleteOnExit();
+
+        try (ZipFile zip = new ZipFile(feed); ZipOutputStream out = new ZipOutputStream(new FileOutputStream(changed))) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                if (entry.getName().equals(table)) {
+                    out.write(contents.getBytes(StandardCharsets.UTF_8));
+                }
+                else {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        byte[] buf = new byte[4096];
+                        int read;
+                        while ((read = in.read(buf)) > 0)
+                            out.write(buf, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+
+        return changed;
+    }
+}
@@ -4,6 +4,8 @@ import com.conveyal.gtfs.validator.json.FeedProcessor;
 import com.conveyal.gtfs.validator.json.FeedValidationResultSet;
 import com.conveyal.gtfs.validator.json.backends.FileSystemFeedBackend;
 import com.conveyal.gtfs.validator.json.serialization.JsonSerializer;
+import com.conveyal.gtfs.validator.json.serialization.StreamingJsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -14,8 +16,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.TimeZone;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 public class JsonOutputTest {
@@ -53,6 +57,33 @@ public class JsonOutputTest {
         }
     }
 
+    @Test
+    public void streamingSameAsWhole() throws IOException {
+        FeedValidationResultSet results = new FeedValidationResultSet();
+        results.name = "resources";
+
+        File whole = File.createTempFile("whole", ".json");
+        whole.deleteOnExit();
+        File streamed = File.createTempFile("streamed", ".json");
+        streamed.deleteOnExit();
+
+        try (StreamingJsonSerializer serializer = new StreamingJsonSerializer(streamed, results.name, results.date);
+                Stream<Path> paths = getZipFiles()) {
+            for (Path path : paths.sorted().collect(Collectors.toList())) {
+                FeedProcessor processor = new FeedProcessor(path.toFile());
+                processor.run();
+                results.add(processor.getOutput());
+                serializer.add(processor.getOutput());
+            }
+        }
+
+        new JsonSerializer(results).serializeToFile(whole);
+
+        // the counts are in a different place, but the objects are the same
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals(mapper.readTree(whole), mapper.readTree(streamed));
+    }
+
     /**
      * Writes the results of validation to JSON for each provided GTFS dataset
      *